@@ -0,0 +1,70 @@
+package com.baglio.autocdninvalidator.core.helpers;
+
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Histogram;
+import org.apache.sling.commons.metrics.Meter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.metrics.Timer;
+
+/**
+ * Helper class to create metrics with a common naming scheme. Names are built as {@code
+ * autocdninvalidator.<scope>.<name>}, so all the metrics of this library can be found together in the Sling Metrics
+ * console and in JMX. When no metrics service is available, metrics are created by {@link MetricsService#NOOP}.
+ */
+public class MetricsHelper {
+  private static final String PREFIX = "autocdninvalidator.";
+
+  private final MetricsService metricsService;
+  private final String scope;
+
+  /**
+   * Construct helper for the given scope, such as the component name or its configuration ID.
+   *
+   * @param metricsService the metrics service, can be null
+   * @param scope scope of the metrics
+   */
+  public MetricsHelper(final MetricsService metricsService, final String scope) {
+    this.metricsService = metricsService != null ? metricsService : MetricsService.NOOP;
+    this.scope = PREFIX + scope + ".";
+  }
+
+  /**
+   * Gets or creates a counter.
+   *
+   * @param name name of the metric within the scope
+   * @return the counter
+   */
+  public Counter counter(final String name) {
+    return metricsService.counter(scope + name);
+  }
+
+  /**
+   * Gets or creates a meter.
+   *
+   * @param name name of the metric within the scope
+   * @return the meter
+   */
+  public Meter meter(final String name) {
+    return metricsService.meter(scope + name);
+  }
+
+  /**
+   * Gets or creates a timer.
+   *
+   * @param name name of the metric within the scope
+   * @return the timer
+   */
+  public Timer timer(final String name) {
+    return metricsService.timer(scope + name);
+  }
+
+  /**
+   * Gets or creates a histogram.
+   *
+   * @param name name of the metric within the scope
+   * @return the histogram
+   */
+  public Histogram histogram(final String name) {
+    return metricsService.histogram(scope + name);
+  }
+}
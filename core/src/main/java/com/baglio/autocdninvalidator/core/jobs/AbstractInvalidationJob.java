@@ -1,17 +1,29 @@
 package com.baglio.autocdninvalidator.core.jobs;
 
+import com.baglio.autocdninvalidator.core.service.ExecutionStrategyService;
+import com.baglio.autocdninvalidator.core.service.InvalidationPipelineService;
+import com.baglio.autocdninvalidator.core.service.PublicUrlCacheService;
+import com.baglio.autocdninvalidator.core.service.PurgeResult;
 import com.baglio.autocdninvalidator.core.service.ReadService;
+import com.baglio.autocdninvalidator.core.service.ReferenceIndexService;
 import com.baglio.autocdninvalidator.core.service.UtilityService;
+import com.baglio.autocdninvalidator.core.utils.PrefixTrie;
 import com.day.cq.commons.Externalizer;
-import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import org.apache.commons.lang.StringUtils;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.metrics.MetricsService;
 import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,6 +32,18 @@ public abstract class AbstractInvalidationJob {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(AbstractInvalidationJob.class);
 
+  /**
+   * Thrown when a worker cannot lease a resource resolver, e.g. because the pool is exhausted: the URLs of its paths
+   * are unknown, so the job must fail and be retried instead of purging a part of them.
+   */
+  static final class ResolverUnavailableException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    ResolverUnavailableException() {
+      super("No resource resolver available to compute public urls");
+    }
+  }
+
   /**
    * Returns the enabled state of this job.
    *
@@ -67,9 +91,9 @@ public abstract class AbstractInvalidationJob {
   public abstract Set<String> beforeInvalidation(Set<String> values);
 
   /**
-   * Hook method called after issuing CDN invalidation request.
+   * Hook method called after issuing CDN invalidation request, once per job processing paths.
    *
-   * @param result the result of CDN invalidation request
+   * @param result the result of CDN invalidation request: true only if every purge of the job succeeded
    * @param job the current job
    * @return true if invalidation succeed, false otherwise.
    */
@@ -95,6 +119,80 @@ public abstract class AbstractInvalidationJob {
    */
   abstract UtilityService getUtilityService();
 
+  /**
+   * Gets the execution strategy service, if available.
+   *
+   * @return The execution strategy service or null
+   */
+  abstract ExecutionStrategyService getExecutionStrategyService();
+
+  /**
+   * Gets the Sling metrics service, if available.
+   *
+   * @return The metrics service or null
+   */
+  abstract MetricsService getMetricsService();
+
+  /**
+   * Gets the public URL cache service, if available.
+   *
+   * @return The public URL cache service or null
+   */
+  abstract PublicUrlCacheService getPublicUrlCacheService();
+
+  /**
+   * Gets the reference index service, if available.
+   *
+   * @return The reference index service or null
+   */
+  abstract ReferenceIndexService getReferenceIndexService();
+
+  /**
+   * Gets the invalidation pipeline service, if available.
+   *
+   * @return The invalidation pipeline service or null
+   */
+  abstract InvalidationPipelineService getInvalidationPipelineService();
+
+  /**
+   * Gets the JobManager service, used to re-queue the objects of failed purges.
+   *
+   * @return the JobManager service
+   */
+  abstract JobManager getJobManager();
+
+  /**
+   * Gets the invalidation pipeline running the registered stages, falling back to no stages when the service is not
+   * available.
+   *
+   * @return The invalidation pipeline
+   */
+  InvalidationPipelineService getInvalidationPipeline() {
+    InvalidationPipelineService service = getInvalidationPipelineService();
+    return service != null ? service : InvalidationPipelineService.NO_STAGES;
+  }
+
+  /**
+   * Gets the public URL cache, falling back to no caching when the service is not available.
+   *
+   * @return The public URL cache
+   */
+  PublicUrlCacheService getPublicUrlCache() {
+    PublicUrlCacheService service = getPublicUrlCacheService();
+    return service != null ? service : PublicUrlCacheService.UNCACHED;
+  }
+
+  /**
+   * Gets the execution strategy to apply to paths, URLs and rules, falling back to sequential execution when no service
+   * is available.
+   *
+   * @return The execution strategy
+   */
+  ExecutionStrategyService getExecutionStrategy() {
+    ExecutionStrategyService service = getExecutionStrategyService();
+    return service != null ? service : ExecutionStrategyService.SEQUENTIAL;
+  }
+
   /**
    * Converts a set of content paths to a set of public URLs that can be accessed by external users. The method uses a
    * resource resolver to map the paths to their corresponding HTML pages, and then uses an externalizer to generate the
@@ -107,19 +205,57 @@ public abstract class AbstractInvalidationJob {
    * @return the set of public URLs for the content paths
    */
   Set<String> getPublicUrls(final Set<String> paths, final String domain, final String scheme) {
+    return getPublicUrls(paths, new UrlVariantExpander(null, Collections.singletonList(domain), scheme, false));
+  }
+
+  /**
+   * Converts a set of content paths to all the public URLs produced by the expander, mapping every path once. If any
+   * exception occurs during the conversion, the method logs an error message and returns an empty set, unless no
+   * resource resolver could be leased.
+   *
+   * <p>Paths are split into chunks according to the execution strategy, each processed by a worker with its own
+   * resource resolver. Public URLs are looked up in the {@link PublicUrlCacheService} first, when available.
+   *
+   * @param paths the set of content paths to convert
+   * @param expander the URL variants, domains and scheme to produce
+   * @return the set of public URLs for the content paths
+   * @throws ResolverUnavailableException if a worker could not lease a resource resolver
+   */
+  Set<String> getPublicUrls(final Set<String> paths, final UrlVariantExpander expander) {
     Set<String> result = new HashSet<>();
-    try (ResourceResolver resourceResolver = getReadService().getResourceResolver()) {
-      result =
-          paths
-              .parallelStream()
-              .map(
-                  path -> {
-                    String newPath = resourceResolver.map(path) + ".html";
-                    return getExternalizer().externalLink(resourceResolver, domain, scheme, newPath);
-                  })
-              .collect(Collectors.toSet());
+    try {
+      getExecutionStrategy()
+          .executePartitioned(paths, chunk -> getPublicUrls(chunk, expander))
+          .forEach(result::addAll);
+    } catch (ResolverUnavailableException e) {
+      throw e;
     } catch (Exception e) {
       LOGGER.error("Impossible to compute public urls for paths={}", paths, e);
+      result.clear();
+    }
+    return result;
+  }
+
+  /**
+   * Converts a chunk of content paths to public URLs with a resource resolver owned by the calling worker, as resource
+   * resolvers are not thread-safe. The resolver is leased from the read service pool, if enabled.
+   *
+   * @param paths the chunk of content paths to convert
+   * @param expander the URL variants, domains and scheme to produce
+   * @return the public URLs of the chunk
+   */
+  private List<String> getPublicUrls(final List<String> paths, final UrlVariantExpander expander) {
+    final PublicUrlCacheService urlCache = getPublicUrlCache();
+    final List<String> result = new ArrayList<>(paths.size() * expander.size());
+    try (ResourceResolver resourceResolver = getReadService().leaseResourceResolver()) {
+      if (resourceResolver == null) {
+        throw new ResolverUnavailableException();
+      }
+      final Function<String, List<String>> externalizer =
+          path -> expander.expand(resourceResolver, getExternalizer(), path);
+      for (String path : paths) {
+        result.addAll(urlCache.getPublicUrls(expander.getKey(), path, externalizer));
+      }
     }
     return result;
   }
@@ -132,30 +268,138 @@ public abstract class AbstractInvalidationJob {
    * invalidation value will be "tag-shoe". This method iterates over the paths and the rules, and returns a set of
    * unique invalidation values that match the paths.
    *
+   * <p>Rules are compiled on every call: consumers should compile them once into an {@link InvalidationRuleSet}.
+   *
    * @param paths the set of content paths that have changed
    * @param invalidationRules the map of rules mapping path patterns to invalidation values
    * @return the set of invalidation values for the Akamai CDN
    */
   Set<String> getInvalidationValues(final Set<String> paths, final Map<String, String> invalidationRules) {
+    return getInvalidationValues(
+        paths, invalidationRules != null ? new InvalidationRuleSet(invalidationRules) : null);
+  }
+
+  /**
+   * Generates invalidation values by applying precompiled rules to the content paths that have changed. Only the rules
+   * whose literal prefix matches the beginning of a path are evaluated against it.
+   *
+   * @param paths the set of content paths that have changed
+   * @param ruleSet the compiled rules
+   * @return the set of invalidation values for the Akamai CDN
+   */
+  Set<String> getInvalidationValues(final Set<String> paths, final InvalidationRuleSet ruleSet) {
     // Check if the input parameters are null and log an error message if they are
-    if (paths == null || invalidationRules == null) {
-      LOGGER.error("No valid mandatory inputs: paths: {}, invalidationRules: {}", paths, invalidationRules);
+    if (paths == null || ruleSet == null) {
+      LOGGER.error("No valid mandatory inputs: paths: {}, invalidationRules: {}", paths, ruleSet);
       return new HashSet<>();
     }
 
-    return paths.stream()
-        .flatMap(
-            path ->
-                invalidationRules.entrySet().parallelStream() // Create a stream of map entries
-                    .map(
-                        item ->
-                            new AbstractMap.SimpleEntry<>(
-                                Pattern.compile(item.getKey()).matcher(path),
-                                item.getValue())) // Map the entries to a pair of matcher and value
-                    .filter(e -> e.getKey().matches()) // Filter the pairs that match the path
-                    .map(e -> e.getKey().replaceAll(e.getValue())) // Map the pairs to the replaced values
-                    .filter(StringUtils::isNotBlank) // Filter the values that are not blank
-                    .collect(Collectors.toSet()).stream())
-        .collect(Collectors.toSet());
+    return getExecutionStrategy()
+        .execute(paths, stream -> stream.flatMap(path -> ruleSet.apply(path).stream()).collect(Collectors.toSet()));
+  }
+
+  /**
+   * Issues the purge requests of a job concurrently: every purge is started before waiting for any of them, so that the
+   * job lasts as long as the slowest request while the CDN service sends them. A purge failing with an exception is
+   * logged and counted as failed for unknown objects, without affecting the others.
+   *
+   * @param purges the purge requests, each starting an asynchronous purge
+   * @return the results of the purges, in the same order
+   */
+  List<PurgeResult> purgeConcurrently(final List<Supplier<CompletableFuture<PurgeResult>>> purges) {
+    final List<CompletableFuture<PurgeResult>> pending = new ArrayList<>(purges.size());
+    for (Supplier<CompletableFuture<PurgeResult>> purge : purges) {
+      pending.add(start(purge));
+    }
+    final List<PurgeResult> results = new ArrayList<>(pending.size());
+    for (CompletableFuture<PurgeResult> future : pending) {
+      results.add(
+          future
+              .handle(
+                  (purgeResult, e) -> {
+                    if (e != null) {
+                      LOGGER.error("Purge request failed", e);
+                    }
+                    return purgeResult != null ? purgeResult : PurgeResult.failed(0, null);
+                  })
+              .join());
+    }
+    return results;
+  }
+
+  private static CompletableFuture<PurgeResult> start(final Supplier<CompletableFuture<PurgeResult>> purge) {
+    try {
+      final CompletableFuture<PurgeResult> future = purge.get();
+      return future != null ? future : CompletableFuture.completedFuture(PurgeResult.failed(0, null));
+    } catch (RuntimeException e) {
+      final CompletableFuture<PurgeResult> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+  }
+
+  /**
+   * Adds to the content paths the pages referencing them, e.g. the pages embedding a changed asset or content fragment,
+   * as found in the reference index. Paths are returned as they are when the index is not available.
+   *
+   * @param paths the content paths that have changed
+   * @return the content paths and their referencing pages
+   */
+  Set<String> addReferencingPages(final Set<String> paths) {
+    final ReferenceIndexService referenceIndex = getReferenceIndexService();
+    if (referenceIndex == null) {
+      return paths;
+    }
+    final Set<String> referencingPages = referenceIndex.getReferencingPages(paths);
+    if (referencingPages.isEmpty()) {
+      return paths;
+    }
+    LOGGER.debug("Pages referencing the paths: {}", referencingPages);
+    Set<String> result = new HashSet<>(paths);
+    result.addAll(referencingPages);
+    return result;
+  }
+
+  /**
+   * Collapses the content paths into their nearest purge anchor. A path equal to an anchor, or a descendant of it, is
+   * replaced by the anchor itself, while paths outside any anchor are kept as they are. When a whole section changes,
+   * rules are then applied to the section once instead of to each of its pages, and the CDN receives a minimal set of
+   * tags or codes. Only tags and codes cover the subtree of the anchor: URLs must be computed from the paths as they
+   * are, since a URL purge invalidates that URL only.
+   *
+   * @param paths the content paths that have changed
+   * @param purgeAnchors the configured purge anchors, stored by path
+   * @return the reduced set of paths
+   */
+  Set<String> collapseToPurgeAnchors(final Set<String> paths, final PrefixTrie<String> purgeAnchors) {
+    if (paths == null || purgeAnchors == null || purgeAnchors.isEmpty()) {
+      return paths;
+    }
+
+    Set<String> result = new HashSet<>();
+    for (String path : paths) {
+      AnchorCollector collector = new AnchorCollector(path);
+      purgeAnchors.forEachPrefixValue(path, collector);
+      result.add(collector.anchor != null ? collector.anchor : path);
+    }
+    LOGGER.debug("Paths collapsed to purge anchors: {} -> {}", paths.size(), result.size());
+    return result;
+  }
+
+  /** Keeps the longest anchor which is the path itself or one of its ancestors. */
+  private static final class AnchorCollector implements Consumer<String> {
+    private final String path;
+    private String anchor;
+
+    private AnchorCollector(final String path) {
+      this.path = path;
+    }
+
+    @Override
+    public void accept(final String candidate) {
+      if (path.length() == candidate.length() || path.charAt(candidate.length()) == '/') {
+        anchor = candidate;
+      }
+    }
   }
 }
@@ -1,12 +1,20 @@
 package com.baglio.autocdninvalidator.core.jobs;
 
+import com.baglio.autocdninvalidator.core.service.ExecutionStrategyService;
+import com.baglio.autocdninvalidator.core.service.InvalidationPipelineService;
+import com.baglio.autocdninvalidator.core.service.PublicUrlCacheService;
 import com.baglio.autocdninvalidator.core.service.ReadService;
+import com.baglio.autocdninvalidator.core.service.ReferenceIndexService;
 import com.baglio.autocdninvalidator.core.service.UtilityService;
 import com.day.cq.commons.Externalizer;
+import org.apache.sling.commons.metrics.MetricsService;
 import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
 import org.apache.sling.event.jobs.consumer.JobConsumer;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
@@ -18,6 +26,23 @@ public class CustomExamplePagesInvalidationJobConsumer extends EditorialAssetInv
   @Reference private ReadService readService;
   @Reference private UtilityService utilityService;
 
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private ExecutionStrategyService executionStrategyService;
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private MetricsService metricsService;
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private PublicUrlCacheService publicUrlCacheService;
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private ReferenceIndexService referenceIndexService;
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private InvalidationPipelineService invalidationPipelineService;
+
+  @Reference private JobManager jobManager;
+
   /**
    * Execute the job. If the job has been processed successfully, JobResult.OK should be returned. If the job has not
    * been processed completely, but might be rescheduled JobResult.FAILED should be returned. If the job processing
@@ -49,6 +74,42 @@ public class CustomExamplePagesInvalidationJobConsumer extends EditorialAssetInv
     return utilityService;
   }
 
+  /** {@inheritDoc} */
+  @Override
+  ExecutionStrategyService getExecutionStrategyService() {
+    return executionStrategyService;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  MetricsService getMetricsService() {
+    return metricsService;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  PublicUrlCacheService getPublicUrlCacheService() {
+    return publicUrlCacheService;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  ReferenceIndexService getReferenceIndexService() {
+    return referenceIndexService;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  InvalidationPipelineService getInvalidationPipelineService() {
+    return invalidationPipelineService;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  JobManager getJobManager() {
+    return jobManager;
+  }
+
   @ObjectClassDefinition(name = "Auto CDN Invalidator - Job Consumer - Website Specific")
   public interface Config extends EditorialAssetInvalidationJobConsumer.Config {}
 }
@@ -1,21 +1,45 @@
 package com.baglio.autocdninvalidator.core.jobs;
 
 import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.helpers.MetricsHelper;
 import com.baglio.autocdninvalidator.core.service.CdnInvalidationService;
+import com.baglio.autocdninvalidator.core.service.ExecutionStrategyService;
+import com.baglio.autocdninvalidator.core.service.InvalidationPipelineService;
+import com.baglio.autocdninvalidator.core.service.InvalidationStage;
+import com.baglio.autocdninvalidator.core.service.PublicUrlCacheService;
+import com.baglio.autocdninvalidator.core.service.PurgeResult;
 import com.baglio.autocdninvalidator.core.service.ReadService;
+import com.baglio.autocdninvalidator.core.service.ReferenceIndexService;
 import com.baglio.autocdninvalidator.core.service.UtilityService;
+import com.baglio.autocdninvalidator.core.utils.BoundedCache;
+import com.baglio.autocdninvalidator.core.utils.PathSetCodec;
+import com.baglio.autocdninvalidator.core.utils.PrefixTrie;
 import com.day.cq.commons.Externalizer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import org.apache.commons.lang.StringUtils;
+import org.apache.sling.commons.metrics.MetricsService;
 import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
 import org.apache.sling.event.jobs.consumer.JobConsumer;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.AttributeType;
 import org.osgi.service.metatype.annotations.Designate;
@@ -29,6 +53,12 @@ public class EditorialAssetInvalidationJobConsumer extends AbstractInvalidationJ
   private static final LoggingHelper LOGGER = new LoggingHelper(EditorialAssetInvalidationJobConsumer.class);
   /** Job property for paths to invalidate. */
   public static final String JOB_PROPERTY_PATHS = "paths";
+  /** Job property for paths to invalidate, encoded by {@link PathSetCodec}. */
+  public static final String JOB_PROPERTY_ENCODED_PATHS = "encodedPaths";
+  /** Job property for the type of invalidation of a job re-queuing the objects of a failed purge. */
+  public static final String JOB_PROPERTY_PURGE_TYPE = "purgeType";
+  /** Job property for the codes, tags or URLs of a job re-queuing the objects of a failed purge. */
+  public static final String JOB_PROPERTY_PURGE_OBJECTS = "purgeObjects";
 
   private static final String VALUE_SEPARATOR = "=";
   private static final int VALUE_LEFT_OPERAND_INDEX = 0;
@@ -37,29 +67,75 @@ public class EditorialAssetInvalidationJobConsumer extends AbstractInvalidationJ
   private boolean isEnabled;
   private String cdnConfigurationID;
   private Map<String, String> invalidationRules;
-  private String invalidationType;
+  private final AtomicReference<InvalidationRuleSet> invalidationRuleSet = new AtomicReference<>();
+  private List<String> invalidationTypes;
   private String externalLinkScheme;
   private String externalLinkDomain;
+  private UrlVariantExpander urlVariantExpander;
+  private boolean includeReferencingPages;
+  private PrefixTrie<String> purgeAnchors;
+  private PurgeCostOptimizer costOptimizer;
+  private boolean requeueFailedObjects;
 
   @Reference private Externalizer externalizer;
   @Reference private ReadService readService;
   @Reference private UtilityService utilityService;
 
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private ExecutionStrategyService executionStrategyService;
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private MetricsService metricsService;
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private PublicUrlCacheService publicUrlCacheService;
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private ReferenceIndexService referenceIndexService;
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private InvalidationPipelineService invalidationPipelineService;
+
+  @Reference private JobManager jobManager;
+
   /**
    * Activate method to initialize configuration.
    *
    * @param config The OSGi configuration
    */
   @Activate
+  @Modified
   protected void activate(final EditorialAssetInvalidationJobConsumer.Config config) {
     LOGGER.info("Configuration values={}", config);
     this.isEnabled = config.isEnabled();
     this.cdnConfigurationID = config.cdnConfigurationID();
-    this.invalidationType = config.invalidation_type();
+    this.invalidationTypes = parseInvalidationTypes(config.invalidation_type());
     this.externalLinkDomain =
         StringUtils.defaultIfBlank(config.externalLinkDomain(), Config.DEFAULT_EXTERNAL_LINK_DOMAIN);
     this.externalLinkScheme =
         StringUtils.defaultIfBlank(config.externalLinkScheme(), Config.EXTERNAL_LINK_SCHEME_OPTION_HTTPS);
+    List<String> externalLinkDomains = new ArrayList<>();
+    externalLinkDomains.add(externalLinkDomain);
+    if (null != config.additional_external_link_domains()) {
+      Arrays.stream(config.additional_external_link_domains())
+          .filter(StringUtils::isNotBlank)
+          .map(String::trim)
+          .forEach(externalLinkDomains::add);
+    }
+    this.urlVariantExpander =
+        new UrlVariantExpander(
+            config.url_variants(), externalLinkDomains, externalLinkScheme, config.url_include_vanity_paths());
+    this.includeReferencingPages = config.include_referencing_pages();
+    this.purgeAnchors = new PrefixTrie<>();
+    if (null != config.purge_anchors()) {
+      Arrays.stream(config.purge_anchors())
+          .filter(StringUtils::isNotBlank)
+          .map(anchor -> StringUtils.removeEnd(anchor.trim(), "/"))
+          .filter(StringUtils::isNotEmpty)
+          .forEach(anchor -> purgeAnchors.put(anchor, anchor));
+    }
+    this.costOptimizer = config.optimizer_enabled() ? createCostOptimizer(config) : null;
+    this.requeueFailedObjects = config.requeue_failed_objects();
 
     if (null != config.tagCodeMappings()) {
       this.invalidationRules =
@@ -80,7 +156,77 @@ public class EditorialAssetInvalidationJobConsumer extends AbstractInvalidationJ
                       (v1, v2) -> v1,
                       TreeMap::new) // Collect the results into a TreeMap
                   );
+    } else {
+      this.invalidationRules = null;
+    }
+    // compiled once here, jobs read the current rule set without locking; a new rule set comes with an empty cache
+    invalidationRuleSet.set(
+        invalidationRules != null
+            ? new InvalidationRuleSet(
+                invalidationRules, createValuesCache(config.values_cache_size(), config.values_cache_ttl()))
+            : null);
+  }
+
+  /**
+   * Splits the configured invalidation type into the types of purge to issue for every job.
+   *
+   * @param invalidationType a type, or a list of types separated by {@value Config#INVALIDATION_TYPE_SEPARATOR}
+   * @return the distinct types in configuration order, possibly empty
+   */
+  static List<String> parseInvalidationTypes(final String invalidationType) {
+    if (invalidationType == null) {
+      return Collections.emptyList();
+    }
+    Set<String> types = new LinkedHashSet<>();
+    for (String type : invalidationType.split(Config.INVALIDATION_TYPE_SEPARATOR)) {
+      if (StringUtils.isNotBlank(type)) {
+        types.add(type.trim());
+      }
+    }
+    return Collections.unmodifiableList(new ArrayList<>(types));
+  }
+
+  /**
+   * Creates the purge cost optimizer.
+   *
+   * @param config The OSGi configuration
+   * @return the optimizer
+   */
+  private PurgeCostOptimizer createCostOptimizer(final EditorialAssetInvalidationJobConsumer.Config config) {
+    List<String> escalationCodes = new ArrayList<>();
+    if (null != config.optimizer_escalation_codes()) {
+      Arrays.stream(config.optimizer_escalation_codes())
+          .filter(StringUtils::isNotBlank)
+          .map(String::trim)
+          .forEach(escalationCodes::add);
+    }
+    return new PurgeCostOptimizer(
+        config.optimizer_url_cost(),
+        config.optimizer_tag_cost(),
+        config.optimizer_code_cost(),
+        config.optimizer_escalation_threshold(),
+        escalationCodes,
+        new MetricsHelper(getMetricsService(), getClass().getSimpleName()));
+  }
+
+  /**
+   * Creates the cache from content path to invalidation values.
+   *
+   * @param maxSize max amount of cached paths, 0 or less to disable the cache
+   * @param ttlMillis time to live of the cached values in milliseconds
+   * @return the cache, or null if disabled
+   */
+  private BoundedCache<String, List<String>> createValuesCache(final int maxSize, final long ttlMillis) {
+    if (maxSize <= 0) {
+      return null;
     }
+    MetricsHelper metrics = new MetricsHelper(getMetricsService(), getClass().getSimpleName());
+    return new BoundedCache<>(
+        maxSize,
+        ttlMillis,
+        System::nanoTime,
+        metrics.counter("values.cache.hit"),
+        metrics.counter("values.cache.miss"));
   }
 
   /**
@@ -109,14 +255,29 @@ public class EditorialAssetInvalidationJobConsumer extends AbstractInvalidationJ
 
       LOGGER.debug("Consuming job - topic: {}, properties: {}", job.getTopic(), job);
 
-      Set<String> paths = (Set<String>) job.getProperty(JOB_PROPERTY_PATHS);
+      final String purgeType = job.getProperty(JOB_PROPERTY_PURGE_TYPE, String.class);
+      if (purgeType != null) {
+        return handleRequeued(purgeType, cdnInvalidationService, job);
+      }
+
+      final Set<String> paths;
+      try {
+        paths = getPaths(job);
+      } catch (IllegalArgumentException e) {
+        // a payload that cannot be decoded never will: retrying is pointless
+        LOGGER.error("Invalid paths payload: processing cancelled", e);
+        return JobResult.CANCEL;
+      }
       if (paths.isEmpty()) {
         LOGGER.debug("No Paths have been provided: processing cancelled");
         return JobResult.CANCEL;
       }
       LOGGER.info("Paths to process: {}", paths);
 
-      return handleInvalidate(invalidationType, cdnInvalidationService, paths, job);
+      return handleInvalidate(invalidationTypes, cdnInvalidationService, paths, job);
+    } catch (ResolverUnavailableException e) {
+      LOGGER.error("Impossible to compute public urls: {}, job will be retried", e.getMessage());
+      return JobResult.FAILED;
     } catch (Exception e) {
       LOGGER.error("Unexpected error while invalidating in CDN", e);
       return JobResult.FAILED;
@@ -124,78 +285,232 @@ public class EditorialAssetInvalidationJobConsumer extends AbstractInvalidationJ
   }
 
   /**
-   * Handles invalidating by code or tag based on configuration.
+   * Reads the paths of the job, either encoded or stored as a set of strings by previous versions of the listeners.
    *
-   * @param jobInvalidationType type of invalidation
+   * @param job the current job being processed
+   * @return the paths to invalidate
+   * @throws IllegalArgumentException if the encoded paths are not valid
+   */
+  @SuppressWarnings("unchecked")
+  Set<String> getPaths(final Job job) {
+    final byte[] encodedPaths = job.getProperty(JOB_PROPERTY_ENCODED_PATHS, byte[].class);
+    if (encodedPaths != null) {
+      return PathSetCodec.decode(encodedPaths);
+    }
+    final Object paths = job.getProperty(JOB_PROPERTY_PATHS);
+    return paths instanceof Set ? (Set<String>) paths : Collections.emptySet();
+  }
+
+  /**
+   * Handles invalidating by code, tag and/or URLs based on configuration. Paths are expanded and collapsed once for all
+   * the types, values and URLs are computed at most once each, then the purge requests are issued concurrently.
+   *
+   * <p>{@link #afterInvalidation(boolean, Job)} is told whether all of them succeeded. Re-queuing is separate from
+   * success: when the hook confirms a failure, the job still succeeds if the objects of the failed purges are
+   * re-queued, as they are purged by another job.
+   *
+   * @param jobInvalidationTypes types of invalidation
    * @param cdnInvalidationService the CDN invalidation service to use
    * @param paths the content paths that changed
    * @param job the current job being processed
    * @return the job result based on success or failure
    */
   private JobResult handleInvalidate(
-      final String jobInvalidationType,
+      final List<String> jobInvalidationTypes,
       final CdnInvalidationService cdnInvalidationService,
       final Set<String> paths,
       final Job job) {
     LOGGER.debug("About to get invalidation for items: {}", paths);
 
-    Set<String> items;
-    switch (jobInvalidationType) {
-      case Config.INVALIDATION_TYPE_OPTION_CODE:
-      case Config.INVALIDATION_TYPE_OPTION_TAG:
-        items = processValues(paths);
-        break;
-      case Config.INVALIDATION_TYPE_OPTION_URLS:
-        items = processURLs(paths);
-        break;
-      default:
-        LOGGER.error("Invalidation type is not allowed: {}", jobInvalidationType);
-        return JobResult.FAILED;
+    if (jobInvalidationTypes.isEmpty()) {
+      LOGGER.error("Invalidation type is not allowed: {}", jobInvalidationTypes);
+      return JobResult.FAILED;
+    }
+
+    final Set<String> expandedPaths = includeReferencingPages ? addReferencingPages(paths) : paths;
+    final String jobTopic = job.getTopic();
+    final Set<String> processedPaths =
+        getInvalidationPipeline().process(InvalidationStage.PHASE_PATHS, jobTopic, expandedPaths);
+    // the value of an anchor covers its subtree, while URL purges are not hierarchical and need every path
+    final Set<String> valuePaths = collapseToPurgeAnchors(processedPaths, purgeAnchors);
+    Set<String> values = null;
+    Map<String, Set<String>> plan = new LinkedHashMap<>();
+    for (String jobInvalidationType : jobInvalidationTypes) {
+      switch (jobInvalidationType) {
+        case Config.INVALIDATION_TYPE_OPTION_CODE:
+        case Config.INVALIDATION_TYPE_OPTION_TAG:
+          if (values == null) {
+            values = beforeInvalidation(processValues(valuePaths, jobTopic));
+            LOGGER.debug("Values to invalidate: {}", values);
+          }
+          plan.put(jobInvalidationType, values);
+          break;
+        case Config.INVALIDATION_TYPE_OPTION_URLS:
+          final Set<String> urls = beforeInvalidation(processURLs(processedPaths, jobTopic));
+          LOGGER.debug("URLs to invalidate: {}", urls);
+          plan.put(jobInvalidationType, urls);
+          break;
+        default:
+          LOGGER.error("Invalidation type is not allowed: {}", jobInvalidationType);
+          return JobResult.FAILED;
+      }
+    }
+    if (costOptimizer != null) {
+      plan = costOptimizer.optimize(plan, () -> getCoveringValues(valuePaths, jobTopic));
     }
 
-    LOGGER.debug("Items to invalidate: {}", items);
+    final List<Supplier<CompletableFuture<PurgeResult>>> purges = new ArrayList<>(plan.size());
+    plan.forEach((type, items) -> purges.add(getPurge(cdnInvalidationService, type, items)));
+    final List<PurgeResult> results = purgeConcurrently(purges);
+    final boolean purged = results.stream().allMatch(PurgeResult::isSuccess);
+    boolean result = afterInvalidation(purged, job);
+    if (!result && !purged) {
+      result = requeueFailedPurges(new ArrayList<>(plan.keySet()), results, job);
+    }
+    return getFinalResult(result, job);
+  }
 
-    items = beforeInvalidation(items);
-    boolean result;
+  /**
+   * Purges again the objects of a failed purge, re-queued by a previous job: the paths are not processed again, and
+   * {@link #afterInvalidation(boolean, Job)} is not called again, as it was told the failure by the previous job. The
+   * job is retried by Sling as long as the purge fails.
+   *
+   * @param purgeType the type of invalidation of the objects
+   * @param cdnInvalidationService the CDN invalidation service to use
+   * @param job the current job being processed
+   * @return the job result based on success or failure
+   */
+  private JobResult handleRequeued(
+      final String purgeType, final CdnInvalidationService cdnInvalidationService, final Job job) {
+    final String[] objects = job.getProperty(JOB_PROPERTY_PURGE_OBJECTS, String[].class);
+    if (!Config.INVALIDATION_TYPE_OPTION_CODE.equals(purgeType)
+        && !Config.INVALIDATION_TYPE_OPTION_TAG.equals(purgeType)
+        && !Config.INVALIDATION_TYPE_OPTION_URLS.equals(purgeType)) {
+      LOGGER.error("Invalidation type is not allowed: {}", purgeType);
+      return JobResult.CANCEL;
+    }
+    if (objects == null || objects.length == 0) {
+      LOGGER.debug("No objects have been provided: processing cancelled");
+      return JobResult.CANCEL;
+    }
+    LOGGER.info("Re-queued objects to purge by {}: {}", purgeType, objects.length);
+    final PurgeResult result =
+        purgeConcurrently(
+                Collections.singletonList(
+                    getPurge(cdnInvalidationService, purgeType, new LinkedHashSet<>(Arrays.asList(objects)))))
+            .get(0);
+    LOGGER.debug("Purge of re-queued objects by {}: {}", purgeType, result);
+    return getFinalResult(result.isSuccess(), job);
+  }
+
+  /**
+   * Re-queues the objects of the failed purges of a job, when enabled, as new jobs, one per type of invalidation, so
+   * that they are purged again without processing the paths again. Only transient failures are re-queued, once the CDN
+   * service gave up retrying them; when a failure is permanent, or its failed objects are unknown, nothing is re-queued
+   * and the job fails as a whole.
+   *
+   * @param types the types of invalidation, in the order of the purges
+   * @param results the results of the purges
+   * @param job the current job being processed
+   * @return true if the failed objects of every failed purge were re-queued, false otherwise
+   */
+  private boolean requeueFailedPurges(final List<String> types, final List<PurgeResult> results, final Job job) {
+    if (!requeueFailedObjects) {
+      return false;
+    }
+    final Map<String, Set<String>> failedObjects = new LinkedHashMap<>();
+    for (int i = 0; i < results.size(); i++) {
+      final PurgeResult result = results.get(i);
+      LOGGER.debug("Purge by {}: {}", types.get(i), result);
+      if (result.isSuccess()) {
+        continue;
+      }
+      if (!result.isRetryable() || result.getFailedObjects().isEmpty()) {
+        LOGGER.warn("Failed objects of the purge by {} not re-queued: {}", types.get(i), result);
+        return false;
+      }
+      failedObjects.put(types.get(i), result.getFailedObjects());
+    }
+    if (failedObjects.isEmpty()) {
+      return true;
+    }
+
+    final JobManager jobManager = getJobManager();
+    if (jobManager == null) {
+      return false;
+    }
+    final MetricsHelper metrics = new MetricsHelper(getMetricsService(), getClass().getSimpleName());
+    for (Map.Entry<String, Set<String>> entry : failedObjects.entrySet()) {
+      final Map<String, Object> properties = new HashMap<>();
+      properties.put(JOB_PROPERTY_PURGE_TYPE, entry.getKey());
+      properties.put(JOB_PROPERTY_PURGE_OBJECTS, entry.getValue().toArray(new String[0]));
+      if (jobManager.addJob(job.getTopic(), properties) == null) {
+        LOGGER.error("Impossible to re-queue the failed objects of the purge by {}", entry.getKey());
+        return false;
+      }
+      LOGGER.warn("Re-queued {} failed objects of the purge by {}", entry.getValue().size(), entry.getKey());
+      metrics.counter("requeued.objects").increment(entry.getValue().size());
+    }
+    return true;
+  }
+
+  /**
+   * Computes the invalidation values of the paths when every path yields at least one of them, so that purging the
+   * values has the same effect as purging the URLs of the paths.
+   *
+   * @param paths the content paths
+   * @param jobTopic the topic of the current job
+   * @return the processed invalidation values, or null if some path has no value
+   */
+  private Set<String> getCoveringValues(final Set<String> paths, final String jobTopic) {
+    final InvalidationRuleSet ruleSet = invalidationRuleSet.get();
+    if (ruleSet == null || paths.stream().anyMatch(path -> ruleSet.apply(path).isEmpty())) {
+      return null;
+    }
+    return beforeInvalidation(processValues(paths, jobTopic));
+  }
+
+  /**
+   * Binds the asynchronous purge request of an invalidation type to its items.
+   *
+   * @param cdnInvalidationService the CDN invalidation service to use
+   * @param jobInvalidationType a valid type of invalidation
+   * @param items the codes, tags or URLs to purge
+   * @return the purge request
+   */
+  private static Supplier<CompletableFuture<PurgeResult>> getPurge(
+      final CdnInvalidationService cdnInvalidationService, final String jobInvalidationType, final Set<String> items) {
     switch (jobInvalidationType) {
       case Config.INVALIDATION_TYPE_OPTION_CODE:
-        result = cdnInvalidationService.purgeByCode(items);
-        break;
+        return () -> cdnInvalidationService.purgeByCodeAsync(items);
       case Config.INVALIDATION_TYPE_OPTION_TAG:
-        result = cdnInvalidationService.purgeByTag(items);
-        break;
-      case Config.INVALIDATION_TYPE_OPTION_URLS:
-        LOGGER.debug("Values after processing: {}", items);
-        result = cdnInvalidationService.purgeByURLs(items);
-        break;
+        return () -> cdnInvalidationService.purgeByTagAsync(items);
       default:
-        LOGGER.error("Invalidation type is not allowed: {}", jobInvalidationType);
-        return JobResult.FAILED;
+        return () -> cdnInvalidationService.purgeByURLsAsync(items);
     }
-
-    result = afterInvalidation(result, job);
-    return getFinalResult(result, job);
   }
 
   /**
    * Processes the content paths to generate invalidation values.
    *
-   * <p>Applies before, main, and after processing pipeline.
+   * <p>Applies before, main, and after processing pipeline, then the registered stages of the values phase.
    *
    * @param paths the content paths that changed
+   * @param jobTopic the topic of the current job
    * @return the set of processed invalidation values
    */
-  private Set<String> processValues(final Set<String> paths) {
+  private Set<String> processValues(final Set<String> paths, final String jobTopic) {
 
     LOGGER.debug("About to process values: {}", paths);
 
     Set<String> values = preprocessInvalidationValues(paths);
     LOGGER.trace("Invalidation values after initial processing: {}", values);
 
-    values = getInvalidationValues(values, invalidationRules);
+    values = getInvalidationValues(values, invalidationRuleSet.get());
     LOGGER.trace("Invalidation values after main processing: {}", values);
 
     values = postprocessInvalidationValues(values);
+    values = getInvalidationPipeline().process(InvalidationStage.PHASE_VALUES, jobTopic, values);
     LOGGER.debug("Final invalidation values to send: {}", values);
 
     return values;
@@ -204,22 +519,24 @@ public class EditorialAssetInvalidationJobConsumer extends AbstractInvalidationJ
   /**
    * Processes the paths to get public URLs.
    *
-   * <p>Applies before, main, and after processing pipeline.
+   * <p>Applies before, main, and after processing pipeline, then the registered stages of the URLs phase.
    *
    * @param paths the content paths
+   * @param jobTopic the topic of the current job
    * @return the set of public URLs
    */
-  private Set<String> processURLs(final Set<String> paths) {
+  private Set<String> processURLs(final Set<String> paths, final String jobTopic) {
 
     LOGGER.debug("About to process urls: {}", paths);
 
     Set<String> urls = preprocessPublicUrls(paths);
     LOGGER.trace("Invalidation urls after initial processing: {}", urls);
 
-    urls = getPublicUrls(urls, externalLinkDomain, externalLinkScheme);
+    urls = getPublicUrls(urls, urlVariantExpander);
     LOGGER.trace("Invalidation urls after main processing: {}", urls);
 
     urls = postprocessPublicUrls(urls);
+    urls = getInvalidationPipeline().process(InvalidationStage.PHASE_URLS, jobTopic, urls);
     LOGGER.debug("Final invalidation urls to send: {}", urls);
 
     return urls;
@@ -308,6 +625,42 @@ public class EditorialAssetInvalidationJobConsumer extends AbstractInvalidationJ
     return utilityService;
   }
 
+  /** {@inheritDoc} */
+  @Override
+  ExecutionStrategyService getExecutionStrategyService() {
+    return executionStrategyService;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  MetricsService getMetricsService() {
+    return metricsService;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  PublicUrlCacheService getPublicUrlCacheService() {
+    return publicUrlCacheService;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  ReferenceIndexService getReferenceIndexService() {
+    return referenceIndexService;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  InvalidationPipelineService getInvalidationPipelineService() {
+    return invalidationPipelineService;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  JobManager getJobManager() {
+    return jobManager;
+  }
+
   /** OSGi configuration definition. */
   @ObjectClassDefinition(name = "Auto CDN Invalidator - Job Consumer - Website Generic")
   public @interface Config {
@@ -315,6 +668,7 @@ public class EditorialAssetInvalidationJobConsumer extends AbstractInvalidationJ
     String INVALIDATION_TYPE_OPTION_URLS = "urls";
     String INVALIDATION_TYPE_OPTION_TAG = "tag";
     String INVALIDATION_TYPE_OPTION_CODE = "code";
+    String INVALIDATION_TYPE_SEPARATOR = ",";
     String EXTERNAL_LINK_SCHEME_OPTION_HTTPS = "https";
     String DEFAULT_EXTERNAL_LINK_DOMAIN = "publish";
 
@@ -332,11 +686,19 @@ public class EditorialAssetInvalidationJobConsumer extends AbstractInvalidationJ
 
     @AttributeDefinition(
         name = "Type of Invalidation",
-        description = "Defines type of invalidate to be leveraged",
+        description =
+            "Defines type of invalidate to be leveraged. Combined types purge the same content in a single job, "
+                + "issuing their requests concurrently",
         options = {
           @Option(label = "URLs", value = INVALIDATION_TYPE_OPTION_URLS),
           @Option(label = "Tag", value = INVALIDATION_TYPE_OPTION_TAG),
           @Option(label = "Code", value = INVALIDATION_TYPE_OPTION_CODE),
+          @Option(
+              label = "Tag and URLs",
+              value = INVALIDATION_TYPE_OPTION_TAG + INVALIDATION_TYPE_SEPARATOR + INVALIDATION_TYPE_OPTION_URLS),
+          @Option(
+              label = "Code and URLs",
+              value = INVALIDATION_TYPE_OPTION_CODE + INVALIDATION_TYPE_SEPARATOR + INVALIDATION_TYPE_OPTION_URLS),
         })
     String invalidation_type() default INVALIDATION_TYPE_OPTION_TAG;
 
@@ -362,6 +724,101 @@ public class EditorialAssetInvalidationJobConsumer extends AbstractInvalidationJ
           @Option(label = "HTTP", value = "http")
         })
     String externalLinkScheme() default EXTERNAL_LINK_SCHEME_OPTION_HTTPS;
+
+    @AttributeDefinition(
+        name = "Additional External Link Domains",
+        description =
+            "Further externalizer domains whose URLs are purged together with the ones of the External Link Domain")
+    String[] additional_external_link_domains();
+
+    @AttributeDefinition(
+        name = "URL Variants",
+        description =
+            "Cached representations of every page, purged together. {path} is replaced by the mapped path, e.g. "
+                + "{path}.html, {path}.model.json, {path}.mobile.html, {path} or {path}/")
+    String[] url_variants() default {UrlVariantExpander.DEFAULT_TEMPLATE};
+
+    @AttributeDefinition(
+        name = "Include Vanity URLs",
+        type = AttributeType.BOOLEAN,
+        description = "Tick to purge the URL variants of the vanity paths of every page too")
+    boolean url_include_vanity_paths() default false;
+
+    @AttributeDefinition(
+        name = "Purge Anchors",
+        description =
+            "Optional content paths (e.g. site sections) whose descendants are collapsed into the anchor itself before "
+                + "computing tags or codes. URLs are computed for every path. Regex are not supported here.")
+    String[] purge_anchors();
+
+    @AttributeDefinition(
+        name = "Include Referencing Pages",
+        type = AttributeType.BOOLEAN,
+        description =
+            "Tick to purge also the pages embedding the changed assets or content fragments, as found in the "
+                + "reference index")
+    boolean include_referencing_pages() default false;
+
+    @AttributeDefinition(
+        name = "Values Cache Size",
+        description =
+            "Max amount of content paths whose tags or codes are memoized. The cache is cleared whenever this "
+                + "configuration changes. 0 disables the cache.",
+        type = AttributeType.INTEGER)
+    int values_cache_size() default 0;
+
+    @AttributeDefinition(
+        name = "Values Cache TTL",
+        description = "Time to live of the memoized tags or codes in milliseconds. 0 keeps them until evicted.",
+        type = AttributeType.LONG)
+    long values_cache_ttl() default 300000;
+
+    @AttributeDefinition(
+        name = "Enable Purge Optimizer",
+        type = AttributeType.BOOLEAN,
+        description =
+            "Tick to replace the purge requests produced by the rules with the cheapest equivalent ones, according to "
+                + "the weights below: URLs dropped when the tags purged with them cover every path, or anything by the "
+                + "Escalation CP Codes")
+    boolean optimizer_enabled() default false;
+
+    @AttributeDefinition(
+        name = "Purge Optimizer - URL Weight",
+        description = "Cost of purging one URL, e.g. its share of API calls and rate limits",
+        type = AttributeType.LONG)
+    long optimizer_url_cost() default 1;
+
+    @AttributeDefinition(
+        name = "Purge Optimizer - Tag Weight",
+        description = "Cost of purging one tag",
+        type = AttributeType.LONG)
+    long optimizer_tag_cost() default 10;
+
+    @AttributeDefinition(
+        name = "Purge Optimizer - CP Code Weight",
+        description = "Cost of purging one CP code, including the load of refilling the whole cache from the origin",
+        type = AttributeType.LONG)
+    long optimizer_code_cost() default 5000;
+
+    @AttributeDefinition(
+        name = "Purge Optimizer - Escalation Threshold",
+        description =
+            "Cost of a purge plan from which purging the Escalation CP Codes is evaluated. 0 never escalates.",
+        type = AttributeType.LONG)
+    long optimizer_escalation_threshold() default 0;
+
+    @AttributeDefinition(
+        name = "Purge Optimizer - Escalation CP Codes",
+        description = "CP codes covering all the content handled by this consumer")
+    String[] optimizer_escalation_codes();
+
+    @AttributeDefinition(
+        name = "Re-queue Failed Objects",
+        type = AttributeType.BOOLEAN,
+        description =
+            "Tick to re-queue only the codes, tags or URLs of a purge failed for a transient cause as a new job, once "
+                + "the CDN service gave up retrying them, instead of failing and processing the whole job again")
+    boolean requeue_failed_objects() default false;
   }
 
   static final class KeyValueOption {
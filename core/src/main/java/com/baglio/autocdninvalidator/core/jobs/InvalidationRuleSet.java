@@ -0,0 +1,189 @@
+package com.baglio.autocdninvalidator.core.jobs;
+
+import com.baglio.autocdninvalidator.core.utils.BoundedCache;
+import com.baglio.autocdninvalidator.core.utils.PrefixTrie;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable set of invalidation rules, compiled once when the job consumer is activated or modified. Rules are indexed
+ * by the literal prefix of their pattern, so that only the rules whose prefix matches the beginning of a path are
+ * evaluated against it. Optionally, the values of every path are memoized in a bounded cache, which lives and dies with
+ * the rule set.
+ */
+final class InvalidationRuleSet {
+  private static final Logger LOGGER = LoggerFactory.getLogger(InvalidationRuleSet.class);
+
+  /** Rule set without any rule. */
+  static final InvalidationRuleSet EMPTY = new InvalidationRuleSet(Collections.emptyMap());
+
+  private static final String REGEX_METACHARACTERS = ".[]()*+?{}|\\$^";
+  private static final String QUANTIFIERS = "*+?{";
+
+  private final PrefixTrie<List<Rule>> rulesByPrefix = new PrefixTrie<>();
+  private final BoundedCache<String, List<String>> valuesCache;
+  private final int size;
+
+  /**
+   * Compiles the rules. Rules with an invalid pattern are logged and skipped.
+   *
+   * @param rules map of rules from path pattern to replacement string
+   */
+  InvalidationRuleSet(final Map<String, String> rules) {
+    this(rules, null);
+  }
+
+  /**
+   * Compiles the rules, memoizing the values of every path in the given cache. Rules with an invalid pattern are logged
+   * and skipped.
+   *
+   * @param rules map of rules from path pattern to replacement string
+   * @param valuesCache cache from path to invalidation values, dedicated to this rule set, or null
+   */
+  InvalidationRuleSet(final Map<String, String> rules, final BoundedCache<String, List<String>> valuesCache) {
+    this.valuesCache = valuesCache;
+    Map<String, List<Rule>> buckets = new LinkedHashMap<>();
+    int count = 0;
+    for (Map.Entry<String, String> entry : rules.entrySet()) {
+      final Pattern pattern;
+      try {
+        pattern = Pattern.compile(entry.getKey());
+      } catch (PatternSyntaxException e) {
+        LOGGER.error("Invalid invalidation rule pattern, rule ignored: {}", entry.getKey(), e);
+        continue;
+      }
+      buckets
+          .computeIfAbsent(getLiteralPrefix(entry.getKey()), key -> new ArrayList<>())
+          .add(new Rule(pattern, entry.getValue()));
+      count++;
+    }
+    buckets.forEach(rulesByPrefix::put);
+    size = count;
+  }
+
+  /**
+   * Returns the amount of compiled rules.
+   *
+   * @return the amount of compiled rules
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Applies the rules to a path.
+   *
+   * @param path the content path
+   * @return the non blank invalidation values of the rules matching the path, not modifiable
+   */
+  List<String> apply(final String path) {
+    return valuesCache != null ? valuesCache.get(path, this::evaluate) : evaluate(path);
+  }
+
+  /**
+   * Returns the cache memoizing the values of every path.
+   *
+   * @return the cache, or null if values are not cached
+   */
+  BoundedCache<String, List<String>> getValuesCache() {
+    return valuesCache;
+  }
+
+  private List<String> evaluate(final String path) {
+    final List<String> values = new ArrayList<>(1);
+    rulesByPrefix.forEachPrefixValue(
+        path,
+        bucket -> {
+          for (Rule rule : bucket) {
+            Matcher matcher = rule.pattern.matcher(path);
+            if (matcher.matches()) {
+              String value = matcher.replaceAll(rule.replacement);
+              if (StringUtils.isNotBlank(value)) {
+                values.add(value);
+              }
+            }
+          }
+        });
+    return values.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(values);
+  }
+
+  /**
+   * Extracts the literal prefix every string matched by the pattern starts with. The prefix stops at the first regex
+   * construct; a literal followed by a quantifier is excluded, and a top-level alternation means no prefix at all.
+   *
+   * @param regex the pattern
+   * @return the literal prefix, possibly empty
+   */
+  static String getLiteralPrefix(final String regex) {
+    if (hasTopLevelAlternation(regex)) {
+      return StringUtils.EMPTY;
+    }
+    StringBuilder prefix = new StringBuilder();
+    int i = regex.startsWith("^") ? 1 : 0;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      int next = i + 1;
+      char literal;
+      if (c == '\\') {
+        // escaped metacharacters are literals, other escapes (e.g. \d, \Q) are not
+        if (next >= regex.length() || Character.isLetterOrDigit(regex.charAt(next))) {
+          break;
+        }
+        literal = regex.charAt(next);
+        next++;
+      } else if (REGEX_METACHARACTERS.indexOf(c) >= 0) {
+        break;
+      } else {
+        literal = c;
+      }
+      if (next < regex.length() && QUANTIFIERS.indexOf(regex.charAt(next)) >= 0) {
+        break;
+      }
+      prefix.append(literal);
+      i = next;
+    }
+    return prefix.toString();
+  }
+
+  private static boolean hasTopLevelAlternation(final String regex) {
+    int depth = 0;
+    boolean inClass = false;
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (inClass) {
+        inClass = c != ']';
+      } else if (c == '[') {
+        inClass = true;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == '|' && depth == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Compiled rule. */
+  private static final class Rule {
+    private final Pattern pattern;
+    private final String replacement;
+
+    private Rule(final Pattern pattern, final String replacement) {
+      this.pattern = pattern;
+      this.replacement = replacement;
+    }
+  }
+}
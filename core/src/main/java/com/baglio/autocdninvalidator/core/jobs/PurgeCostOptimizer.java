@@ -0,0 +1,158 @@
+package com.baglio.autocdninvalidator.core.jobs;
+
+import com.baglio.autocdninvalidator.core.helpers.MetricsHelper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import org.apache.sling.commons.metrics.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable cost model, built once when the job consumer is activated or modified, choosing the cheapest purge plan
+ * with the same effect as the one produced by the rules. The cost of a plan is the amount of items of every type
+ * multiplied by the weight of the type, e.g. the API calls or rate limit quota it consumes:
+ *
+ * <ul>
+ *   <li>URLs purged together with tags are dropped when every path yields at least one tag, which then covers its
+ *       URLs, and the tags alone are cheaper. The rule values are known to be tags only when the plan purges tags: in
+ *       any other plan, e.g. CP codes with URLs, the URL purge is kept;
+ *   <li>a plan whose cost reaches the escalation threshold is replaced by the purge of the escalation CP codes, when
+ *       cheaper.
+ * </ul>
+ *
+ * <p>Decisions are logged and counted, so that weights and threshold can be tuned.
+ */
+final class PurgeCostOptimizer {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PurgeCostOptimizer.class);
+
+  private final long urlCost;
+  private final long tagCost;
+  private final long codeCost;
+  private final long escalationThreshold;
+  private final Set<String> escalationCodes;
+  private final Counter keptCounter;
+  private final Counter tagsCounter;
+  private final Counter escalatedCounter;
+  private final Counter savedCostCounter;
+
+  /**
+   * Creates an optimizer. Negative weights are considered 0.
+   *
+   * @param urlCost weight of a URL
+   * @param tagCost weight of a tag
+   * @param codeCost weight of a CP code
+   * @param escalationThreshold plan cost from which escalation is evaluated, 0 or less to never escalate
+   * @param escalationCodes the CP codes covering all the content of the consumer, possibly empty
+   * @param metrics the metrics helper counting the decisions
+   */
+  PurgeCostOptimizer(
+      final long urlCost,
+      final long tagCost,
+      final long codeCost,
+      final long escalationThreshold,
+      final List<String> escalationCodes,
+      final MetricsHelper metrics) {
+    this.urlCost = Math.max(0, urlCost);
+    this.tagCost = Math.max(0, tagCost);
+    this.codeCost = Math.max(0, codeCost);
+    this.escalationThreshold = escalationThreshold;
+    this.escalationCodes = Collections.unmodifiableSet(new LinkedHashSet<>(escalationCodes));
+    this.keptCounter = metrics.counter("optimizer.kept");
+    this.tagsCounter = metrics.counter("optimizer.tags");
+    this.escalatedCounter = metrics.counter("optimizer.escalated");
+    this.savedCostCounter = metrics.counter("optimizer.saved.cost");
+  }
+
+  /**
+   * Chooses the cheapest purge plan equivalent to the given one.
+   *
+   * @param plan the items to purge by invalidation type, as produced by the rules
+   * @param coveringTags computes the tags of the same paths, or null when some path has no tag; called only when URLs
+   *     are purged together with tags
+   * @return the plan to issue, the given one if no cheaper plan is found
+   */
+  Map<String, Set<String>> optimize(final Map<String, Set<String>> plan, final Supplier<Set<String>> coveringTags) {
+    final long initialCost = getCost(plan);
+    Map<String, Set<String>> result = plan;
+    long cost = initialCost;
+    Counter decision = keptCounter;
+
+    if (plan.containsKey(EditorialAssetInvalidationJobConsumer.Config.INVALIDATION_TYPE_OPTION_URLS)
+        && plan.containsKey(EditorialAssetInvalidationJobConsumer.Config.INVALIDATION_TYPE_OPTION_TAG)) {
+      Set<String> tags = coveringTags.get();
+      if (tags != null) {
+        Map<String, Set<String>> candidate = new LinkedHashMap<>(plan);
+        candidate.remove(EditorialAssetInvalidationJobConsumer.Config.INVALIDATION_TYPE_OPTION_URLS);
+        candidate.put(EditorialAssetInvalidationJobConsumer.Config.INVALIDATION_TYPE_OPTION_TAG, tags);
+        long candidateCost = getCost(candidate);
+        if (candidateCost < cost) {
+          result = candidate;
+          cost = candidateCost;
+          decision = tagsCounter;
+        }
+      }
+    }
+
+    if (escalationThreshold > 0 && !escalationCodes.isEmpty() && cost >= escalationThreshold) {
+      long escalationCost = escalationCodes.size() * codeCost;
+      if (escalationCost < cost) {
+        result =
+            Collections.singletonMap(
+                EditorialAssetInvalidationJobConsumer.Config.INVALIDATION_TYPE_OPTION_CODE, escalationCodes);
+        cost = escalationCost;
+        decision = escalatedCounter;
+      }
+    }
+
+    decision.increment();
+    if (result != plan) {
+      savedCostCounter.increment(initialCost - cost);
+      LOGGER.info(
+          "Purge plan optimized - from: {} (cost {}), to: {} (cost {})",
+          describe(plan),
+          initialCost,
+          describe(result),
+          cost);
+    } else {
+      LOGGER.debug("Purge plan kept: {} (cost {})", describe(plan), cost);
+    }
+    return result;
+  }
+
+  /**
+   * Computes the cost of a plan.
+   *
+   * @param plan the items to purge by invalidation type
+   * @return the sum of the items of every type multiplied by the weight of the type
+   */
+  long getCost(final Map<String, Set<String>> plan) {
+    long cost = 0;
+    for (Map.Entry<String, Set<String>> entry : plan.entrySet()) {
+      cost += entry.getValue().size() * getWeight(entry.getKey());
+    }
+    return cost;
+  }
+
+  private long getWeight(final String invalidationType) {
+    switch (invalidationType) {
+      case EditorialAssetInvalidationJobConsumer.Config.INVALIDATION_TYPE_OPTION_URLS:
+        return urlCost;
+      case EditorialAssetInvalidationJobConsumer.Config.INVALIDATION_TYPE_OPTION_TAG:
+        return tagCost;
+      default:
+        return codeCost;
+    }
+  }
+
+  private static List<String> describe(final Map<String, Set<String>> plan) {
+    List<String> result = new ArrayList<>(plan.size());
+    plan.forEach((type, items) -> result.add(items.size() + " " + type));
+    return result;
+  }
+}
@@ -0,0 +1,157 @@
+package com.baglio.autocdninvalidator.core.jobs;
+
+import com.day.cq.commons.Externalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.lang.StringUtils;
+import org.apache.jackrabbit.vault.util.JcrConstants;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable set of URL variants, built once when the job consumer is activated or modified. Every content path is
+ * mapped once and expanded into all the cached representations of the page: each template (e.g. {@code {path}.html},
+ * {@code {path}.model.json}, {@code {path}/}) is applied to the mapped path and, optionally, to its vanity paths, then
+ * externalized for each domain.
+ */
+final class UrlVariantExpander {
+  private static final Logger LOGGER = LoggerFactory.getLogger(UrlVariantExpander.class);
+
+  /** Placeholder replaced by the mapped path in URL templates. */
+  static final String PATH_PLACEHOLDER = "{path}";
+
+  /** Template of the only URL computed when no template is configured. */
+  static final String DEFAULT_TEMPLATE = PATH_PLACEHOLDER + ".html";
+
+  static final String PN_VANITY_PATH = "sling:vanityPath";
+
+  private static final char KEY_SEPARATOR = '\n';
+
+  private final List<String> templates;
+  private final List<String> domains;
+  private final String scheme;
+  private final boolean includeVanityPaths;
+  private final String key;
+
+  /**
+   * Creates an expander. Templates without the path placeholder are logged and skipped.
+   *
+   * @param templates URL templates containing {@value #PATH_PLACEHOLDER}; null or empty means {@value
+   *     #DEFAULT_TEMPLATE}
+   * @param domains the externalizer domains
+   * @param scheme the URL scheme
+   * @param includeVanityPaths true to expand the vanity paths of the page too
+   */
+  UrlVariantExpander(
+      final String[] templates, final List<String> domains, final String scheme, final boolean includeVanityPaths) {
+    Set<String> validTemplates = new LinkedHashSet<>();
+    if (templates != null) {
+      for (String template : templates) {
+        if (StringUtils.contains(template, PATH_PLACEHOLDER)) {
+          validTemplates.add(template.trim());
+        } else if (StringUtils.isNotBlank(template)) {
+          LOGGER.error("Invalid URL variant without {} placeholder, variant ignored: {}", PATH_PLACEHOLDER, template);
+        }
+      }
+    }
+    if (validTemplates.isEmpty()) {
+      validTemplates.add(DEFAULT_TEMPLATE);
+    }
+    this.templates = Collections.unmodifiableList(new ArrayList<>(validTemplates));
+    this.domains = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(domains)));
+    this.scheme = scheme;
+    this.includeVanityPaths = includeVanityPaths;
+    this.key =
+        String.join(",", this.domains)
+            + KEY_SEPARATOR
+            + scheme
+            + KEY_SEPARATOR
+            + String.join(",", this.templates)
+            + KEY_SEPARATOR
+            + includeVanityPaths;
+  }
+
+  /**
+   * Returns a key identifying the domains, scheme and variants, so that expanded URLs can be cached.
+   *
+   * @return the key
+   */
+  String getKey() {
+    return key;
+  }
+
+  /**
+   * Returns the amount of URLs a path expands to, vanity paths excluded.
+   *
+   * @return the amount of URLs per path
+   */
+  int size() {
+    return templates.size() * domains.size();
+  }
+
+  /**
+   * Expands a content path into all its public URLs.
+   *
+   * @param resolver the resource resolver mapping the path, owned by the caller
+   * @param externalizer the externalizer
+   * @param path the content path
+   * @return the public URLs of the path
+   */
+  List<String> expand(final ResourceResolver resolver, final Externalizer externalizer, final String path) {
+    List<String> bases = new ArrayList<>(1);
+    bases.add(resolver.map(path));
+    if (includeVanityPaths) {
+      bases.addAll(getVanityPaths(resolver, path));
+    }
+    List<String> urls = new ArrayList<>(bases.size() * size());
+    for (String base : bases) {
+      for (String template : templates) {
+        String urlPath = StringUtils.replace(template, PATH_PLACEHOLDER, base);
+        for (String domain : domains) {
+          urls.add(externalizer.externalLink(resolver, domain, scheme, urlPath));
+        }
+      }
+    }
+    return urls;
+  }
+
+  /**
+   * Reads the vanity paths of a page, or of the resource itself when it has no content node. Like Sling, a vanity path
+   * without leading slash is served from the root, the ones qualified with scheme and host are skipped.
+   *
+   * @param resolver the resource resolver
+   * @param path the content path
+   * @return the absolute vanity paths, possibly empty
+   */
+  static List<String> getVanityPaths(final ResourceResolver resolver, final String path) {
+    Resource resource = resolver.getResource(path + "/" + JcrConstants.JCR_CONTENT);
+    if (resource == null) {
+      resource = resolver.getResource(path);
+    }
+    if (resource == null) {
+      return Collections.emptyList();
+    }
+    String[] vanityPaths = resource.getValueMap().get(PN_VANITY_PATH, String[].class);
+    if (vanityPaths == null) {
+      return Collections.emptyList();
+    }
+    List<String> result = new ArrayList<>(vanityPaths.length);
+    for (String vanityPath : vanityPaths) {
+      if (StringUtils.isBlank(vanityPath)) {
+        continue;
+      }
+      // vanity paths qualified with scheme and host are bound to another domain
+      if (vanityPath.contains("://")) {
+        LOGGER.debug("Vanity path {} of {} is bound to another domain, skipped", vanityPath, path);
+      } else {
+        result.add(vanityPath.startsWith("/") ? vanityPath : "/" + vanityPath);
+      }
+    }
+    return result;
+  }
+}
@@ -1,14 +1,20 @@
 package com.baglio.autocdninvalidator.core.listeners;
 
 import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.helpers.MetricsHelper;
 import com.baglio.autocdninvalidator.core.jobs.EditorialAssetInvalidationJobConsumer;
+import com.baglio.autocdninvalidator.core.service.InvalidationDeduplicationService;
+import com.baglio.autocdninvalidator.core.utils.PathSetCodec;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
 import org.apache.commons.lang.StringUtils;
-import org.apache.jackrabbit.vault.util.JcrConstants;
+import org.apache.sling.commons.metrics.MetricsService;
 import org.apache.sling.event.jobs.Job;
 import org.apache.sling.event.jobs.JobManager;
 
@@ -17,6 +23,17 @@ import org.apache.sling.event.jobs.JobManager;
  * create jobs, and offload work.
  */
 public abstract class AbstractListener {
+  /** Shard key depth used for paths outside the root paths, e.g. {@code /content/site}. */
+  private static final int DEFAULT_SHARD_KEY_DEPTH = 2;
+
+  private volatile PathCoalescer pathCoalescer;
+  private volatile PathMatcher pathMatcher;
+  private volatile int maxPathsPerJob;
+  private volatile int shardKeyDepth;
+  private volatile boolean compactPaths;
+  private volatile IntakeRateCap intakeRateCap;
+  private volatile String degradedJobTopic;
+
   /**
    * Gives the Logger.
    *
@@ -32,13 +49,27 @@ public abstract class AbstractListener {
   abstract JobManager getJobManager();
 
   /**
-   * Processes a set of resource paths when changed in the repository. Applies configured regex filter and offloads work
-   * via job.
+   * Gets the Sling metrics service, if available.
+   *
+   * @return the MetricsService or null
+   */
+  abstract MetricsService getMetricsService();
+
+  /**
+   * Gets the registry of in-flight invalidations shared by all listeners, if available.
+   *
+   * @return the InvalidationDeduplicationService or null
+   */
+  abstract InvalidationDeduplicationService getDeduplicationService();
+
+  /**
+   * Processes a set of resource paths when changed in the repository. Applies configured regex filter, drops paths
+   * still queued for the same topic in a job created by another listener and offloads work via job.
    *
    * @param paths the resource paths changed
    * @param filterRegex regex to filter relevant paths
    * @param jobTopic job topic to use for offloading
-   * @return true if a job was scheduled, false otherwise
+   * @return true if a job was scheduled, paths were queued for coalescing or were already queued, false otherwise
    */
   public boolean processEvent(final Set<String> paths, final String filterRegex, final String jobTopic) {
 
@@ -48,14 +79,287 @@ public abstract class AbstractListener {
       getLogger().warn("No resources to process for paths={} with filter regex={}", paths, filterRegex);
       return false;
     }
+
+    final InvalidationDeduplicationService deduplicationService = getDeduplicationService();
+    if (deduplicationService != null) {
+      resourcePaths = deduplicationService.dropQueued(jobTopic, resourcePaths);
+      if (resourcePaths.isEmpty()) {
+        getLogger().debug("All paths already queued for topic: {}", jobTopic);
+        return true;
+      }
+    }
+
+    final IntakeRateCap intake = intakeRateCap;
+    final String coarseTopic = degradedJobTopic;
+    if (intake != null && intake.admit(resourcePaths.size()) == IntakeRateCap.Mode.DEGRADED) {
+      final Set<String> coarsePaths = getCoarsePaths(resourcePaths);
+      getLogger()
+          .warn(
+              "Degraded mode: {} paths replaced by {} on topic: {}", resourcePaths.size(), coarsePaths, coarseTopic);
+      return submit(coarseTopic, coarsePaths);
+    }
+    return submit(jobTopic, resourcePaths);
+  }
+
+  /**
+   * Submits the filtered paths, either to the coalescer or directly as jobs.
+   *
+   * @param jobTopic job topic to use for offloading
+   * @param resourcePaths the filtered paths to invalidate
+   * @return true if a job was scheduled or paths were queued for coalescing, false otherwise
+   */
+  private boolean submit(final String jobTopic, final Set<String> resourcePaths) {
+    final PathCoalescer coalescer = pathCoalescer;
+    if (coalescer != null) {
+      getLogger().debug("Queueing {} paths for coalescing on topic: {}", resourcePaths.size(), jobTopic);
+      coalescer.add(jobTopic, resourcePaths);
+      return true;
+    }
+    return addJob(jobTopic, resourcePaths);
+  }
+
+  /**
+   * Replaces every path with the configured root path it belongs to, i.e. its site. Paths outside the root paths are
+   * kept as they are.
+   *
+   * @param resourcePaths the filtered paths
+   * @return one path per site
+   */
+  Set<String> getCoarsePaths(final Set<String> resourcePaths) {
+    final PathMatcher matcher = pathMatcher;
+    Set<String> result = new HashSet<>();
+    for (String path : resourcePaths) {
+      String rootPath = matcher != null ? matcher.getRootPath(path) : null;
+      result.add(rootPath != null ? rootPath : path);
+    }
+    return result;
+  }
+
+  /**
+   * Creates the offloading jobs for the given paths. When a max amount of paths per job is configured and exceeded,
+   * paths are grouped by shard key, e.g. the site root, and every group is sorted and split into size-capped jobs. Each
+   * shard is then processed, and retried on failure, on its own, concurrently with the others when the job queue is
+   * parallel.
+   *
+   * @param jobTopic job topic to use for offloading
+   * @param resourcePaths the filtered paths to invalidate
+   * @return true if all the jobs were scheduled, false otherwise
+   */
+  boolean addJob(final String jobTopic, final Set<String> resourcePaths) {
+    final int maxPaths = maxPathsPerJob;
+    if (maxPaths <= 0 || resourcePaths.size() <= maxPaths) {
+      return createJob(jobTopic, resourcePaths);
+    }
+
+    Map<String, List<String>> shards = new TreeMap<>();
+    for (String path : resourcePaths) {
+      shards.computeIfAbsent(getShardKey(path), key -> new ArrayList<>()).add(path);
+    }
+    boolean result = true;
+    int jobs = 0;
+    for (List<String> shard : shards.values()) {
+      Collections.sort(shard);
+      for (int from = 0; from < shard.size(); from += maxPaths) {
+        List<String> chunk = shard.subList(from, Math.min(from + maxPaths, shard.size()));
+        result &= createJob(jobTopic, new HashSet<>(chunk));
+        jobs++;
+      }
+    }
+    getLogger()
+        .debug(
+            "{} paths split into {} jobs of max {} paths over {} shards",
+            resourcePaths.size(),
+            jobs,
+            maxPaths,
+            shards.size());
+    return result;
+  }
+
+  /**
+   * Returns the key grouping the path with the ones sharing its shard: the first segments of the path when a shard key
+   * depth is configured, otherwise the configured root path it belongs to.
+   *
+   * @param path the path to group
+   * @return the shard key
+   */
+  String getShardKey(final String path) {
+    final int depth = shardKeyDepth;
+    if (depth <= 0) {
+      final PathMatcher matcher = pathMatcher;
+      final String rootPath = matcher != null ? matcher.getRootPath(path) : null;
+      if (rootPath != null) {
+        return rootPath;
+      }
+    }
+    return getAncestor(path, depth > 0 ? depth : DEFAULT_SHARD_KEY_DEPTH);
+  }
+
+  /**
+   * Returns the ancestor of the path at the given depth, or the path itself if it is not deep enough.
+   *
+   * @param path an absolute path
+   * @param depth amount of segments to keep
+   * @return the ancestor path
+   */
+  static String getAncestor(final String path, final int depth) {
+    int index = 0;
+    for (int segment = 0; segment < depth; segment++) {
+      index = path.indexOf('/', index + 1);
+      if (index < 0) {
+        return path;
+      }
+    }
+    return path.substring(0, index);
+  }
+
+  /**
+   * Creates a single offloading job for the given paths, registered for deduplication once created.
+   *
+   * @param jobTopic job topic to use for offloading
+   * @param resourcePaths the filtered paths to invalidate
+   * @return true if the job was scheduled, false otherwise
+   */
+  private boolean createJob(final String jobTopic, final Set<String> resourcePaths) {
     Map<String, Object> jobprops = new HashMap<>();
-    jobprops.put(EditorialAssetInvalidationJobConsumer.JOB_PROPERTY_PATHS, resourcePaths);
+    if (compactPaths) {
+      jobprops.put(
+          EditorialAssetInvalidationJobConsumer.JOB_PROPERTY_ENCODED_PATHS, PathSetCodec.encode(resourcePaths));
+    } else {
+      jobprops.put(EditorialAssetInvalidationJobConsumer.JOB_PROPERTY_PATHS, resourcePaths);
+    }
 
     Job offloadingJob = getJobManager().addJob(jobTopic, jobprops);
     if (offloadingJob == null) {
       getLogger().error("Job could not be created");
+      return false;
+    }
+    final InvalidationDeduplicationService deduplicationService = getDeduplicationService();
+    if (deduplicationService != null) {
+      deduplicationService.register(jobTopic, resourcePaths, offloadingJob.getId());
+    }
+    return true;
+  }
+
+  /**
+   * Sets how large path sets are sharded across jobs.
+   *
+   * @param maxPaths max paths per job, values lower than 1 disable the limit
+   * @param keyDepth amount of path segments forming the shard key, values lower than 1 to use the root paths
+   */
+  void configureSharding(final int maxPaths, final int keyDepth) {
+    maxPathsPerJob = maxPaths;
+    shardKeyDepth = keyDepth;
+  }
+
+  /**
+   * Sets whether job paths are stored as a compact binary payload instead of a set of strings.
+   *
+   * @param enabled true to store paths encoded by {@link PathSetCodec}
+   */
+  void configureCompactPaths(final boolean enabled) {
+    compactPaths = enabled;
+  }
+
+  /**
+   * Enables or disables the admission control of event intake, a rate cap switching to coarse purges when more paths
+   * are admitted than the drain rate allows. Any previously configured rate cap is discarded. Root paths only purge
+   * whole sites when consumed by a coarse consumer, e.g. purging by CP code or site-level tag: without a coarse job
+   * topic admission control stays disabled, as the fine-grained consumer would only purge the root pages.
+   *
+   * @param enabled true to enable admission control
+   * @param highWatermark intake level at which the listener switches to degraded mode
+   * @param lowWatermark intake level at which the listener switches back to normal mode
+   * @param drainRate paths per second the intake is expected to sustain
+   * @param coarseJobTopic job topic receiving coarse purges in degraded mode, required to enable admission control
+   * @param metricsScope scope of the intake metrics
+   */
+  void configureIntake(
+      final boolean enabled,
+      final long highWatermark,
+      final long lowWatermark,
+      final long drainRate,
+      final String coarseJobTopic,
+      final String metricsScope) {
+    final boolean active = enabled && StringUtils.isNotBlank(coarseJobTopic);
+    if (enabled && !active) {
+      getLogger().warn("Admission control requires a degraded job topic, it stays disabled");
+    }
+    final IntakeRateCap previous = intakeRateCap;
+    intakeRateCap =
+        active
+            ? new IntakeRateCap(
+                highWatermark,
+                lowWatermark,
+                drainRate,
+                new MetricsHelper(getMetricsService(), metricsScope),
+                System::nanoTime)
+            : null;
+    degradedJobTopic = active ? coarseJobTopic.trim() : null;
+    if (previous != null) {
+      previous.close();
+    }
+    getLogger()
+        .info(
+            "Admission control - enabled: {}, high watermark: {}, low watermark: {}, drain rate: {}/s, topic: {}",
+            active,
+            highWatermark,
+            lowWatermark,
+            drainRate,
+            degradedJobTopic);
+  }
+
+  /**
+   * Enables or disables the coalescing of paths before job creation. Any previously configured coalescer is flushed
+   * and replaced.
+   *
+   * @param enabled true to enable coalescing, false to create a job for each event
+   * @param maxAgeMillis max time in milliseconds a path waits before being submitted
+   * @param maxPaths max number of paths per job, values lower than 1 disable the limit
+   * @param maxBytes max estimated size in bytes of paths per job, values lower than 1 disable the limit
+   */
+  void configureCoalescing(final boolean enabled, final long maxAgeMillis, final int maxPaths, final long maxBytes) {
+    final PathCoalescer previous = pathCoalescer;
+    pathCoalescer = enabled ? new PathCoalescer(maxAgeMillis, maxPaths, maxBytes, this::addJob) : null;
+    if (previous != null) {
+      previous.close();
+    }
+    getLogger()
+        .info(
+            "Coalescing - enabled: {}, max age: {} ms, max paths: {}, max bytes: {}",
+            enabled,
+            maxAgeMillis,
+            maxPaths,
+            maxBytes);
+  }
+
+  /** Flushes pending paths and stops coalescing. To be called when the listener is deactivated. */
+  void stopCoalescing() {
+    configureCoalescing(false, 0, 0, 0);
+  }
+
+  /**
+   * Builds the matcher for root paths and filter regex. To be called when the listener is activated or modified.
+   *
+   * @param rootPaths root paths of observed events
+   * @param filterRegex regex to filter relevant paths
+   */
+  void configurePathMatcher(final String[] rootPaths, final String filterRegex) {
+    pathMatcher = new PathMatcher(rootPaths, filterRegex);
+  }
+
+  /**
+   * Returns the matcher built for the configured root paths and the given filter regex. The regex is compiled again
+   * only if it differs from the configured one.
+   *
+   * @param filterRegex regex to filter relevant paths
+   * @return the path matcher
+   */
+  PathMatcher getPathMatcher(final String filterRegex) {
+    PathMatcher matcher = pathMatcher;
+    if (matcher == null || !matcher.hasFilterRegex(filterRegex)) {
+      matcher = new PathMatcher(null, filterRegex);
     }
-    return offloadingJob != null;
+    return matcher;
   }
 
   /**
@@ -66,16 +370,7 @@ public abstract class AbstractListener {
    * @return filtered set of paths
    */
   Set<String> filterPaths(final Set<String> paths, final String filterRegex) {
-    return paths.stream()
-        .map(
-            path -> {
-              getLogger().trace("Path to check: {}", path);
-              if (StringUtils.contains(path, JcrConstants.JCR_CONTENT)) {
-                return path.split("/" + JcrConstants.JCR_CONTENT, 2)[0];
-              }
-              return path;
-            })
-        .filter(path -> Pattern.matches(StringUtils.isBlank(filterRegex) ? ".*" : filterRegex, path))
-        .collect(Collectors.toSet());
+    getLogger().trace("Paths to check: {}", paths);
+    return getPathMatcher(filterRegex).filter(paths);
   }
 }
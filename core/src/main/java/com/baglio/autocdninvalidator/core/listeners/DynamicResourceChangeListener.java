@@ -1,19 +1,31 @@
 package com.baglio.autocdninvalidator.core.listeners;
 
 import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.service.ExecutionStrategyService;
+import com.baglio.autocdninvalidator.core.service.InvalidationDeduplicationService;
+import java.util.Dictionary;
+import java.util.EnumSet;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 import org.apache.commons.lang.StringUtils;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
 import org.apache.sling.api.resource.observation.ResourceChange;
 import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.commons.metrics.MetricsService;
 import org.apache.sling.event.jobs.JobManager;
 import org.jetbrains.annotations.NotNull;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.AttributeType;
 import org.osgi.service.metatype.annotations.Designate;
@@ -28,6 +40,10 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
  *
  * <p>This specific implementation is intended to be used on AEM Publish instances as it relies * on Publish-specific
  * behavior.
+ *
+ * <p>It only receives local changes. When the configuration includes changes made on other cluster instances, a
+ * companion {@link ExternalResourceChangeListener} is registered for the same paths and change types, so that Sling
+ * delivers external changes only to the instances asking for them.
  */
 @Component(service = ResourceChangeListener.class, immediate = true)
 @Designate(ocd = DynamicResourceChangeListener.Config.class, factory = true)
@@ -36,29 +52,122 @@ public class DynamicResourceChangeListener extends AbstractListener implements R
 
   @Reference private JobManager jobManager;
 
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private MetricsService metricsService;
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private InvalidationDeduplicationService deduplicationService;
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private ExecutionStrategyService executionStrategyService;
+
   private String[] pathsToListenFor;
   private boolean isEnabled;
   private String jobTopic;
   private String filterRegex;
+  private Set<ResourceChange.ChangeType> changeTypes;
+  private boolean includeExternalChanges;
+  private ServiceRegistration<?> externalRegistration;
 
   /**
    * Activate method to initialize configuration.
    *
+   * @param context The bundle context, registering the listener of external changes
    * @param config The OSGi configuration
    */
   @Activate
   @Modified
-  protected void activate(final Config config) {
+  protected void activate(final BundleContext context, final Config config) {
     pathsToListenFor = config.resource_paths();
     isEnabled = config.isEnabled();
     jobTopic = config.job_topic();
     filterRegex = config.filter_regex();
+    changeTypes = getChangeTypes(config.resource_change_types());
+    includeExternalChanges = config.include_external_changes();
+    configureCompactPaths(config.job_compact_paths());
+    configurePathMatcher(pathsToListenFor, filterRegex);
+    configureSharding(config.job_max_paths(), config.job_shard_key_depth());
+    configureIntake(
+        config.intake_enabled(),
+        config.intake_high_watermark(),
+        config.intake_low_watermark(),
+        config.intake_drain_rate(),
+        config.degraded_job_topic(),
+        getClass().getSimpleName() + "." + jobTopic);
+    configureCoalescing(
+        config.coalescing_enabled(),
+        config.coalescing_max_age(),
+        config.coalescing_max_paths(),
+        config.coalescing_max_bytes());
     LOGGER.info(
-        "Activated - enabled: {}, root paths: {}, events: {}, filter regex: {}",
+        "Activated - enabled: {}, root paths: {}, events: {}, external changes: {}, filter regex: {}",
         isEnabled,
         pathsToListenFor,
-        config.resource_change_types(),
+        changeTypes,
+        includeExternalChanges,
         filterRegex);
+    registerExternalListener(context, config.resource_paths());
+  }
+
+  /**
+   * Registers the listener of the changes made on other cluster instances when they are included, replacing the
+   * previous one.
+   *
+   * @param context The bundle context, null to register nothing
+   * @param rootPaths the root paths of the changes
+   */
+  private synchronized void registerExternalListener(final BundleContext context, final String[] rootPaths) {
+    unregisterExternalListener();
+    if (!isEnabled || !includeExternalChanges || context == null) {
+      return;
+    }
+    Dictionary<String, Object> properties = new Hashtable<>();
+    properties.put(ResourceChangeListener.PATHS, rootPaths != null ? rootPaths : new String[0]);
+    properties.put(ResourceChangeListener.CHANGES, changeTypes.stream().map(Enum::name).toArray(String[]::new));
+    externalRegistration =
+        context.registerService(
+            new String[] {ResourceChangeListener.class.getName(), ExternalResourceChangeListener.class.getName()},
+            new ExternalChangeListener(),
+            properties);
+  }
+
+  private synchronized void unregisterExternalListener() {
+    if (externalRegistration != null) {
+      try {
+        externalRegistration.unregister();
+      } catch (IllegalStateException e) {
+        LOGGER.debug("External change listener already unregistered");
+      }
+      externalRegistration = null;
+    }
+  }
+
+  /**
+   * Parses the configured change types. As for Sling, no change type means all of them.
+   *
+   * @param types the configured change types
+   * @return the change types to process
+   */
+  static Set<ResourceChange.ChangeType> getChangeTypes(final String[] types) {
+    if (types == null || types.length == 0) {
+      return EnumSet.allOf(ResourceChange.ChangeType.class);
+    }
+    Set<ResourceChange.ChangeType> result = EnumSet.noneOf(ResourceChange.ChangeType.class);
+    for (String type : types) {
+      try {
+        result.add(ResourceChange.ChangeType.valueOf(StringUtils.trimToEmpty(type)));
+      } catch (IllegalArgumentException e) {
+        LOGGER.warn("Ignoring unknown change type: {}", type);
+      }
+    }
+    return result;
+  }
+
+  /** Deactivate method before service is stopped: pending paths are flushed into jobs. */
+  @Deactivate
+  protected void deactivate() {
+    unregisterExternalListener();
+    stopCoalescing();
   }
 
   /** {@inheritDoc} */
@@ -67,6 +176,10 @@ public class DynamicResourceChangeListener extends AbstractListener implements R
     if (isEnabled) {
       LOGGER.info("Received {} changes under root paths: {}", changes.size(), pathsToListenFor);
       final Set<String> filteredPaths = getChangesPaths(changes);
+      if (filteredPaths.isEmpty()) {
+        LOGGER.debug("No change to process");
+        return;
+      }
       boolean result = processEvent(filteredPaths, filterRegex, jobTopic);
       LOGGER.info("Result of processing: {}", result);
     }
@@ -75,26 +188,60 @@ public class DynamicResourceChangeListener extends AbstractListener implements R
   /**
    * Extracts the paths from a list of {@link ResourceChange} instances and returns a set of filtered paths.
    *
-   * <p>This method processes each {@code ResourceChange} in parallel, extracting the path from each change and logging
-   * relevant information using the configured logger. The resulting paths are collected into a {@code Set} to ensure
-   * uniqueness.
+   * <p>This method processes each {@code ResourceChange} according to the configured execution strategy. Changes of
+   * types not configured, or originating from other cluster instances unless they are included, are skipped. The path
+   * is extracted from each change and relevant information is logged using the configured logger. The resulting paths
+   * are collected into a {@code Set} to ensure uniqueness.
    *
    * @param changes A list of {@code ResourceChange} instances to extract paths from.
    * @return A {@code Set} of filtered paths extracted from the input {@code ResourceChange} instances.
    * @throws NullPointerException if the input list of {@code ResourceChange} instances is {@code null}.
    */
   public Set<String> getChangesPaths(final @NotNull List<ResourceChange> changes) {
-    return changes
-        .parallelStream()
-        .filter(Objects::nonNull)
-        .map(
-            change -> {
-              final String path = change.getPath();
-              LOGGER.debug("Change type: {}, path: {}, isExternal: {}", change.getType(), path, change.isExternal());
-              return path;
-            })
-        .filter(StringUtils::isNotBlank)
-        .collect(Collectors.toSet());
+    final ExecutionStrategyService strategy =
+        executionStrategyService != null ? executionStrategyService : ExecutionStrategyService.SEQUENTIAL;
+    return strategy.execute(
+        changes,
+        stream ->
+            stream
+                .filter(Objects::nonNull)
+                .filter(change -> includeExternalChanges || !change.isExternal())
+                .filter(change -> changeTypes.contains(change.getType()))
+                .map(
+                    change -> {
+                      final String path = change.getPath();
+                      LOGGER.debug(
+                          "Change type: {}, path: {}, isExternal: {}", change.getType(), path, change.isExternal());
+                      return path;
+                    })
+                .filter(StringUtils::isNotBlank)
+                .collect(Collectors.toSet()));
+  }
+
+  /** Receives the changes made on other cluster instances; local ones are delivered to the outer listener. */
+  private final class ExternalChangeListener implements ResourceChangeListener, ExternalResourceChangeListener {
+
+    /** {@inheritDoc} */
+    @Override
+    public void onChange(final @NotNull List<ResourceChange> changes) {
+      List<ResourceChange> externalChanges =
+          changes.stream().filter(Objects::nonNull).filter(ResourceChange::isExternal).collect(Collectors.toList());
+      if (!externalChanges.isEmpty()) {
+        DynamicResourceChangeListener.this.onChange(externalChanges);
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  MetricsService getMetricsService() {
+    return metricsService;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  InvalidationDeduplicationService getDeduplicationService() {
+    return deduplicationService;
   }
 
   /** {@inheritDoc} */
@@ -119,12 +266,27 @@ public class DynamicResourceChangeListener extends AbstractListener implements R
 
     @AttributeDefinition(
         name = "Filter Paths",
-        description = "Root paths for observed events. Regex are not supported here.")
+        description =
+            "Root paths for observed events, registered as resource.paths so that Sling only delivers changes under "
+                + "them. Regex are not supported here.")
     String[] resource_paths() default {};
 
-    @AttributeDefinition(name = "Events", description = "Array of change types.")
+    @AttributeDefinition(
+        name = "Events",
+        description =
+            "Array of change types, registered as resource.change.types so that Sling only delivers them. "
+                + "Empty means all")
     String[] resource_change_types() default {"CHANGED"};
 
+    @AttributeDefinition(
+        name = "Include External Changes",
+        type = AttributeType.BOOLEAN,
+        description =
+            "Tick to also process changes made on other cluster instances, e.g. when only one instance of the cluster "
+                + "runs this listener. Registers an additional external listener, so that Sling only delivers them "
+                + "when ticked")
+    boolean include_external_changes() default false;
+
     @AttributeDefinition(
         name = "Target Job Topic",
         description = "Defines which job consumer will be used to process data")
@@ -132,5 +294,89 @@ public class DynamicResourceChangeListener extends AbstractListener implements R
 
     @AttributeDefinition(name = "Filter Regex", description = "Pattern to identify page/asset which must be processed")
     String filter_regex();
+
+    @AttributeDefinition(
+        name = "Max Paths per Job",
+        type = AttributeType.INTEGER,
+        description =
+            "Large path sets are split into jobs carrying at most this amount of paths. Zero or negative means a "
+                + "single job")
+    int job_max_paths() default 0;
+
+    @AttributeDefinition(
+        name = "Shard Key Depth",
+        type = AttributeType.INTEGER,
+        description =
+            "Paths exceeding the max paths per job are grouped into shards by their first segments, e.g. 2 for "
+                + "/content/site. Zero means by filter path")
+    int job_shard_key_depth() default 0;
+
+    @AttributeDefinition(
+        name = "Compact Job Paths",
+        type = AttributeType.BOOLEAN,
+        description =
+            "Tick to store job paths as a compressed binary property, reducing repository writes for large jobs. "
+                + "Requires job consumers able to read it")
+    boolean job_compact_paths() default false;
+
+    @AttributeDefinition(
+        name = "Enable Admission Control",
+        type = AttributeType.BOOLEAN,
+        description =
+            "Tick to switch to coarse purges per site when more paths come in than the drain rate allows. "
+                + "Requires a degraded job topic")
+    boolean intake_enabled() default false;
+
+    @AttributeDefinition(
+        name = "Intake High Watermark",
+        type = AttributeType.LONG,
+        description = "Paths admitted in excess of the drain rate at which the listener switches to degraded mode")
+    long intake_high_watermark() default 10000;
+
+    @AttributeDefinition(
+        name = "Intake Low Watermark",
+        type = AttributeType.LONG,
+        description = "Paths admitted in excess of the drain rate at which the listener switches back to normal mode")
+    long intake_low_watermark() default 2000;
+
+    @AttributeDefinition(
+        name = "Intake Drain Rate",
+        type = AttributeType.LONG,
+        description = "Paths per second the job queue and the CDN are expected to sustain")
+    long intake_drain_rate() default 100;
+
+    @AttributeDefinition(
+        name = "Degraded Job Topic",
+        description =
+            "Job topic receiving one root path per site in degraded mode, e.g. a consumer purging by CP code or "
+                + "site-level tag. Required: admission control stays disabled without it, as a fine-grained consumer "
+                + "would only purge the root pages")
+    String degraded_job_topic();
+
+    @AttributeDefinition(
+        name = "Enable Coalescing",
+        type = AttributeType.BOOLEAN,
+        description = "Tick to gather paths of several events into a single job")
+    boolean coalescing_enabled() default false;
+
+    @AttributeDefinition(
+        name = "Coalescing Max Age",
+        type = AttributeType.LONG,
+        description = "Max time in milliseconds a path waits before its job is created")
+    long coalescing_max_age() default 5000;
+
+    @AttributeDefinition(
+        name = "Coalescing Max Paths",
+        type = AttributeType.INTEGER,
+        description =
+            "Job is created as soon as this amount of paths is gathered, larger events are split into jobs of this "
+                + "size. Zero or negative means no limit")
+    int coalescing_max_paths() default 1000;
+
+    @AttributeDefinition(
+        name = "Coalescing Max Bytes",
+        type = AttributeType.LONG,
+        description = "Job is created as soon as gathered paths reach this size. Zero or negative means no limit")
+    long coalescing_max_bytes() default 262144;
   }
 }
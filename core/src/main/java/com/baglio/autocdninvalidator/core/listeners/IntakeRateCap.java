@@ -0,0 +1,138 @@
+package com.baglio.autocdninvalidator.core.listeners;
+
+import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.helpers.MetricsHelper;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Meter;
+
+/**
+ * Rate cap on listener event intake, modelled as a leaky bucket: admitted paths fill it and it drains at the configured
+ * rate, i.e. the amount of paths per second the job queue and the CDN are expected to sustain. The level of the bucket
+ * is the amount of paths admitted in excess of that rate; it is an estimate, not the backlog of the job queue, which
+ * this class does not observe: jobs completing faster or slower than the drain rate are not accounted for.
+ *
+ * <p>When the level reaches the high watermark the intake switches to {@link Mode#DEGRADED}, in which listeners emit
+ * one coarse purge per site instead of fine-grained ones. It switches back to {@link Mode#NORMAL} once the level falls
+ * to the low watermark.
+ */
+class IntakeRateCap {
+  private static final LoggingHelper LOGGER = new LoggingHelper(IntakeRateCap.class);
+
+  /** Intake modes. */
+  enum Mode {
+    NORMAL,
+    DEGRADED
+  }
+
+  private final long highWatermark;
+  private final long lowWatermark;
+  private final double drainPerNano;
+  private final LongSupplier nanoClock;
+
+  private final Counter levelCounter;
+  private final Meter degradedMeter;
+  private final Meter recoveredMeter;
+  private final Meter shedMeter;
+
+  private double level;
+  private long lastUpdate;
+  private long reportedLevel;
+  private Mode mode = Mode.NORMAL;
+
+  /**
+   * Creates an intake rate cap.
+   *
+   * @param highWatermark level at which the intake switches to degraded mode
+   * @param lowWatermark level at which the intake switches back to normal mode
+   * @param drainRate paths per second drained from the intake
+   * @param metrics helper to publish intake metrics
+   * @param nanoClock source of monotonic time in nanoseconds
+   */
+  IntakeRateCap(
+      final long highWatermark,
+      final long lowWatermark,
+      final long drainRate,
+      final MetricsHelper metrics,
+      final LongSupplier nanoClock) {
+    this.highWatermark = Math.max(1, highWatermark);
+    this.lowWatermark = Math.max(0, Math.min(lowWatermark, this.highWatermark - 1));
+    this.drainPerNano = Math.max(0, drainRate) / (double) TimeUnit.SECONDS.toNanos(1);
+    this.nanoClock = nanoClock;
+    this.lastUpdate = nanoClock.getAsLong();
+    this.levelCounter = metrics.counter("intake.level");
+    this.degradedMeter = metrics.meter("intake.mode.degraded");
+    this.recoveredMeter = metrics.meter("intake.mode.normal");
+    this.shedMeter = metrics.meter("intake.shed");
+  }
+
+  /**
+   * Admits paths into the intake and returns the mode they must be processed with.
+   *
+   * @param paths amount of admitted paths
+   * @return the intake mode after admission
+   */
+  synchronized Mode admit(final int paths) {
+    drain();
+    level += paths;
+    updateMode();
+    if (mode == Mode.DEGRADED) {
+      shedMeter.mark(paths);
+    }
+    return mode;
+  }
+
+  /**
+   * Returns the current level of the bucket.
+   *
+   * @return the amount of paths admitted in excess of the drain rate and not yet drained
+   */
+  synchronized long getLevel() {
+    drain();
+    updateMode();
+    return Math.round(level);
+  }
+
+  /**
+   * Returns the current intake mode.
+   *
+   * @return the intake mode
+   */
+  synchronized Mode getMode() {
+    drain();
+    updateMode();
+    return mode;
+  }
+
+  /** Removes the level of this rate cap from the published metrics, before it gets replaced or discarded. */
+  synchronized void close() {
+    levelCounter.decrement(reportedLevel);
+    reportedLevel = 0;
+  }
+
+  private void drain() {
+    long now = nanoClock.getAsLong();
+    level = Math.max(0, level - (now - lastUpdate) * drainPerNano);
+    lastUpdate = now;
+  }
+
+  private void updateMode() {
+    if (mode == Mode.NORMAL && level >= highWatermark) {
+      mode = Mode.DEGRADED;
+      degradedMeter.mark();
+      LOGGER.warn("Intake level {} reached high watermark {}: switching to degraded mode", level, highWatermark);
+    } else if (mode == Mode.DEGRADED && level <= lowWatermark) {
+      mode = Mode.NORMAL;
+      recoveredMeter.mark();
+      LOGGER.info("Intake level {} fell to low watermark {}: switching to normal mode", level, lowWatermark);
+    }
+    long current = Math.round(level);
+    if (current > reportedLevel) {
+      levelCounter.increment(current - reportedLevel);
+    } else if (current < reportedLevel) {
+      levelCounter.decrement(reportedLevel - current);
+    }
+    reportedLevel = current;
+  }
+}
@@ -0,0 +1,138 @@
+package com.baglio.autocdninvalidator.core.listeners;
+
+import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.service.PublicUrlCacheService;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Clears the public URL cache when the way content paths are mapped changes: any change under the mapping roots (e.g.
+ * {@code /etc/map}), or the change of a vanity property (e.g. {@code sling:vanityPath}, {@code sling:alias}) anywhere
+ * else. As an alias also changes the URLs of the descendants and mapping changes are rare, the whole cache is cleared.
+ *
+ * <p>Most resource providers, JCR included, do not report the changed property names, so a change without them may
+ * have touched a vanity property. Such a change evicts the cached URLs of its page, i.e. the resource owning the
+ * {@code jcr:content} node, and of the page descendants.
+ */
+@Component(service = ResourceChangeListener.class, immediate = true)
+@Designate(ocd = MappingChangeListener.Config.class)
+public class MappingChangeListener implements ResourceChangeListener {
+  private static final LoggingHelper LOGGER = new LoggingHelper(MappingChangeListener.class);
+
+  @Reference private PublicUrlCacheService publicUrlCacheService;
+
+  private PathMatcher mappingRoots;
+  private Set<String> vanityProperties;
+
+  /**
+   * Activate method to initialize configuration.
+   *
+   * @param config The OSGi configuration
+   */
+  @Activate
+  @Modified
+  protected void activate(final Config config) {
+    mappingRoots = new PathMatcher(config.mapping_paths(), null);
+    vanityProperties =
+        config.resource_property_names_hint() != null
+            ? new HashSet<>(Arrays.asList(config.resource_property_names_hint()))
+            : new HashSet<>();
+    publicUrlCacheService.invalidate();
+    LOGGER.info(
+        "Activated - root paths: {}, mapping roots: {}, vanity properties: {}",
+        config.resource_paths(),
+        config.mapping_paths(),
+        vanityProperties);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void onChange(final @NotNull List<ResourceChange> changes) {
+    Set<String> unknownChanges = new LinkedHashSet<>();
+    for (ResourceChange change : changes) {
+      if (change == null) {
+        continue;
+      }
+      if (isMappingChange(change)) {
+        LOGGER.info("Mapping changed at {}, clearing public URL cache", change.getPath());
+        publicUrlCacheService.invalidate();
+        return;
+      }
+      if (!reportsPropertyNames(change)) {
+        unknownChanges.add(PathMatcher.truncateToContentOwner(change.getPath()));
+      }
+    }
+    if (!unknownChanges.isEmpty()) {
+      LOGGER.debug("Unknown properties changed at {}, evicting their public URLs", unknownChanges);
+      publicUrlCacheService.invalidate(unknownChanges);
+    }
+  }
+
+  /**
+   * Checks whether the change can affect how content paths are mapped.
+   *
+   * @param change the resource change
+   * @return true if the change is under a mapping root or touches a vanity property
+   */
+  boolean isMappingChange(final ResourceChange change) {
+    return mappingRoots.isUnderRootPath(change.getPath())
+        || containsAny(change.getAddedPropertyNames())
+        || containsAny(change.getChangedPropertyNames())
+        || containsAny(change.getRemovedPropertyNames());
+  }
+
+  /**
+   * Checks whether the change tells which properties it touched.
+   *
+   * @param change the resource change
+   * @return true if any property name collection is reported
+   */
+  static boolean reportsPropertyNames(final ResourceChange change) {
+    return change.getAddedPropertyNames() != null
+        || change.getChangedPropertyNames() != null
+        || change.getRemovedPropertyNames() != null;
+  }
+
+  private boolean containsAny(final Collection<String> propertyNames) {
+    return propertyNames != null && propertyNames.stream().anyMatch(vanityProperties::contains);
+  }
+
+  @ObjectClassDefinition(
+      name = "Auto CDN Invalidator - Mapping Change Listener",
+      description = "Clears the public URL cache when mappings or vanity URLs change")
+  public @interface Config {
+
+    @AttributeDefinition(
+        name = "Filter Paths",
+        description =
+            "Root paths for observed events, registered as resource.paths. They must include the mapping roots and "
+                + "the content carrying vanity properties")
+    String[] resource_paths() default {"/etc/map", "/content"};
+
+    @AttributeDefinition(
+        name = "Mapping Paths",
+        description = "Root paths where any change clears the cache. Regex are not supported here.")
+    String[] mapping_paths() default {"/etc/map"};
+
+    @AttributeDefinition(
+        name = "Vanity Properties",
+        description =
+            "Properties whose change clears the cache, registered as resource.property.names.hint so that Sling can "
+                + "skip other changes. Changes not reporting their properties evict the URLs of their page subtree")
+    String[] resource_property_names_hint() default {"sling:vanityPath", "sling:alias", "sling:vanityOrder"};
+  }
+}
@@ -0,0 +1,254 @@
+package com.baglio.autocdninvalidator.core.listeners;
+
+import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+/**
+ * Gathers filtered paths per job topic over a time window and hands them over as batches. A batch is flushed when the
+ * oldest path has been waiting for the configured max age, or as soon as the configured amount of paths or bytes is
+ * reached, whichever comes first. Batches never hold more than the max amount of paths: larger buckets, e.g. after a
+ * tree activation, are split.
+ *
+ * <p>Every job topic owns its own bucket and lock, so listeners feeding different topics never contend with each other.
+ * Flushing happens outside the bucket lock. A batch the flusher fails to submit is put back into its bucket and retried
+ * with the next aged flush; only once the coalescer is closed failed batches are dropped.
+ */
+class PathCoalescer implements AutoCloseable {
+  private static final LoggingHelper LOGGER = new LoggingHelper(PathCoalescer.class);
+  /** Min wait before retrying a failed flush, so that a short max age does not turn into a busy loop. */
+  private static final long MIN_RETRY_DELAY_MILLIS = 1000;
+
+  private final long maxAgeMillis;
+  private final int maxPaths;
+  private final long maxBytes;
+  private final BiPredicate<String, Set<String>> flusher;
+  private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Creates a coalescer.
+   *
+   * @param maxAgeMillis max time in milliseconds a path waits before its batch is flushed
+   * @param maxPaths max number of paths in a batch; values lower than 1 disable the limit
+   * @param maxBytes estimated size in bytes at which a batch is flushed; values lower than 1 disable the limit
+   * @param flusher receives the job topic and the batch of paths to submit, returns false if they were not submitted
+   */
+  PathCoalescer(
+      final long maxAgeMillis,
+      final int maxPaths,
+      final long maxBytes,
+      final BiPredicate<String, Set<String>> flusher) {
+    this.maxAgeMillis = Math.max(0, maxAgeMillis);
+    this.maxPaths = maxPaths > 0 ? maxPaths : Integer.MAX_VALUE;
+    this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+    this.flusher = flusher;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "autocdninvalidator-path-coalescer");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Adds paths to the batch of the given job topic. Batches are flushed immediately when a size limit is reached.
+   *
+   * @param jobTopic the job topic the paths belong to
+   * @param paths the paths to add
+   */
+  void add(final String jobTopic, final Set<String> paths) {
+    Bucket bucket = buckets.computeIfAbsent(jobTopic, topic -> new Bucket());
+    List<Set<String>> toFlush = new ArrayList<>();
+    synchronized (bucket) {
+      bucket.addAll(paths);
+      while (bucket.paths.size() >= maxPaths || bucket.bytes >= maxBytes) {
+        toFlush.add(bucket.take(maxPaths));
+      }
+      if (!bucket.paths.isEmpty() && (scheduler.isShutdown() || !schedule(jobTopic, bucket, maxAgeMillis))) {
+        // closed in the meantime: do not keep paths nobody will flush
+        toFlush.addAll(bucket.split(maxPaths));
+      }
+    }
+    for (Set<String> batch : toFlush) {
+      LOGGER.debug("Flushing {} paths for topic: {}", batch.size(), jobTopic);
+      flush(jobTopic, batch);
+    }
+  }
+
+  /**
+   * Returns the amount of paths currently waiting to be flushed.
+   *
+   * @return pending paths across all job topics
+   */
+  int getPendingPaths() {
+    int result = 0;
+    for (Bucket bucket : buckets.values()) {
+      synchronized (bucket) {
+        result += bucket.paths.size();
+      }
+    }
+    return result;
+  }
+
+  /** Flushes every pending batch. */
+  void flushAll() {
+    for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+      List<Set<String>> toFlush;
+      synchronized (entry.getValue()) {
+        toFlush = entry.getValue().split(maxPaths);
+      }
+      for (Set<String> batch : toFlush) {
+        flush(entry.getKey(), batch);
+      }
+    }
+  }
+
+  /** Stops the timer and flushes every pending batch, so no path gets lost. */
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+    flushAll();
+  }
+
+  private void flushAged(final String jobTopic, final Bucket bucket, final long generation) {
+    List<Set<String>> toFlush;
+    synchronized (bucket) {
+      if (bucket.generation != generation) {
+        return; // batch has already been flushed because of its size
+      }
+      toFlush = bucket.split(maxPaths);
+    }
+    for (Set<String> batch : toFlush) {
+      LOGGER.debug("Max age reached for topic: {}, flushing {} paths", jobTopic, batch.size());
+      flush(jobTopic, batch);
+    }
+  }
+
+  /**
+   * Hands a batch over to the flusher, putting it back into its bucket if it is not submitted.
+   *
+   * @param jobTopic the job topic the paths belong to
+   * @param batch the paths to submit
+   */
+  private void flush(final String jobTopic, final Set<String> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    boolean flushed;
+    try {
+      flushed = flusher.test(jobTopic, batch);
+    } catch (RuntimeException e) {
+      LOGGER.error("Impossible to flush paths for topic: {}", jobTopic, e);
+      flushed = false;
+    }
+    if (flushed) {
+      return;
+    }
+    final long retryDelay = Math.max(maxAgeMillis, MIN_RETRY_DELAY_MILLIS);
+    Bucket bucket = buckets.computeIfAbsent(jobTopic, topic -> new Bucket());
+    synchronized (bucket) {
+      if (!scheduler.isShutdown()) {
+        bucket.addAll(batch);
+        if (schedule(jobTopic, bucket, retryDelay)) {
+          LOGGER.warn(
+              "Flush of {} paths failed for topic: {}, retrying within {} ms", batch.size(), jobTopic, retryDelay);
+          return;
+        }
+      }
+    }
+    LOGGER.error(
+        "Flush of {} paths failed for topic: {} while closing, paths dropped: {}", batch.size(), jobTopic, batch);
+  }
+
+  /**
+   * Schedules the aged flush of a bucket, unless already scheduled. To be called holding the bucket lock.
+   *
+   * @param jobTopic the job topic of the bucket
+   * @param bucket the bucket
+   * @param delayMillis the wait before the flush
+   * @return false if the scheduler has been stopped
+   */
+  private boolean schedule(final String jobTopic, final Bucket bucket, final long delayMillis) {
+    if (bucket.scheduled) {
+      return true;
+    }
+    final long generation = bucket.generation;
+    try {
+      scheduler.schedule(() -> flushAged(jobTopic, bucket, generation), delayMillis, TimeUnit.MILLISECONDS);
+      bucket.scheduled = true;
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  private static long estimateBytes(final String path) {
+    return path.length();
+  }
+
+  /** Pending paths of a single job topic. Guarded by its own monitor. */
+  private static final class Bucket {
+    private Set<String> paths = new HashSet<>();
+    private long bytes;
+    private boolean scheduled;
+    private long generation;
+
+    private void addAll(final Set<String> added) {
+      for (String path : added) {
+        if (paths.add(path)) {
+          bytes += estimateBytes(path);
+        }
+      }
+    }
+
+    /**
+     * Removes up to the given amount of paths. Removing the last one cancels the pending aged flush.
+     *
+     * @param max max amount of paths to remove
+     * @return the removed paths
+     */
+    private Set<String> take(final int max) {
+      if (paths.size() <= max) {
+        return drain();
+      }
+      Set<String> result = new HashSet<>();
+      Iterator<String> iterator = paths.iterator();
+      while (result.size() < max) {
+        String path = iterator.next();
+        iterator.remove();
+        bytes -= estimateBytes(path);
+        result.add(path);
+      }
+      return result;
+    }
+
+    private List<Set<String>> split(final int max) {
+      List<Set<String>> result = new ArrayList<>();
+      while (!paths.isEmpty()) {
+        result.add(take(max));
+      }
+      return result;
+    }
+
+    private Set<String> drain() {
+      Set<String> result = paths;
+      paths = new HashSet<>();
+      bytes = 0;
+      scheduled = false;
+      generation++;
+      return result;
+    }
+  }
+}
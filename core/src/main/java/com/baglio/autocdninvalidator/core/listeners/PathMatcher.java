@@ -0,0 +1,109 @@
+package com.baglio.autocdninvalidator.core.listeners;
+
+import com.baglio.autocdninvalidator.core.utils.PrefixTrie;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
+import org.apache.jackrabbit.vault.util.JcrConstants;
+
+/**
+ * Immutable matcher for listener root paths and filter regex, built once when the listener is activated or modified.
+ * Root paths are kept in a prefix tree and the filter regex is compiled a single time, so the cost of filtering an
+ * event does not grow with the number of configured root paths.
+ */
+final class PathMatcher {
+  private static final String JCR_CONTENT_SEGMENT = "/" + JcrConstants.JCR_CONTENT;
+
+  private final PrefixTrie<String> rootPaths = new PrefixTrie<>();
+  private final String filterRegex;
+  private final Pattern filterPattern;
+
+  /**
+   * Creates a matcher.
+   *
+   * @param rootPaths root paths of observed events, regex are not supported
+   * @param filterRegex pattern to identify page/asset which must be processed; blank matches everything
+   */
+  PathMatcher(final String[] rootPaths, final String filterRegex) {
+    if (rootPaths != null) {
+      for (String rootPath : rootPaths) {
+        if (rootPath != null) {
+          this.rootPaths.put(rootPath, rootPath);
+        }
+      }
+    }
+    this.filterRegex = filterRegex;
+    this.filterPattern = StringUtils.isBlank(filterRegex) ? null : Pattern.compile(filterRegex);
+  }
+
+  /**
+   * Tells whether this matcher has been compiled for the given filter regex.
+   *
+   * @param regex the filter regex to compare
+   * @return true if the regex is the one this matcher has been built with
+   */
+  boolean hasFilterRegex(final String regex) {
+    return StringUtils.equals(filterRegex, regex);
+  }
+
+  /**
+   * Tells whether the path is one of the configured root paths or is below one of them. Root paths match whole
+   * segments only, so {@code /content/site} does not match {@code /content/site-b}.
+   *
+   * @param path the path to check
+   * @return true if the path is under a root path
+   */
+  boolean isUnderRootPath(final String path) {
+    return path != null && rootPaths.matchesPathPrefixOf(path);
+  }
+
+  /**
+   * Returns the most specific configured root path the path is under.
+   *
+   * @param path the path to check
+   * @return the matching root path, or null if none matches
+   */
+  String getRootPath(final String path) {
+    return path == null ? null : rootPaths.getLongestPathPrefixValue(path);
+  }
+
+  /**
+   * Tells whether the path matches the filter regex.
+   *
+   * @param path the path to check
+   * @return true if the path must be processed
+   */
+  boolean matchesFilter(final String path) {
+    return filterPattern == null || filterPattern.matcher(path).matches();
+  }
+
+  /**
+   * Truncates a path at its {@code jcr:content} node, so that changes to page or asset content are reported on the
+   * page or asset itself. Paths without content node are returned as they are, without any allocation.
+   *
+   * @param path the path to truncate
+   * @return the path of the page or asset owning the content
+   */
+  static String truncateToContentOwner(final String path) {
+    int index = path.indexOf(JCR_CONTENT_SEGMENT);
+    return index < 0 ? path : path.substring(0, index);
+  }
+
+  /**
+   * Truncates every path to its content owner and keeps only the ones matching the filter regex.
+   *
+   * @param paths the paths to filter
+   * @return the filtered paths
+   */
+  Set<String> filter(final Iterable<String> paths) {
+    Set<String> result = new HashSet<>();
+    for (String path : paths) {
+      String owner = truncateToContentOwner(path);
+      if (matchesFilter(owner)) {
+        result.add(owner);
+      }
+    }
+    return result;
+  }
+}
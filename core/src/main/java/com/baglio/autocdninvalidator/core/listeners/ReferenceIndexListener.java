@@ -0,0 +1,87 @@
+package com.baglio.autocdninvalidator.core.listeners;
+
+import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.service.ReferenceIndexService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.lang.StringUtils;
+import org.apache.jackrabbit.vault.util.JcrConstants;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Keeps the reference index up to date: a change inside the content of a page schedules the page to be scanned again,
+ * the removal of a page removes it and the pages below it. Changes coming from other cluster instances are processed
+ * too, as every instance holds its own index.
+ */
+@Component(service = ResourceChangeListener.class, immediate = true)
+@Designate(ocd = ReferenceIndexListener.Config.class)
+public class ReferenceIndexListener implements ResourceChangeListener, ExternalResourceChangeListener {
+  private static final LoggingHelper LOGGER = new LoggingHelper(ReferenceIndexListener.class);
+  private static final String JCR_CONTENT_SEGMENT = "/" + JcrConstants.JCR_CONTENT;
+
+  @Reference private ReferenceIndexService referenceIndexService;
+
+  /**
+   * Activate method to initialize configuration.
+   *
+   * @param config The OSGi configuration
+   */
+  @Activate
+  @Modified
+  protected void activate(final Config config) {
+    LOGGER.info("Activated - root paths: {}", (Object) config.resource_paths());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void onChange(final @NotNull List<ResourceChange> changes) {
+    Set<String> changedPages = new HashSet<>();
+    Set<String> removedPaths = new HashSet<>();
+    for (ResourceChange change : changes) {
+      if (change == null || StringUtils.isBlank(change.getPath())) {
+        continue;
+      }
+      String path = change.getPath();
+      int contentIndex = path.indexOf(JCR_CONTENT_SEGMENT);
+      if (contentIndex > 0) {
+        changedPages.add(path.substring(0, contentIndex));
+      } else if (change.getType() == ResourceChange.ChangeType.REMOVED) {
+        removedPaths.add(path);
+      } else {
+        changedPages.add(path);
+      }
+    }
+    LOGGER.debug("Reference index updates - changed pages: {}, removed paths: {}", changedPages, removedPaths);
+    referenceIndexService.remove(removedPaths);
+    referenceIndexService.reindex(changedPages);
+  }
+
+  @ObjectClassDefinition(
+      name = "Auto CDN Invalidator - Reference Index Listener",
+      description = "Updates the reference index when page content changes")
+  public @interface Config {
+
+    @AttributeDefinition(
+        name = "Filter Paths",
+        description =
+            "Root paths of the pages to index, registered as resource.paths. Prefix a path with ! to exclude it, "
+                + "e.g. !/content/dam")
+    String[] resource_paths() default {"/content", "!/content/dam"};
+
+    @AttributeDefinition(
+        name = "Events",
+        description = "Array of change types, registered as resource.change.types")
+    String[] resource_change_types() default {"ADDED", "CHANGED", "REMOVED"};
+  }
+}
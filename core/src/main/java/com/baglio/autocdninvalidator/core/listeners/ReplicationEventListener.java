@@ -1,16 +1,19 @@
 package com.baglio.autocdninvalidator.core.listeners;
 
 import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.service.InvalidationDeduplicationService;
 import com.day.cq.replication.ReplicationAction;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
-import org.apache.commons.lang.StringUtils;
+import java.util.Set;
+import org.apache.sling.commons.metrics.MetricsService;
 import org.apache.sling.event.jobs.JobManager;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventConstants;
 import org.osgi.service.event.EventHandler;
@@ -29,6 +32,12 @@ public class ReplicationEventListener extends AbstractListener implements EventH
 
   @Reference private JobManager jobManager;
 
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private MetricsService metricsService;
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private InvalidationDeduplicationService deduplicationService;
+
   private String[] pathsToListenFor;
   private boolean isEnabled;
   private String jobTopic;
@@ -46,9 +55,30 @@ public class ReplicationEventListener extends AbstractListener implements EventH
     isEnabled = config.isEnabled();
     jobTopic = config.job_topic();
     filterRegex = config.filter_regex();
+    configureCompactPaths(config.job_compact_paths());
+    configurePathMatcher(pathsToListenFor, filterRegex);
+    configureSharding(config.job_max_paths(), config.job_shard_key_depth());
+    configureIntake(
+        config.intake_enabled(),
+        config.intake_high_watermark(),
+        config.intake_low_watermark(),
+        config.intake_drain_rate(),
+        config.degraded_job_topic(),
+        getClass().getSimpleName() + "." + jobTopic);
+    configureCoalescing(
+        config.coalescing_enabled(),
+        config.coalescing_max_age(),
+        config.coalescing_max_paths(),
+        config.coalescing_max_bytes());
     LOGGER.info("Activated - enabled: {}, root paths: {}, filterRegex: {}", isEnabled, pathsToListenFor, filterRegex);
   }
 
+  /** Deactivate method before service is stopped: pending paths are flushed into jobs. */
+  @Deactivate
+  protected void deactivate() {
+    stopCoalescing();
+  }
+
   /**
    * Called by the EventAdmin service to notify the listener of an event.
    *
@@ -59,8 +89,8 @@ public class ReplicationEventListener extends AbstractListener implements EventH
     if (isEnabled) {
       final ReplicationAction action = ReplicationAction.fromEvent(event);
       if (action != null) {
-        final String path = action.getPath();
-        processPath(path);
+        final String[] paths = action.getPaths();
+        processPaths(paths != null && paths.length > 0 ? paths : new String[] {action.getPath()});
       }
     } else {
       LOGGER.trace("Listener is disabled by config. Event: {}", event);
@@ -74,18 +104,46 @@ public class ReplicationEventListener extends AbstractListener implements EventH
    * @return true if the event was processed successfully, false otherwise
    */
   public boolean processPath(final String itemPath) {
-    boolean pathToProcess =
-        Arrays.stream(pathsToListenFor).parallel().anyMatch(rootPath -> StringUtils.contains(itemPath, rootPath));
-
-    boolean result;
-    if (pathToProcess) {
-      result = processEvent(new HashSet<>(Collections.singletonList(itemPath)), filterRegex, jobTopic);
-      LOGGER.info("Result of processing: {}", result);
-      return result;
-    } else {
-      LOGGER.info("Processing skipped for path: {}, : root folder: {}", itemPath, pathsToListenFor);
+    return processPaths(itemPath);
+  }
+
+  /**
+   * Processes all the paths of a replication action in one pass: paths under the root paths to listen for are
+   * collected and submitted together, so a tree activation results in a single job or a few size-capped jobs.
+   *
+   * @param itemPaths the item paths to process
+   * @return true if the event was processed successfully, false otherwise
+   */
+  public boolean processPaths(final String... itemPaths) {
+    final PathMatcher matcher = getPathMatcher(filterRegex);
+    final Set<String> pathsToProcess = new HashSet<>();
+    for (String itemPath : itemPaths) {
+      if (matcher.isUnderRootPath(itemPath)) {
+        pathsToProcess.add(itemPath);
+      } else {
+        LOGGER.debug("Processing skipped for path: {}, : root folder: {}", itemPath, pathsToListenFor);
+      }
     }
-    return false;
+
+    if (pathsToProcess.isEmpty()) {
+      LOGGER.info("Processing skipped for {} paths, : root folder: {}", itemPaths.length, pathsToListenFor);
+      return false;
+    }
+    boolean result = processEvent(pathsToProcess, filterRegex, jobTopic);
+    LOGGER.info("Result of processing {} paths: {}", pathsToProcess.size(), result);
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  MetricsService getMetricsService() {
+    return metricsService;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  InvalidationDeduplicationService getDeduplicationService() {
+    return deduplicationService;
   }
 
   /** {@inheritDoc} */
@@ -120,5 +178,89 @@ public class ReplicationEventListener extends AbstractListener implements EventH
 
     @AttributeDefinition(name = "Filter Regex", description = "Pattern to identify page/asset which must be processed")
     String filter_regex();
+
+    @AttributeDefinition(
+        name = "Max Paths per Job",
+        type = AttributeType.INTEGER,
+        description =
+            "Large path sets are split into jobs carrying at most this amount of paths. Zero or negative means a "
+                + "single job")
+    int job_max_paths() default 0;
+
+    @AttributeDefinition(
+        name = "Shard Key Depth",
+        type = AttributeType.INTEGER,
+        description =
+            "Paths exceeding the max paths per job are grouped into shards by their first segments, e.g. 2 for "
+                + "/content/site. Zero means by filter path")
+    int job_shard_key_depth() default 0;
+
+    @AttributeDefinition(
+        name = "Compact Job Paths",
+        type = AttributeType.BOOLEAN,
+        description =
+            "Tick to store job paths as a compressed binary property, reducing repository writes for large jobs. "
+                + "Requires job consumers able to read it")
+    boolean job_compact_paths() default false;
+
+    @AttributeDefinition(
+        name = "Enable Admission Control",
+        type = AttributeType.BOOLEAN,
+        description =
+            "Tick to switch to coarse purges per site when more paths come in than the drain rate allows. "
+                + "Requires a degraded job topic")
+    boolean intake_enabled() default false;
+
+    @AttributeDefinition(
+        name = "Intake High Watermark",
+        type = AttributeType.LONG,
+        description = "Paths admitted in excess of the drain rate at which the listener switches to degraded mode")
+    long intake_high_watermark() default 10000;
+
+    @AttributeDefinition(
+        name = "Intake Low Watermark",
+        type = AttributeType.LONG,
+        description = "Paths admitted in excess of the drain rate at which the listener switches back to normal mode")
+    long intake_low_watermark() default 2000;
+
+    @AttributeDefinition(
+        name = "Intake Drain Rate",
+        type = AttributeType.LONG,
+        description = "Paths per second the job queue and the CDN are expected to sustain")
+    long intake_drain_rate() default 100;
+
+    @AttributeDefinition(
+        name = "Degraded Job Topic",
+        description =
+            "Job topic receiving one root path per site in degraded mode, e.g. a consumer purging by CP code or "
+                + "site-level tag. Required: admission control stays disabled without it, as a fine-grained consumer "
+                + "would only purge the root pages")
+    String degraded_job_topic();
+
+    @AttributeDefinition(
+        name = "Enable Coalescing",
+        type = AttributeType.BOOLEAN,
+        description = "Tick to gather paths of several events into a single job")
+    boolean coalescing_enabled() default false;
+
+    @AttributeDefinition(
+        name = "Coalescing Max Age",
+        type = AttributeType.LONG,
+        description = "Max time in milliseconds a path waits before its job is created")
+    long coalescing_max_age() default 5000;
+
+    @AttributeDefinition(
+        name = "Coalescing Max Paths",
+        type = AttributeType.INTEGER,
+        description =
+            "Job is created as soon as this amount of paths is gathered, larger events are split into jobs of this "
+                + "size. Zero or negative means no limit")
+    int coalescing_max_paths() default 1000;
+
+    @AttributeDefinition(
+        name = "Coalescing Max Bytes",
+        type = AttributeType.LONG,
+        description = "Job is created as soon as gathered paths reach this size. Zero or negative means no limit")
+    long coalescing_max_bytes() default 262144;
   }
 }
@@ -1,8 +1,16 @@
 package com.baglio.autocdninvalidator.core.service;
 
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
-/** A service interface for invalidating CDN (Content Delivery Network) cache by different criteria. */
+/**
+ * A service interface for invalidating CDN (Content Delivery Network) cache by different criteria.
+ *
+ * <p>Every purge has a blocking and an asynchronous variant. The asynchronous variants default to the blocking ones,
+ * run in the calling thread; implementations should override them to release the caller while the CDN answers, so that
+ * a job keeps several purges in flight.
+ */
 public interface CdnInvalidationService {
 
   /**
@@ -28,4 +36,52 @@ public interface CdnInvalidationService {
    * @return true if invalidation succeed, false otherwise.
    */
   boolean purgeByURLs(Set<String> urls);
+
+  /**
+   * Asynchronously purges CDN content on the selected set of cache tags.
+   *
+   * @param tags the cache tags to purge
+   * @return the future result of the purge, completed exceptionally if the purge fails unexpectedly
+   */
+  default CompletableFuture<PurgeResult> purgeByTagAsync(final Set<String> tags) {
+    return complete(tags, () -> purgeByTag(tags));
+  }
+
+  /**
+   * Asynchronously purges CDN content on the selected CP codes.
+   *
+   * @param codes the CP codes to purge
+   * @return the future result of the purge, completed exceptionally if the purge fails unexpectedly
+   */
+  default CompletableFuture<PurgeResult> purgeByCodeAsync(final Set<String> codes) {
+    return complete(codes, () -> purgeByCode(codes));
+  }
+
+  /**
+   * Asynchronously purges CDN content on the selected URLs.
+   *
+   * @param urls the URLs or ARLs to purge
+   * @return the future result of the purge, completed exceptionally if the purge fails unexpectedly
+   */
+  default CompletableFuture<PurgeResult> purgeByURLsAsync(final Set<String> urls) {
+    return complete(urls, () -> purgeByURLs(urls));
+  }
+
+  /**
+   * Runs a blocking purge and wraps its outcome into a completed future. A failed blocking purge fails all its objects
+   * and is not retryable, as the provider does not tell whether the failure is transient.
+   *
+   * @param objects the objects of the purge
+   * @param purge the blocking purge
+   * @return the completed result of the purge
+   */
+  static CompletableFuture<PurgeResult> complete(final Set<String> objects, final Supplier<Boolean> purge) {
+    final CompletableFuture<PurgeResult> result = new CompletableFuture<>();
+    try {
+      result.complete(PurgeResult.of(Boolean.TRUE.equals(purge.get()), objects));
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
 }
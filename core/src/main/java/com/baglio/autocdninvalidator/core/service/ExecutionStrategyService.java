@@ -0,0 +1,66 @@
+package com.baglio.autocdninvalidator.core.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Service deciding how stream pipelines over paths, URLs or rules are executed: sequentially, on a dedicated bounded
+ * pool or on the JVM-wide common pool. Collections smaller than the configured threshold are always processed
+ * sequentially, as splitting them costs more than the work itself.
+ */
+public interface ExecutionStrategyService {
+
+  /** Strategy executing every pipeline sequentially, used when no service is available. */
+  ExecutionStrategyService SEQUENTIAL =
+      new ExecutionStrategyService() {
+        @Override
+        public <T, R> R execute(final Collection<T> items, final Function<Stream<T>, R> pipeline) {
+          return pipeline.apply(items.stream());
+        }
+      };
+
+  /** Available execution modes. */
+  enum Mode {
+    /** Always sequential streams. */
+    SEQUENTIAL,
+    /** Parallel streams on a pool owned by this library. */
+    DEDICATED,
+    /** Parallel streams on the JVM-wide ForkJoin common pool. */
+    COMMON
+  }
+
+  /**
+   * Applies the pipeline to a stream over the items, choosing a sequential or parallel stream and the pool running it.
+   * The pipeline must be stateless and must not rely on encounter order.
+   *
+   * @param items the items to process
+   * @param pipeline operations to apply to the stream, including the terminal one
+   * @param <T> type of the items
+   * @param <R> type of the result
+   * @return the result of the pipeline
+   */
+  <T, R> R execute(Collection<T> items, Function<Stream<T>, R> pipeline);
+
+  /**
+   * Splits the items into contiguous chunks, one per available worker, and applies the worker function to every chunk.
+   * Unlike {@link #execute(Collection, Function)}, the function receives a whole chunk, so that it can own resources
+   * which are not thread-safe, such as a resource resolver, for the duration of the chunk.
+   *
+   * <p>By default the items are processed as a single chunk by the calling thread.
+   *
+   * @param items the items to process
+   * @param worker function processing a chunk of items
+   * @param <T> type of the items
+   * @param <R> type of the result of a chunk
+   * @return the results of the chunks, empty if there are no items
+   */
+  default <T, R> List<R> executePartitioned(final Collection<T> items, final Function<List<T>, R> worker) {
+    return items.isEmpty()
+        ? Collections.emptyList()
+        : Collections.singletonList(worker.apply(new ArrayList<>(items)));
+  }
+}
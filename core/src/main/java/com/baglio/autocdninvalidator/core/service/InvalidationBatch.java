@@ -0,0 +1,69 @@
+package com.baglio.autocdninvalidator.core.service;
+
+import java.util.Set;
+
+/**
+ * Items of one phase of a job, shared by all the {@link InvalidationStage stages} of the phase. The set of items is
+ * modified in place, so that stages do not copy it.
+ *
+ * <p>A batch is confined to the thread processing the job.
+ */
+public final class InvalidationBatch {
+  private final String phase;
+  private final String jobTopic;
+  private final Set<String> items;
+
+  /**
+   * Creates a batch.
+   *
+   * @param phase the current phase
+   * @param jobTopic the topic of the job, can be null
+   * @param items the items of the phase, mutable
+   */
+  public InvalidationBatch(final String phase, final String jobTopic, final Set<String> items) {
+    this.phase = phase;
+    this.jobTopic = jobTopic;
+    this.items = items;
+  }
+
+  /**
+   * Gets the current phase.
+   *
+   * @return one of the {@code InvalidationStage.PHASE_*} constants
+   */
+  public String getPhase() {
+    return phase;
+  }
+
+  /**
+   * Gets the topic of the job.
+   *
+   * @return the job topic, or null if unknown
+   */
+  public String getJobTopic() {
+    return jobTopic;
+  }
+
+  /**
+   * Gets the items of the phase: content paths, tags, codes or URLs. Changes are seen by the following stages.
+   *
+   * @return the mutable set of items
+   */
+  public Set<String> getItems() {
+    return items;
+  }
+
+  /**
+   * Returns the amount of items.
+   *
+   * @return the amount of items
+   */
+  public int size() {
+    return items.size();
+  }
+
+  @Override
+  public String toString() {
+    return "InvalidationBatch{phase=" + phase + ", jobTopic=" + jobTopic + ", size=" + items.size() + "}";
+  }
+}
@@ -0,0 +1,30 @@
+package com.baglio.autocdninvalidator.core.service;
+
+import java.util.Set;
+
+/**
+ * Registry of queued invalidations, shared by all the listener configurations. When several listeners with
+ * overlapping root paths observe the same change, the paths already waiting in a queued job for the same topic are
+ * dropped by the others. Once the job has started, the paths are enqueued again, as the running job may already have
+ * purged them.
+ */
+public interface InvalidationDeduplicationService {
+
+  /**
+   * Returns the paths which are not waiting in a queued job for the job topic.
+   *
+   * @param jobTopic the job topic the paths are about to be enqueued for
+   * @param paths the candidate paths
+   * @return the paths that must be enqueued, possibly empty
+   */
+  Set<String> dropQueued(String jobTopic, Set<String> paths);
+
+  /**
+   * Registers the paths of a job once it has been created, so that they are dropped as long as the job is queued.
+   *
+   * @param jobTopic the job topic
+   * @param paths the paths of the job
+   * @param jobId the identifier of the created job
+   */
+  void register(String jobTopic, Set<String> paths, String jobId);
+}
@@ -0,0 +1,24 @@
+package com.baglio.autocdninvalidator.core.service;
+
+import java.util.Set;
+
+/**
+ * Service running the registered {@link InvalidationStage stages} of a phase of the invalidation pipeline. Each stage
+ * is timed and the amount of items it receives is recorded, so that a slow custom stage can be spotted.
+ */
+public interface InvalidationPipelineService {
+
+  /** Pipeline without any stage, used when no service is available. */
+  InvalidationPipelineService NO_STAGES = (phase, jobTopic, items) -> items;
+
+  /**
+   * Runs the stages of a phase applying to the job topic. When there is at least one stage, the items are copied once
+   * into an {@link InvalidationBatch} modified in place by all of them.
+   *
+   * @param phase the current phase, one of the {@code InvalidationStage.PHASE_*} constants
+   * @param jobTopic the topic of the job, can be null
+   * @param items the items of the phase, not modified
+   * @return the processed items, the given set if no stage applies
+   */
+  Set<String> process(String phase, String jobTopic, Set<String> items);
+}
@@ -0,0 +1,45 @@
+package com.baglio.autocdninvalidator.core.service;
+
+/**
+ * Custom stage of the invalidation pipeline, registered as an OSGi service (whiteboard pattern) instead of subclassing
+ * a job consumer. A stage is called during one phase of every job, with the items of the phase in a batch it can
+ * modify in place.
+ *
+ * <p>Stages run in service ranking order, highest first. They are configured with the service properties:
+ *
+ * <ul>
+ *   <li>{@value #PROPERTY_PHASE}: the phase the stage runs in, one of {@value #PHASE_PATHS}, {@value #PHASE_VALUES} or
+ *       {@value #PHASE_URLS}; mandatory;
+ *   <li>{@value #PROPERTY_NAME}: the name of the stage in logs and metrics, the class name by default;
+ *   <li>{@value #PROPERTY_JOB_TOPICS}: the job topics the stage applies to, all of them by default.
+ * </ul>
+ *
+ * <p>A stage throwing an exception fails the job, so that it is retried.
+ */
+public interface InvalidationStage {
+
+  /** Service property with the phase the stage runs in. */
+  String PROPERTY_PHASE = "autocdninvalidator.stage.phase";
+
+  /** Service property with the name of the stage. */
+  String PROPERTY_NAME = "autocdninvalidator.stage.name";
+
+  /** Service property with the job topics the stage applies to. */
+  String PROPERTY_JOB_TOPICS = "autocdninvalidator.stage.job.topics";
+
+  /** Phase of the content paths, before tags, codes or URLs are computed. */
+  String PHASE_PATHS = "paths";
+
+  /** Phase of the computed tags or codes. */
+  String PHASE_VALUES = "values";
+
+  /** Phase of the computed public URLs. */
+  String PHASE_URLS = "urls";
+
+  /**
+   * Processes the items of a job, adding or removing items of the batch in place.
+   *
+   * @param batch the items of the current phase
+   */
+  void process(InvalidationBatch batch);
+}
@@ -0,0 +1,54 @@
+package com.baglio.autocdninvalidator.core.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Cache of externalized public URLs, keyed by the domains, scheme and URL variants they are computed for and by content
+ * path. Mapping a path through {@code /etc/map} and vanity URLs and then externalizing it is costly, while the same
+ * pages are invalidated many times a day. The cache must be invalidated whenever mappings, vanity paths or aliases
+ * change.
+ */
+public interface PublicUrlCacheService {
+
+  /** Service computing every URL, used when no cache is available. */
+  PublicUrlCacheService UNCACHED =
+      new PublicUrlCacheService() {
+        @Override
+        public List<String> getPublicUrls(
+            final String key, final String path, final Function<String, List<String>> externalizer) {
+          return externalizer.apply(path);
+        }
+
+        @Override
+        public void invalidate() {
+          // nothing cached
+        }
+
+        @Override
+        public void invalidate(final Collection<String> paths) {
+          // nothing cached
+        }
+      };
+
+  /**
+   * Returns the cached public URLs of the path, externalizing them when missing or expired.
+   *
+   * @param key identifies the domains, scheme and URL variants the URLs are computed for
+   * @param path the content path
+   * @param externalizer computes the public URLs of the path, must not return null
+   * @return the public URLs, not modifiable
+   */
+  List<String> getPublicUrls(String key, String path, Function<String, List<String>> externalizer);
+
+  /** Forgets every cached URL. */
+  void invalidate();
+
+  /**
+   * Forgets the cached URLs of the paths and of their descendants, for every key.
+   *
+   * @param paths the content paths
+   */
+  void invalidate(Collection<String> paths);
+}
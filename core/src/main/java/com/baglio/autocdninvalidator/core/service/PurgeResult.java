@@ -0,0 +1,214 @@
+package com.baglio.autocdninvalidator.core.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Outcome of a purge sent to the CDN, possibly split into several requests: the HTTP status, the identifiers and
+ * estimated completion time returned by the CDN, and the objects that could not be purged, so that only those are
+ * purged again. A failure is retryable when its cause is transient: no answer, 429 Too Many Requests or a 5xx status.
+ */
+public final class PurgeResult {
+
+  /** The CDN accepted the purge, without further details. */
+  public static final PurgeResult SUCCESS =
+      new PurgeResult(true, 0, Collections.emptyList(), -1, Collections.emptySet());
+
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+  private static final int SC_INTERNAL_SERVER_ERROR = 500;
+
+  private final boolean success;
+  private final int httpStatus;
+  private final List<String> purgeIds;
+  private final long estimatedSeconds;
+  private final Set<String> failedObjects;
+  private final boolean retryable;
+
+  /**
+   * Creates a result. A failure is retryable if its HTTP status is transient, see {@link #isTransientStatus(int)}.
+   *
+   * @param success true if the CDN accepted the purge
+   * @param httpStatus the HTTP status answered by the CDN, 0 if no answer was received
+   * @param purgeIds the identifiers of the accepted requests
+   * @param estimatedSeconds estimated time for the purge to complete, -1 if unknown
+   * @param failedObjects the objects not purged; empty on failure if they are unknown
+   */
+  public PurgeResult(
+      final boolean success,
+      final int httpStatus,
+      final List<String> purgeIds,
+      final long estimatedSeconds,
+      final Set<String> failedObjects) {
+    this(success, httpStatus, purgeIds, estimatedSeconds, failedObjects, !success && isTransientStatus(httpStatus));
+  }
+
+  private PurgeResult(
+      final boolean success,
+      final int httpStatus,
+      final List<String> purgeIds,
+      final long estimatedSeconds,
+      final Set<String> failedObjects,
+      final boolean retryable) {
+    this.success = success;
+    this.httpStatus = httpStatus;
+    this.purgeIds = Collections.unmodifiableList(purgeIds);
+    this.estimatedSeconds = estimatedSeconds;
+    this.failedObjects = Collections.unmodifiableSet(failedObjects);
+    this.retryable = retryable;
+  }
+
+  /**
+   * Tells whether an HTTP status denotes a transient failure, which may not happen again later.
+   *
+   * @param httpStatus the HTTP status answered by the CDN, 0 if no answer was received
+   * @return true for no answer, 429 Too Many Requests and 5xx statuses
+   */
+  public static boolean isTransientStatus(final int httpStatus) {
+    return httpStatus == 0 || httpStatus == SC_TOO_MANY_REQUESTS || httpStatus >= SC_INTERNAL_SERVER_ERROR;
+  }
+
+  /**
+   * Gets the result of a blocking purge. A blocking purge does not tell why it failed, so its failure is not retryable:
+   * retrying a permanent failure would only repeat it.
+   *
+   * @param success true if the purge succeeded
+   * @param objects the objects of the purge
+   * @return {@link #SUCCESS}, or a failure of all the objects, not retryable
+   */
+  public static PurgeResult of(final boolean success, final Set<String> objects) {
+    return success ? SUCCESS : rejected(0, objects);
+  }
+
+  /**
+   * Gets the failure of all the objects of a purge, retryable if the HTTP status is transient.
+   *
+   * @param httpStatus the HTTP status answered by the CDN, 0 if no answer was received
+   * @param objects the objects of the purge, can be null
+   * @return the failed result
+   */
+  public static PurgeResult failed(final int httpStatus, final Set<String> objects) {
+    return new PurgeResult(false, httpStatus, Collections.emptyList(), -1, copy(objects));
+  }
+
+  /**
+   * Gets the failure of all the objects of a purge which cannot succeed later, e.g. because the CDN service is disabled
+   * or not configured, or the request could not be built.
+   *
+   * @param httpStatus the HTTP status answered by the CDN, 0 if no request was sent
+   * @param objects the objects of the purge, can be null
+   * @return the failed result, not retryable
+   */
+  public static PurgeResult rejected(final int httpStatus, final Set<String> objects) {
+    return new PurgeResult(false, httpStatus, Collections.emptyList(), -1, copy(objects), false);
+  }
+
+  private static Set<String> copy(final Set<String> objects) {
+    return objects != null ? new LinkedHashSet<>(objects) : Collections.emptySet();
+  }
+
+  /**
+   * Combines the results of the requests of a purge: it succeeds only if all of them succeed, its status is the one of
+   * the first failed request, its failed objects are those of all the failed requests, and it is retryable only if all
+   * the failed requests are.
+   *
+   * @param results the results of the requests
+   * @return the result of the purge
+   */
+  public static PurgeResult combine(final List<PurgeResult> results) {
+    if (results.size() == 1) {
+      return results.get(0);
+    }
+    boolean success = true;
+    boolean retryable = true;
+    int httpStatus = 0;
+    long estimatedSeconds = -1;
+    final List<String> purgeIds = new ArrayList<>(results.size());
+    final Set<String> failedObjects = new LinkedHashSet<>();
+    for (PurgeResult result : results) {
+      if (success && (httpStatus == 0 || !result.success)) {
+        httpStatus = result.httpStatus;
+      }
+      success &= result.success;
+      retryable &= result.success || result.retryable;
+      purgeIds.addAll(result.purgeIds);
+      estimatedSeconds = Math.max(estimatedSeconds, result.estimatedSeconds);
+      failedObjects.addAll(result.failedObjects);
+    }
+    return new PurgeResult(success, httpStatus, purgeIds, estimatedSeconds, failedObjects, !success && retryable);
+  }
+
+  /**
+   * Tells whether the CDN accepted the purge.
+   *
+   * @return true if the purge succeeded, false otherwise
+   */
+  public boolean isSuccess() {
+    return success;
+  }
+
+  /**
+   * Tells whether the purge failed for a transient cause, once the CDN service gave up retrying it, so that purging the
+   * failed objects again later may succeed.
+   *
+   * @return true if the failure is retryable, false if it is permanent or the purge succeeded
+   */
+  public boolean isRetryable() {
+    return retryable;
+  }
+
+  /**
+   * Gets the HTTP status answered by the CDN: the status of the first failed request, if any.
+   *
+   * @return the HTTP status, 0 if no answer was received or it is unknown
+   */
+  public int getHttpStatus() {
+    return httpStatus;
+  }
+
+  /**
+   * Gets the identifiers assigned by the CDN to the accepted requests, e.g. the Akamai {@code purgeId}.
+   *
+   * @return the unmodifiable list of identifiers
+   */
+  public List<String> getPurgeIds() {
+    return purgeIds;
+  }
+
+  /**
+   * Gets the time the CDN estimates for the purge to complete, the longest of its requests.
+   *
+   * @return the estimated seconds, -1 if unknown
+   */
+  public long getEstimatedSeconds() {
+    return estimatedSeconds;
+  }
+
+  /**
+   * Gets the objects that could not be purged. A failed purge with no failed objects failed for unknown objects.
+   *
+   * @return the unmodifiable set of failed objects
+   */
+  public Set<String> getFailedObjects() {
+    return failedObjects;
+  }
+
+  @Override
+  public String toString() {
+    return "PurgeResult{success="
+        + success
+        + ", retryable="
+        + retryable
+        + ", httpStatus="
+        + httpStatus
+        + ", purgeIds="
+        + purgeIds
+        + ", estimatedSeconds="
+        + estimatedSeconds
+        + ", failedObjects="
+        + failedObjects.size()
+        + "}";
+  }
+}
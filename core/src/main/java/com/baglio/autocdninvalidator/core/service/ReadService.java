@@ -4,4 +4,16 @@ import org.apache.sling.api.resource.ResourceResolver;
 
 public interface ReadService {
   ResourceResolver getResourceResolver();
+
+  /**
+   * Leases a resource resolver from the pool, if enabled. The caller must close it, which gives it back to the pool;
+   * it must not be kept or shared across threads.
+   *
+   * <p>By default a fresh resolver is returned, as {@link #getResourceResolver()} does.
+   *
+   * @return The {@code ResourceResolver} instance or {@code null} if none could be obtained.
+   */
+  default ResourceResolver leaseResourceResolver() {
+    return getResourceResolver();
+  }
 }
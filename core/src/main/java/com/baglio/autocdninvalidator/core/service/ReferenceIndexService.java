@@ -0,0 +1,34 @@
+package com.baglio.autocdninvalidator.core.service;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Reverse index from referenced resources (e.g. DAM assets, content fragments) to the pages embedding them, so that
+ * dependent pages can be purged together with a changed resource without querying the repository at job time. The
+ * index is maintained incrementally from resource changes.
+ */
+public interface ReferenceIndexService {
+
+  /**
+   * Returns the pages referencing any of the paths or any of their ancestors.
+   *
+   * @param paths the changed paths
+   * @return the referencing pages, possibly empty
+   */
+  Set<String> getReferencingPages(Collection<String> paths);
+
+  /**
+   * Schedules the pages to be scanned again for references, e.g. after their content changed.
+   *
+   * @param pagePaths the page paths
+   */
+  void reindex(Collection<String> pagePaths);
+
+  /**
+   * Schedules the removal of the pages and of every page below them.
+   *
+   * @param paths the removed paths
+   */
+  void remove(Collection<String> paths);
+}
@@ -9,24 +9,41 @@ import com.akamai.edgegrid.signer.exceptions.RequestSigningException;
 import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
 import com.baglio.autocdninvalidator.core.service.CdnInvalidationService;
 import com.baglio.autocdninvalidator.core.service.HttpClientService;
+import com.baglio.autocdninvalidator.core.service.PurgeResult;
 import com.baglio.autocdninvalidator.core.service.UtilityService;
 import com.google.gson.Gson;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.Charset;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.util.EntityUtils;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
@@ -40,6 +57,9 @@ import org.osgi.service.metatype.annotations.Option;
 public class AkamaiInvalidationServiceImpl implements CdnInvalidationService {
   private static final LoggingHelper LOGGER = new LoggingHelper(AkamaiInvalidationServiceImpl.class);
   private static final String SERVICE_NAME_PLACEHOLDER = "<serviceName>";
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+  private static final String HEADER_RATE_LIMIT_REMAINING = "X-RateLimit-Remaining";
 
   private final Gson gson = new Gson();
   private ClientCredential credential;
@@ -47,6 +67,14 @@ public class AkamaiInvalidationServiceImpl implements CdnInvalidationService {
   private CloseableHttpClient client;
   private boolean isEnabled;
   private String httpClientConfigurationID;
+  private int maxRequestBytes;
+  private int maxRequestObjects;
+  private volatile ExecutorService executor;
+  private volatile ScheduledExecutorService scheduler;
+  private volatile PurgeRateLimiter rateLimiter;
+  private int maxRetries;
+  private long retryInitialBackoff;
+  private long retryMaxBackoff;
 
   @Reference private UtilityService utilityService;
 
@@ -71,6 +99,25 @@ public class AkamaiInvalidationServiceImpl implements CdnInvalidationService {
     }
   }
 
+  /** Outcome of one attempt of a request: either the final result or the wait before the next attempt. */
+  private static final class Attempt {
+    private final PurgeResult result;
+    private final int statusCode;
+    private final long retryDelay;
+
+    private Attempt(final PurgeResult result, final int statusCode, final long retryDelay) {
+      this.result = result;
+      this.statusCode = statusCode;
+      this.retryDelay = retryDelay;
+    }
+  }
+
+  /** Answer of an accepted Fast Purge request, read by Gson. */
+  private static final class PurgeResponse {
+    private String purgeId;
+    private long estimatedSeconds = -1;
+  }
+
   /**
    * Activate method to initialize configuration.
    *
@@ -82,6 +129,49 @@ public class AkamaiInvalidationServiceImpl implements CdnInvalidationService {
     LOGGER.info("Activated/Modified");
 
     this.isEnabled = config.isEnabled();
+    this.maxRequestBytes = config.max_request_bytes();
+    this.maxRequestObjects = config.max_request_objects();
+    this.maxRetries = Math.max(0, config.retry_max_retries());
+    this.retryInitialBackoff = config.retry_initial_backoff();
+    this.retryMaxBackoff = config.retry_max_backoff();
+    if (rateLimiter == null) {
+      this.rateLimiter =
+          new PurgeRateLimiter(
+              config.rate_limit_requests(),
+              config.rate_limit_objects(),
+              config.rate_limit_objects_burst(),
+              config.rate_limit_max_wait(),
+              System::nanoTime);
+    } else {
+      // the tokens left and a pause requested by Akamai still apply
+      rateLimiter.configure(
+          config.rate_limit_requests(),
+          config.rate_limit_objects(),
+          config.rate_limit_objects_burst(),
+          config.rate_limit_max_wait());
+    }
+    ExecutorService previous = executor;
+    executor =
+        Executors.newFixedThreadPool(
+            Math.max(1, config.request_parallelism()),
+            runnable -> {
+              Thread thread = new Thread(runnable, "autocdninvalidator-akamai-" + THREAD_COUNT.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    if (previous != null) {
+      // requests in flight complete on the previous threads
+      previous.shutdown();
+    }
+    if (scheduler == null) {
+      scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, "autocdninvalidator-akamai-scheduler");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
 
     if (this.isEnabled) {
 
@@ -109,6 +199,24 @@ public class AkamaiInvalidationServiceImpl implements CdnInvalidationService {
     }
   }
 
+  /**
+   * Deactivate method before service is stopped: requests in flight complete, then the threads are released. Requests
+   * still waiting for the rate limit or a retry fail when their wait is over.
+   */
+  @Deactivate
+  protected void deactivate() {
+    ExecutorService previous = executor;
+    executor = null;
+    if (previous != null) {
+      previous.shutdown();
+    }
+    ScheduledExecutorService previousScheduler = scheduler;
+    scheduler = null;
+    if (previousScheduler != null) {
+      previousScheduler.shutdown();
+    }
+  }
+
   /**
    * Checks if the mandatory fields of a given config object are available and not blank.
    *
@@ -125,51 +233,347 @@ public class AkamaiInvalidationServiceImpl implements CdnInvalidationService {
     result.add(config.getAkamaiClientSecret());
     result.add(config.network());
 
-    return result.parallelStream().noneMatch(StringUtils::isBlank);
+    return result.stream().noneMatch(StringUtils::isBlank);
   }
 
   private boolean internalRequest(final ServiceName serviceName, final Set<String> items) {
+    return internalRequest(serviceName, items, true).join().isSuccess();
+  }
+
+  /**
+   * Sends the requests of a purge on the request threads of this configuration, without waiting for Akamai. A blocking
+   * purge made of a single request sends it in the calling thread instead, sparing the thread handoff; only then the
+   * rate limit and retry waits are spent sleeping, in the calling thread.
+   *
+   * @param serviceName the type of purge
+   * @param items the objects to purge
+   * @param blocking true if the caller waits for the result
+   * @return the future result, combining the results of all the requests
+   */
+  private CompletableFuture<PurgeResult> internalRequest(
+      final ServiceName serviceName, final Set<String> items, final boolean blocking) {
     LOGGER.trace("Starting akamai invalidation for '{}'", items);
     if (!this.isEnabled) {
       LOGGER.info("Service is disabled by configuration");
-      return false;
+      return CompletableFuture.completedFuture(PurgeResult.rejected(0, items));
     }
     if (items == null || items.isEmpty()) {
       LOGGER.warn("Provided input set of values is empty");
-      return false;
+      return CompletableFuture.completedFuture(PurgeResult.rejected(0, items));
     }
 
     if (getClient() == null || this.credential == null) {
       LOGGER.error("Impossible to invalidate '{}' because mandatory data is not available", items);
-      return false;
+      return CompletableFuture.completedFuture(PurgeResult.rejected(0, items));
+    }
+
+    final String finalAkamaiUrl = this.unprocessedAkamaiUrl.replace(SERVICE_NAME_PLACEHOLDER, serviceName.getValue());
+    final List<PurgeRequestBody> bodies = PurgeRequestBody.encode(items, maxRequestBytes, maxRequestObjects);
+    LOGGER.debug("Invalidating {} objects by {} in {} requests", items.size(), serviceName.getValue(), bodies.size());
+
+    final ExecutorService current = executor;
+    if (current == null || (blocking && bodies.size() == 1)) {
+      final List<PurgeResult> results = new ArrayList<>(bodies.size());
+      for (PurgeRequestBody body : bodies) {
+        results.add(sendRequest(finalAkamaiUrl, body));
+      }
+      return CompletableFuture.completedFuture(PurgeResult.combine(results));
     }
 
-    String finalAkamaiUrl = this.unprocessedAkamaiUrl.replace(SERVICE_NAME_PLACEHOLDER, serviceName.getValue());
-    HttpPost request = new HttpPost(finalAkamaiUrl);
+    final List<CompletableFuture<PurgeResult>> requests = new ArrayList<>(bodies.size());
+    for (PurgeRequestBody body : bodies) {
+      final CompletableFuture<PurgeResult> request = new CompletableFuture<>();
+      scheduleAttempt(finalAkamaiUrl, body, 0, 0, request);
+      requests.add(request);
+    }
+    return CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0]))
+        .thenApply(
+            ignored ->
+                PurgeResult.combine(requests.stream().map(CompletableFuture::join).collect(Collectors.toList())));
+  }
+
+  /**
+   * Schedules an attempt of a request on the request threads, once the delay and then the rate limit wait are over.
+   * Waits are timed by the scheduler thread instead of being slept, so that the request threads are only busy sending
+   * requests, and a paused configuration does not hold them.
+   *
+   * @param akamaiUrl the URL of the Akamai CDN endpoint
+   * @param body the JSON request body
+   * @param attempt the attempt, starting from 0
+   * @param delayNanos the wait before reserving the rate limit, e.g. a retry backoff
+   * @param future completed with the result of the request
+   */
+  private void scheduleAttempt(
+      final String akamaiUrl,
+      final PurgeRequestBody body,
+      final int attempt,
+      final long delayNanos,
+      final CompletableFuture<PurgeResult> future) {
+    runLater(delayNanos, () -> reserveAttempt(akamaiUrl, body, attempt, future), body, future);
+  }
+
+  private void reserveAttempt(
+      final String akamaiUrl,
+      final PurgeRequestBody body,
+      final int attempt,
+      final CompletableFuture<PurgeResult> future) {
+    final long wait = reserve(rateLimiter, body.getObjectCount());
+    if (wait < 0) {
+      future.complete(PurgeResult.failed(0, new LinkedHashSet<>(body.getObjects())));
+      return;
+    }
+    runLater(wait, () -> executeAttempt(akamaiUrl, body, attempt, future), body, future);
+  }
+
+  private void executeAttempt(
+      final String akamaiUrl,
+      final PurgeRequestBody body,
+      final int attempt,
+      final CompletableFuture<PurgeResult> future) {
+    final ExecutorService current = executor;
     try {
-      request.setEntity(new StringEntity("{\"objects\":" + getJsonString(items) + "}"));
-    } catch (UnsupportedEncodingException e) {
-      LOGGER.error("Impossible to convert items to json array string", e);
-      return false;
+      if (current == null) {
+        throw new RejectedExecutionException("Service stopped");
+      }
+      current.execute(
+          () -> {
+            final Attempt outcome = send(rateLimiter, akamaiUrl, body, attempt);
+            if (outcome.result != null) {
+              future.complete(outcome.result);
+            } else {
+              scheduleAttempt(akamaiUrl, body, attempt + 1, outcome.retryDelay, future);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      dropRequest(body, future);
     }
+  }
 
-    boolean result = false;
+  /**
+   * Runs a task on the scheduler thread once the delay is over, or right away if there is nothing to wait.
+   *
+   * @param delayNanos the delay in nanoseconds
+   * @param task the task, it must not block
+   * @param body the request the task belongs to
+   * @param future completed with a failure if the task cannot be scheduled
+   */
+  private void runLater(
+      final long delayNanos,
+      final Runnable task,
+      final PurgeRequestBody body,
+      final CompletableFuture<PurgeResult> future) {
+    if (delayNanos <= 0) {
+      task.run();
+      return;
+    }
+    final ScheduledExecutorService current = scheduler;
     try {
-      String authHeader = getAuthenticationHeader(finalAkamaiUrl, items);
+      if (current == null) {
+        throw new RejectedExecutionException("Service stopped");
+      }
+      current.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      dropRequest(body, future);
+    }
+  }
 
-      request.setHeader(HttpHeaders.AUTHORIZATION, authHeader);
+  private static void dropRequest(final PurgeRequestBody body, final CompletableFuture<PurgeResult> future) {
+    LOGGER.warn("Request of {} objects not sent: the service is being stopped", body.getObjectCount());
+    future.complete(PurgeResult.failed(0, new LinkedHashSet<>(body.getObjects())));
+  }
+
+  /**
+   * Sends one purge request in the calling thread once the rate limiter allows it, sleeping through the rate limit and
+   * retry waits. Transient failures are retried as described in {@link #send(PurgeRateLimiter, String,
+   * PurgeRequestBody, int)}.
+   *
+   * @param akamaiUrl the URL of the Akamai CDN endpoint
+   * @param body the JSON request body
+   * @return the result of the request, failing all its objects if Akamai did not accept it
+   */
+  private PurgeResult sendRequest(final String akamaiUrl, final PurgeRequestBody body) {
+    for (int attempt = 0; ; attempt++) {
+      final PurgeRateLimiter limiter = rateLimiter;
+      final long wait = reserve(limiter, body.getObjectCount());
+      if (wait < 0 || !sleep(wait)) {
+        return PurgeResult.failed(0, new LinkedHashSet<>(body.getObjects()));
+      }
+      final Attempt outcome = send(limiter, akamaiUrl, body, attempt);
+      if (outcome.result != null) {
+        return outcome.result;
+      }
+      if (!sleep(outcome.retryDelay)) {
+        return PurgeResult.failed(outcome.statusCode, new LinkedHashSet<>(body.getObjects()));
+      }
+    }
+  }
+
+  /**
+   * Sends one attempt of a purge request, the rate limit wait being over. Transient failures are retried: IO errors
+   * and 5xx answers after an exponential backoff with jitter; 429 Too Many Requests answers after pausing all the
+   * requests of this configuration as long as requested by the Retry-After header, or by the backoff if missing.
+   *
+   * @param limiter the rate limiter
+   * @param akamaiUrl the URL of the Akamai CDN endpoint
+   * @param body the JSON request body
+   * @param attempt the attempt, starting from 0
+   * @return the final result, failing all the objects if Akamai did not accept the request, or the wait before retrying
+   */
+  private Attempt send(
+      final PurgeRateLimiter limiter, final String akamaiUrl, final PurgeRequestBody body, final int attempt) {
+    int statusCode = 0;
+    long retryAfter = -1;
+    try {
+      HttpPost request = new HttpPost(akamaiUrl);
+      request.setEntity(new ByteArrayEntity(body.getBytes(), ContentType.APPLICATION_JSON));
+      request.setHeader(HttpHeaders.AUTHORIZATION, getAuthenticationHeader(akamaiUrl, body.getBytes()));
       request.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType());
 
       HttpResponse response = client.execute(request);
       String bodyResponse = EntityUtils.toString(response.getEntity(), "UTF-8");
-      LOGGER.trace("Akamai response for invalidating '{}': {}", items, bodyResponse);
+      LOGGER.trace("Akamai response for a request of {} objects: {}", body.getObjectCount(), bodyResponse);
 
-      int statusCode = response.getStatusLine().getStatusCode();
-      result = statusCode >= HttpServletResponse.SC_OK && statusCode <= HttpServletResponse.SC_MULTIPLE_CHOICES;
+      statusCode = response.getStatusLine().getStatusCode();
+      String remaining = getHeader(response, HEADER_RATE_LIMIT_REMAINING);
+      if (StringUtils.isNotEmpty(remaining) && StringUtils.isNumeric(remaining)) {
+        limiter.limitObjects(Long.parseLong(remaining));
+      }
+      if (statusCode >= HttpServletResponse.SC_OK && statusCode <= HttpServletResponse.SC_MULTIPLE_CHOICES) {
+        return new Attempt(getAcceptedResult(statusCode, bodyResponse), statusCode, 0);
+      }
+      if (statusCode == SC_TOO_MANY_REQUESTS) {
+        retryAfter = getRetryAfterNanos(getHeader(response, HttpHeaders.RETRY_AFTER), System.currentTimeMillis());
+      } else if (statusCode < HttpServletResponse.SC_INTERNAL_SERVER_ERROR) {
+        LOGGER.error(
+            "Akamai rejected a request of {} objects - status: {}, response: {}",
+            body.getObjectCount(),
+            statusCode,
+            bodyResponse);
+        return new Attempt(PurgeResult.failed(statusCode, new LinkedHashSet<>(body.getObjects())), statusCode, 0);
+      }
+      LOGGER.warn("Akamai request of {} objects failed - status: {}", body.getObjectCount(), statusCode);
+    } catch (IOException e) {
+      LOGGER.warn("Akamai request of {} objects failed: {}", body.getObjectCount(), e.getMessage());
     } catch (Exception e) {
-      LOGGER.error("Invalidation by tag - Unexpected error", e);
+      LOGGER.error("Invalidation request - Unexpected error", e);
+      return new Attempt(PurgeResult.rejected(0, new LinkedHashSet<>(body.getObjects())), statusCode, 0);
+    }
+
+    if (attempt >= maxRetries) {
+      LOGGER.error("Akamai request of {} objects failed after {} attempts", body.getObjectCount(), attempt + 1);
+      return new Attempt(PurgeResult.failed(statusCode, new LinkedHashSet<>(body.getObjects())), statusCode, 0);
+    }
+    final long backoff =
+        getBackoffNanos(attempt, retryInitialBackoff, retryMaxBackoff, ThreadLocalRandom.current().nextDouble());
+    if (statusCode == SC_TOO_MANY_REQUESTS) {
+      final long pause = retryAfter >= 0 ? retryAfter : backoff;
+      LOGGER.warn("Akamai rate limit exceeded, requests paused for {} ms", TimeUnit.NANOSECONDS.toMillis(pause));
+      // the next reservation waits for the pause
+      limiter.pause(pause);
+      return new Attempt(null, statusCode, 0);
+    }
+    return new Attempt(null, statusCode, backoff);
+  }
+
+  /**
+   * Reads the answer of an accepted request, e.g. {@code {"httpStatus": 201, "purgeId": "...", "estimatedSeconds":
+   * 5}}. An answer that cannot be read does not fail the request.
+   *
+   * @param statusCode the HTTP status
+   * @param bodyResponse the response body, can be null
+   * @return the successful result
+   */
+  private PurgeResult getAcceptedResult(final int statusCode, final String bodyResponse) {
+    PurgeResponse response = null;
+    if (StringUtils.isNotBlank(bodyResponse)) {
+      try {
+        response = gson.fromJson(bodyResponse, PurgeResponse.class);
+      } catch (JsonParseException e) {
+        LOGGER.debug("Unexpected Akamai response: {}", bodyResponse);
+      }
+    }
+    if (response == null) {
+      return new PurgeResult(true, statusCode, Collections.emptyList(), -1, Collections.emptySet());
+    }
+    LOGGER.debug("Akamai purge {} accepted, estimated seconds: {}", response.purgeId, response.estimatedSeconds);
+    return new PurgeResult(
+        true,
+        statusCode,
+        response.purgeId != null ? Collections.singletonList(response.purgeId) : Collections.emptyList(),
+        response.estimatedSeconds,
+        Collections.emptySet());
+  }
+
+  /**
+   * Computes the wait before a retry: an exponential backoff with equal jitter, so that the requests failed together
+   * are not retried together.
+   *
+   * @param attempt the failed attempt, starting from 0
+   * @param initialMillis the backoff after the first attempt in milliseconds
+   * @param maxMillis the max backoff in milliseconds
+   * @param random a random value between 0 (inclusive) and 1 (exclusive)
+   * @return the nanoseconds to wait, between half and all of the backoff
+   */
+  static long getBackoffNanos(final int attempt, final long initialMillis, final long maxMillis, final double random) {
+    final long backoff = Math.min(maxMillis, Math.max(0, initialMillis) << Math.min(attempt, 20));
+    return TimeUnit.MILLISECONDS.toNanos(backoff / 2) + (long) (TimeUnit.MILLISECONDS.toNanos(backoff) / 2 * random);
+  }
+
+  private static boolean sleep(final long nanos) {
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Reserves the rate limit of a request.
+   *
+   * @param limiter the rate limiter
+   * @param objectCount amount of objects purged by the request
+   * @return the nanoseconds to wait before sending the request, or -1 if the wait exceeds the configured max wait
+   */
+  private static long reserve(final PurgeRateLimiter limiter, final int objectCount) {
+    long wait = limiter.reserve(objectCount);
+    if (wait < 0) {
+      LOGGER.error("Request of {} objects refused: the rate limit wait exceeds the configured max wait", objectCount);
+    } else if (wait > 0) {
+      LOGGER.debug("Request of {} objects delayed by the rate limit: {} ms", objectCount, wait / 1_000_000);
+    }
+    return wait;
+  }
+
+  private static String getHeader(final HttpResponse response, final String name) {
+    Header header = response.getFirstHeader(name);
+    return header != null ? header.getValue() : null;
+  }
+
+  /**
+   * Parses a Retry-After header value, either an amount of seconds or an HTTP date.
+   *
+   * @param value the header value, can be null
+   * @param nowMillis the current time in milliseconds since the epoch
+   * @return the nanoseconds to wait, -1 if the value is missing or invalid
+   */
+  static long getRetryAfterNanos(final String value, final long nowMillis) {
+    if (StringUtils.isBlank(value)) {
+      return -1;
+    }
+    try {
+      return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value.trim())));
+    } catch (NumberFormatException e) {
+      try {
+        long retryAt =
+            ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, retryAt - nowMillis));
+      } catch (DateTimeParseException e2) {
+        LOGGER.warn("Invalid {} header: {}", HttpHeaders.RETRY_AFTER, value);
+        return -1;
+      }
     }
-    return result;
   }
 
   /**
@@ -211,37 +615,43 @@ public class AkamaiInvalidationServiceImpl implements CdnInvalidationService {
     return internalRequest(ServiceName.URL, urls);
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<PurgeResult> purgeByTagAsync(final Set<String> tags) {
+    return internalRequest(ServiceName.TAG, tags, false);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<PurgeResult> purgeByCodeAsync(final Set<String> codes) {
+    return internalRequest(ServiceName.CPCODE, codes, false);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<PurgeResult> purgeByURLsAsync(final Set<String> urls) {
+    return internalRequest(ServiceName.URL, urls, false);
+  }
+
   /**
    * Generates an authentication header for a POST request to Akamai CDN using the EdgeGridV1Signer library.
    *
    * @param akamaiUrl the URL of the Akamai CDN endpoint
-   * @param objects a set of objects to be invalidated
+   * @param body the exact request body to be sent
    * @return a string containing the authentication header value
    * @throws RequestSigningException if the request signing fails
    */
-  private String getAuthenticationHeader(final String akamaiUrl, final Set<String> objects)
-      throws RequestSigningException {
-    final String valueAsString = getJsonString(objects);
+  private String getAuthenticationHeader(final String akamaiUrl, final byte[] body) throws RequestSigningException {
     Request request2 =
         Request.builder()
             .method("POST")
             .header(HttpHeaders.CONNECTION, ContentType.APPLICATION_JSON.getMimeType())
             .uri(akamaiUrl)
-            .body(("{\"objects\":" + valueAsString + "}").getBytes(Charset.defaultCharset()))
+            .body(body)
             .build();
     return new EdgeGridV1Signer().getSignature(request2, this.credential);
   }
 
-  /**
-   * Converts a set of objects into a JSON string using the Gson library.
-   *
-   * @param objects a set of objects to be serialized
-   * @return a JSON string representation of the objects
-   */
-  private String getJsonString(final Set<String> objects) {
-    return gson.toJson(objects);
-  }
-
   /**
    * creates ClientCredential object with Akamai configs which is required for POST and returns it.
    *
@@ -324,5 +734,78 @@ public class AkamaiInvalidationServiceImpl implements CdnInvalidationService {
         name = "HTTP Client Configuration ID",
         description = "Configuration ID to use for HTTP connections")
     String httpClientConfigurationID();
+
+    @AttributeDefinition(
+        name = "Max Request Size",
+        type = AttributeType.INTEGER,
+        description =
+            "Max size in bytes of the body of a purge request: larger purges are split into several requests. "
+                + "Akamai Fast Purge rejects bodies larger than 50000 bytes. 0 means no limit.")
+    int max_request_bytes() default 50000;
+
+    @AttributeDefinition(
+        name = "Max Objects per Request",
+        type = AttributeType.INTEGER,
+        description = "Max amount of objects in a purge request. 0 means no limit.")
+    int max_request_objects() default 0;
+
+    @AttributeDefinition(
+        name = "Request Parallelism",
+        type = AttributeType.INTEGER,
+        description =
+            "Max amount of purge requests sent concurrently, shared by all the purges of this configuration. It should "
+                + "not exceed the max connections per route of the HTTP client. 1 sends them sequentially. "
+                + "Asynchronous purges are sent on these threads; rate limit and retry waits do not hold them.")
+    int request_parallelism() default 4;
+
+    @AttributeDefinition(
+        name = "Rate Limit - Requests per Second",
+        type = AttributeType.DOUBLE,
+        description =
+            "Sustained rate of purge requests, shared by all the jobs using this configuration. 0 means no limit.")
+    double rate_limit_requests() default 20;
+
+    @AttributeDefinition(
+        name = "Rate Limit - Objects per Second",
+        type = AttributeType.DOUBLE,
+        description =
+            "Sustained rate of purged objects (URLs, tags or CP codes), according to the CCU limits of the Akamai "
+                + "contract. 0 means no limit.")
+    double rate_limit_objects() default 200;
+
+    @AttributeDefinition(
+        name = "Rate Limit - Objects Burst",
+        type = AttributeType.INTEGER,
+        description = "Max amount of objects purged at once after an idle period")
+    int rate_limit_objects_burst() default 10000;
+
+    @AttributeDefinition(
+        name = "Rate Limit - Max Wait",
+        type = AttributeType.LONG,
+        description =
+            "Max time in milliseconds a request waits for the rate limit before failing, so that the job is retried")
+    long rate_limit_max_wait() default 30000;
+
+    @AttributeDefinition(
+        name = "Retry - Max Retries",
+        type = AttributeType.INTEGER,
+        description =
+            "Times a request failing transiently is sent again: IO errors and 5xx answers after the backoff, 429 Too "
+                + "Many Requests answers after the time requested by the Retry-After header")
+    int retry_max_retries() default 3;
+
+    @AttributeDefinition(
+        name = "Retry - Initial Backoff",
+        type = AttributeType.LONG,
+        description =
+            "Wait in milliseconds before the first retry, doubled at every retry. Every wait is randomized between "
+                + "half and all of it.")
+    long retry_initial_backoff() default 500;
+
+    @AttributeDefinition(
+        name = "Retry - Max Backoff",
+        type = AttributeType.LONG,
+        description = "Max wait in milliseconds before a retry")
+    long retry_max_backoff() default 10000;
   }
 }
@@ -0,0 +1,205 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.service.ExecutionStrategyService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.lang.StringUtils;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.AttributeType;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
+
+/**
+ * Execution strategy backed by a configurable mode. In {@link Mode#DEDICATED} mode parallel streams run on a bounded
+ * {@link ForkJoinPool} owned by this service, so that invalidation work does not compete with the rest of AEM for the
+ * JVM-wide common pool.
+ */
+@Designate(ocd = ExecutionStrategyServiceImpl.Config.class)
+@Component(service = ExecutionStrategyService.class, immediate = true)
+public class ExecutionStrategyServiceImpl implements ExecutionStrategyService {
+  private static final LoggingHelper LOGGER = new LoggingHelper(ExecutionStrategyServiceImpl.class);
+
+  private volatile Settings settings = new Settings(Mode.SEQUENTIAL, Integer.MAX_VALUE, null);
+
+  /**
+   * Activate method to initialize configuration.
+   *
+   * @param config The OSGi configuration
+   */
+  @Activate
+  @Modified
+  protected void activate(final Config config) {
+    Mode mode;
+    try {
+      mode = Mode.valueOf(StringUtils.trimToEmpty(config.mode()).toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      LOGGER.warn("Unknown execution mode {}, falling back to {}", config.mode(), Mode.SEQUENTIAL);
+      mode = Mode.SEQUENTIAL;
+    }
+    configure(mode, config.pool_size(), config.parallelism_threshold());
+  }
+
+  /** Deactivate method before service is stopped: the dedicated pool, if any, is shut down. */
+  @Deactivate
+  protected void deactivate() {
+    configure(Mode.SEQUENTIAL, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Applies a configuration, replacing the dedicated pool if needed.
+   *
+   * @param mode the execution mode
+   * @param poolSize parallelism of the dedicated pool, 0 or less to use half of the available processors
+   * @param threshold minimum amount of items to process in parallel
+   */
+  void configure(final Mode mode, final int poolSize, final int threshold) {
+    ForkJoinPool pool = null;
+    if (mode == Mode.DEDICATED) {
+      int parallelism = poolSize > 0 ? poolSize : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+      pool = new ForkJoinPool(parallelism, ExecutionStrategyServiceImpl::newWorkerThread, null, false);
+    }
+    Settings previous = settings;
+    settings = new Settings(mode, Math.max(0, threshold), pool);
+    if (previous.pool != null) {
+      previous.pool.shutdown();
+    }
+    LOGGER.info(
+        "Execution strategy - mode: {}, pool size: {}, parallelism threshold: {}",
+        mode,
+        pool != null ? pool.getParallelism() : 0,
+        threshold);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <T, R> R execute(final Collection<T> items, final Function<Stream<T>, R> pipeline) {
+    final Settings current = settings;
+    return run(current, items, isParallel(current, items), pipeline);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <T, R> List<R> executePartitioned(final Collection<T> items, final Function<List<T>, R> worker) {
+    final Settings current = settings;
+    final boolean parallel = isParallel(current, items);
+    final List<List<T>> chunks = partition(items, parallel ? current.getParallelism() : 1);
+    return run(current, chunks, parallel, stream -> stream.map(worker).collect(Collectors.toList()));
+  }
+
+  /**
+   * Splits the items into contiguous chunks of nearly equal size.
+   *
+   * @param items the items to split
+   * @param count the desired amount of chunks
+   * @param <T> type of the items
+   * @return at most {@code count} non empty chunks, empty if there are no items
+   */
+  static <T> List<List<T>> partition(final Collection<T> items, final int count) {
+    final List<T> list = new ArrayList<>(items);
+    final int chunks = Math.max(1, Math.min(count, list.size()));
+    final List<List<T>> result = new ArrayList<>(chunks);
+    for (int i = 0; i < chunks && !list.isEmpty(); i++) {
+      result.add(list.subList(i * list.size() / chunks, (i + 1) * list.size() / chunks));
+    }
+    return result;
+  }
+
+  private static boolean isParallel(final Settings current, final Collection<?> items) {
+    return current.mode != Mode.SEQUENTIAL && items.size() >= current.threshold;
+  }
+
+  private <T, R> R run(
+      final Settings current,
+      final Collection<T> items,
+      final boolean parallel,
+      final Function<Stream<T>, R> pipeline) {
+    if (!parallel) {
+      return pipeline.apply(items.stream());
+    }
+    if (current.mode == Mode.COMMON) {
+      return pipeline.apply(items.parallelStream());
+    }
+    try {
+      return current.pool.submit(() -> pipeline.apply(items.parallelStream())).get();
+    } catch (RejectedExecutionException e) {
+      // the pool has been replaced or shut down meanwhile
+      LOGGER.debug("Dedicated pool not available, processing {} items sequentially", items.size());
+      return pipeline.apply(items.stream());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for parallel execution", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("Parallel execution failed", e.getCause());
+    }
+  }
+
+  private static ForkJoinWorkerThread newWorkerThread(final ForkJoinPool pool) {
+    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+    thread.setName("autocdninvalidator-execution-" + thread.getPoolIndex());
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /** Immutable snapshot of the configuration, swapped atomically on modification. */
+  private static final class Settings {
+    private final Mode mode;
+    private final int threshold;
+    private final ForkJoinPool pool;
+
+    private Settings(final Mode mode, final int threshold, final ForkJoinPool pool) {
+      this.mode = mode;
+      this.threshold = threshold;
+      this.pool = pool;
+    }
+
+    private int getParallelism() {
+      return pool != null ? pool.getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+    }
+  }
+
+  @ObjectClassDefinition(
+      name = "Auto CDN Invalidator - Execution Strategy",
+      description = "Defines how paths, URLs and rules are processed in parallel")
+  public @interface Config {
+
+    @AttributeDefinition(
+        name = "Mode",
+        description = "Sequential, parallel on a dedicated pool or parallel on the JVM-wide common pool",
+        options = {
+          @Option(label = "Sequential", value = "SEQUENTIAL"),
+          @Option(label = "Dedicated pool", value = "DEDICATED"),
+          @Option(label = "Common pool", value = "COMMON")
+        })
+    String mode() default "DEDICATED";
+
+    @AttributeDefinition(
+        name = "Pool Size",
+        type = AttributeType.INTEGER,
+        description = "Parallelism of the dedicated pool. 0 means half of the available processors")
+    int pool_size() default 0;
+
+    @AttributeDefinition(
+        name = "Parallelism Threshold",
+        type = AttributeType.INTEGER,
+        description = "Collections with fewer items than this are always processed sequentially")
+    int parallelism_threshold() default 1000;
+  }
+}
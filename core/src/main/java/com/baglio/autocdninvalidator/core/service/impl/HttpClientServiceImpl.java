@@ -98,7 +98,7 @@ public class HttpClientServiceImpl implements HttpClientService {
     result.add(config.connectionTimeout());
     result.add(config.socketTimeout());
 
-    return result.parallelStream().noneMatch(item -> item <= 0);
+    return result.stream().noneMatch(item -> item <= 0);
   }
 
   /** {@inheritDoc} */
@@ -0,0 +1,207 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.helpers.MetricsHelper;
+import com.baglio.autocdninvalidator.core.service.InvalidationDeduplicationService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import org.apache.sling.commons.metrics.Meter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.AttributeType;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * In-memory deduplication registry. Every (topic, path) pair is tracked with the job created for it, and a path is
+ * dropped only while that job is still queued, as told by the {@link JobManager}. Pairs are forgotten after a max age
+ * even if their job is still queued, and their amount is capped: when the cap is reached expired pairs are evicted, and
+ * if it is still reached new pairs are not tracked. A duplicate purge is preferred to a missed one.
+ */
+@Designate(ocd = InvalidationDeduplicationServiceImpl.Config.class)
+@Component(service = InvalidationDeduplicationService.class, immediate = true)
+public class InvalidationDeduplicationServiceImpl implements InvalidationDeduplicationService {
+  private static final LoggingHelper LOGGER = new LoggingHelper(InvalidationDeduplicationServiceImpl.class);
+  private static final char KEY_SEPARATOR = '\n';
+
+  @Reference private JobManager jobManager;
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private MetricsService metricsService;
+
+  private final ConcurrentMap<String, Entry> queued = new ConcurrentHashMap<>();
+
+  private volatile boolean isEnabled;
+  private volatile long maxAgeNanos;
+  private volatile int maxEntries;
+  private volatile LongSupplier nanoClock = System::nanoTime;
+  private volatile Predicate<String> queuedJob = jobId -> false;
+  private Meter droppedMeter;
+
+  /**
+   * Activate method to initialize configuration.
+   *
+   * @param config The OSGi configuration
+   */
+  @Activate
+  @Modified
+  protected void activate(final Config config) {
+    droppedMeter = new MetricsHelper(metricsService, "deduplication").meter("dropped");
+    configure(config.isEnabled(), config.max_age(), config.max_entries(), System::nanoTime, this::isQueued);
+  }
+
+  /**
+   * Applies a configuration and forgets every tracked pair.
+   *
+   * @param enabled true to drop duplicates
+   * @param maxAgeMillis time in milliseconds after which a pair is forgotten
+   * @param maxEntries max amount of tracked pairs
+   * @param clock source of monotonic time in nanoseconds
+   * @param isQueued tells whether the job with the given identifier is still queued
+   */
+  void configure(
+      final boolean enabled,
+      final long maxAgeMillis,
+      final int maxEntries,
+      final LongSupplier clock,
+      final Predicate<String> isQueued) {
+    this.isEnabled = enabled;
+    this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxAgeMillis));
+    this.maxEntries = Math.max(0, maxEntries);
+    this.nanoClock = clock;
+    this.queuedJob = isQueued;
+    queued.clear();
+    LOGGER.info("Deduplication - enabled: {}, max age: {} ms, max entries: {}", enabled, maxAgeMillis, maxEntries);
+  }
+
+  /**
+   * Tells whether a job is still waiting in its queue.
+   *
+   * @param jobId the identifier of the job
+   * @return true if the job is queued, false if it started, ended or is unknown
+   */
+  private boolean isQueued(final String jobId) {
+    final Job job = jobManager.getJobById(jobId);
+    return job != null && job.getJobState() == Job.JobState.QUEUED;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Set<String> dropQueued(final String jobTopic, final Set<String> paths) {
+    if (!isEnabled || paths.isEmpty() || queued.isEmpty()) {
+      return paths;
+    }
+    final long now = nanoClock.getAsLong();
+    // the state of a job is read once, as its paths usually change together
+    final Map<String, Boolean> jobStates = new HashMap<>();
+    Set<String> result = new HashSet<>();
+    for (String path : paths) {
+      final String key = jobTopic + KEY_SEPARATOR + path;
+      final Entry entry = queued.get(key);
+      if (entry == null) {
+        result.add(path);
+      } else if (entry.expiry - now > 0 && jobStates.computeIfAbsent(entry.jobId, queuedJob::test)) {
+        LOGGER.trace("Path {} already queued in job: {}", path, entry.jobId);
+      } else {
+        queued.remove(key, entry);
+        result.add(path);
+      }
+    }
+
+    int dropped = paths.size() - result.size();
+    if (dropped > 0) {
+      if (droppedMeter != null) {
+        droppedMeter.mark(dropped);
+      }
+      LOGGER.debug("Dropped {} paths already queued for topic: {}", dropped, jobTopic);
+    }
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void register(final String jobTopic, final Set<String> paths, final String jobId) {
+    if (!isEnabled || maxAgeNanos == 0 || paths.isEmpty() || jobId == null) {
+      return;
+    }
+    final long now = nanoClock.getAsLong();
+    if (queued.size() + paths.size() > maxEntries) {
+      evictExpired(now);
+    }
+    final Entry entry = new Entry(jobId, now + maxAgeNanos);
+    for (String path : paths) {
+      if (queued.size() >= maxEntries) {
+        LOGGER.debug("Registry full: {} paths of job {} are not tracked", paths.size(), jobId);
+        return;
+      }
+      queued.put(jobTopic + KEY_SEPARATOR + path, entry);
+    }
+  }
+
+  /**
+   * Removes the pairs older than the max age.
+   *
+   * @param now the current time in nanoseconds
+   */
+  private void evictExpired(final long now) {
+    queued.values().removeIf(entry -> entry.expiry - now <= 0);
+  }
+
+  /**
+   * Returns the amount of tracked pairs.
+   *
+   * @return the amount of tracked pairs, including expired ones not yet evicted
+   */
+  int size() {
+    return queued.size();
+  }
+
+  /** Job a pair was enqueued with, and the time it is forgotten at. */
+  private static final class Entry {
+    private final String jobId;
+    private final long expiry;
+
+    private Entry(final String jobId, final long expiry) {
+      this.jobId = jobId;
+      this.expiry = expiry;
+    }
+  }
+
+  @ObjectClassDefinition(
+      name = "Auto CDN Invalidator - Deduplication",
+      description = "Drops paths still queued for the same job topic by another listener configuration")
+  public @interface Config {
+
+    @AttributeDefinition(name = "Enable", type = AttributeType.BOOLEAN, description = "Tick to enable it")
+    boolean isEnabled() default false;
+
+    @AttributeDefinition(
+        name = "Max Age",
+        type = AttributeType.LONG,
+        description =
+            "Time in milliseconds after which a path is forgotten, even if its job is still queued. Zero disables "
+                + "tracking")
+    long max_age() default 600000;
+
+    @AttributeDefinition(
+        name = "Max Entries",
+        type = AttributeType.INTEGER,
+        description = "Max amount of tracked paths. When full, new paths are not deduplicated")
+    int max_entries() default 100000;
+  }
+}
@@ -0,0 +1,171 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.helpers.MetricsHelper;
+import com.baglio.autocdninvalidator.core.service.InvalidationBatch;
+import com.baglio.autocdninvalidator.core.service.InvalidationPipelineService;
+import com.baglio.autocdninvalidator.core.service.InvalidationStage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.lang.StringUtils;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.metrics.Timer;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+
+/**
+ * Whiteboard of the {@link InvalidationStage stages}: stages are tracked dynamically and kept in a list sorted by
+ * service ranking, replaced on every registration change, so that jobs read it without locking.
+ *
+ * <p>Every stage is timed by the {@code autocdninvalidator.pipeline.stage.<name>} timer, and the amount of items it
+ * receives is recorded by the {@code autocdninvalidator.pipeline.stage.<name>.items} histogram.
+ */
+@Component(service = InvalidationPipelineService.class, immediate = true)
+public class InvalidationPipelineServiceImpl implements InvalidationPipelineService {
+  private static final LoggingHelper LOGGER = new LoggingHelper(InvalidationPipelineServiceImpl.class);
+
+  /** Highest ranking first, then oldest service first, as for OSGi service lookups. */
+  private static final Comparator<RegisteredStage> STAGE_ORDER =
+      Comparator.comparingInt((RegisteredStage stage) -> stage.ranking)
+          .reversed()
+          .thenComparingLong(stage -> stage.serviceId);
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private MetricsService metricsService;
+
+  private volatile List<RegisteredStage> stages = Collections.emptyList();
+
+  /**
+   * Registers a stage.
+   *
+   * @param stage the stage
+   * @param properties the service properties of the stage
+   */
+  @Reference(
+      service = InvalidationStage.class,
+      cardinality = ReferenceCardinality.MULTIPLE,
+      policy = ReferencePolicy.DYNAMIC,
+      policyOption = ReferencePolicyOption.GREEDY)
+  protected synchronized void bindStage(final InvalidationStage stage, final Map<String, Object> properties) {
+    String phase = getFirst(properties.get(InvalidationStage.PROPERTY_PHASE));
+    if (!InvalidationStage.PHASE_PATHS.equals(phase)
+        && !InvalidationStage.PHASE_VALUES.equals(phase)
+        && !InvalidationStage.PHASE_URLS.equals(phase)) {
+      LOGGER.error("Invalidation stage without a valid {}, stage ignored: {}", InvalidationStage.PROPERTY_PHASE, stage);
+      return;
+    }
+    Object ranking = properties.get(Constants.SERVICE_RANKING);
+    Object serviceId = properties.get(Constants.SERVICE_ID);
+    RegisteredStage registered =
+        new RegisteredStage(
+            stage,
+            StringUtils.defaultIfBlank(
+                getFirst(properties.get(InvalidationStage.PROPERTY_NAME)), stage.getClass().getSimpleName()),
+            phase,
+            toStrings(properties.get(InvalidationStage.PROPERTY_JOB_TOPICS)),
+            ranking instanceof Integer ? (Integer) ranking : 0,
+            serviceId instanceof Long ? (Long) serviceId : Long.MAX_VALUE);
+    List<RegisteredStage> updated = new ArrayList<>(stages);
+    updated.add(registered);
+    updated.sort(STAGE_ORDER);
+    stages = Collections.unmodifiableList(updated);
+    LOGGER.info("Invalidation stage registered - name: {}, phase: {}", registered.name, phase);
+  }
+
+  /**
+   * Unregisters a stage.
+   *
+   * @param stage the stage
+   */
+  protected synchronized void unbindStage(final InvalidationStage stage) {
+    List<RegisteredStage> updated = new ArrayList<>(stages);
+    if (updated.removeIf(registered -> registered.stage == stage)) {
+      stages = Collections.unmodifiableList(updated);
+      LOGGER.info("Invalidation stage unregistered: {}", stage);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Set<String> process(final String phase, final String jobTopic, final Set<String> items) {
+    InvalidationBatch batch = null;
+    MetricsHelper metrics = null;
+    for (RegisteredStage registered : stages) {
+      if (!registered.appliesTo(phase, jobTopic)) {
+        continue;
+      }
+      if (batch == null) {
+        batch = new InvalidationBatch(phase, jobTopic, new HashSet<>(items));
+        metrics = new MetricsHelper(metricsService, "pipeline");
+      }
+      int received = batch.size();
+      metrics.histogram("stage." + registered.name + ".items").update(received);
+      long start = System.nanoTime();
+      try (Timer.Context ignored = metrics.timer("stage." + registered.name).time()) {
+        registered.stage.process(batch);
+      }
+      LOGGER.debug(
+          "Invalidation stage {} - phase: {}, items: {} -> {}, time: {} ms",
+          registered.name,
+          phase,
+          received,
+          batch.size(),
+          (System.nanoTime() - start) / 1_000_000);
+    }
+    return batch != null ? batch.getItems() : items;
+  }
+
+  private static String getFirst(final Object value) {
+    List<String> values = toStrings(value);
+    return values.isEmpty() ? null : values.get(0);
+  }
+
+  private static List<String> toStrings(final Object value) {
+    if (value instanceof String) {
+      return Collections.singletonList((String) value);
+    }
+    if (value instanceof String[]) {
+      return Arrays.asList((String[]) value);
+    }
+    return Collections.emptyList();
+  }
+
+  /** Stage with its service properties. */
+  private static final class RegisteredStage {
+    private final InvalidationStage stage;
+    private final String name;
+    private final String phase;
+    private final List<String> jobTopics;
+    private final int ranking;
+    private final long serviceId;
+
+    private RegisteredStage(
+        final InvalidationStage stage,
+        final String name,
+        final String phase,
+        final List<String> jobTopics,
+        final int ranking,
+        final long serviceId) {
+      this.stage = stage;
+      this.name = name;
+      this.phase = phase;
+      this.jobTopics = jobTopics;
+      this.ranking = ranking;
+      this.serviceId = serviceId;
+    }
+
+    private boolean appliesTo(final String currentPhase, final String jobTopic) {
+      return phase.equals(currentPhase) && (jobTopics.isEmpty() || jobTopics.contains(jobTopic));
+    }
+  }
+}
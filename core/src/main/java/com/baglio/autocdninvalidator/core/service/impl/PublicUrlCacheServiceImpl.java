@@ -0,0 +1,142 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.helpers.MetricsHelper;
+import com.baglio.autocdninvalidator.core.service.PublicUrlCacheService;
+import com.baglio.autocdninvalidator.core.utils.BoundedCache;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.AttributeType;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * In-memory public URL cache, bounded in size and time. The time to live is a safety net for mapping changes which are
+ * not observed, e.g. changes of the resource resolver factory configuration, so it is kept short.
+ */
+@Designate(ocd = PublicUrlCacheServiceImpl.Config.class)
+@Component(service = PublicUrlCacheService.class, immediate = true)
+public class PublicUrlCacheServiceImpl implements PublicUrlCacheService {
+  private static final LoggingHelper LOGGER = new LoggingHelper(PublicUrlCacheServiceImpl.class);
+  private static final char KEY_SEPARATOR = '\n';
+
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private MetricsService metricsService;
+
+  private volatile BoundedCache<String, List<String>> cache;
+
+  /**
+   * Activate method to initialize configuration.
+   *
+   * @param config The OSGi configuration
+   */
+  @Activate
+  @Modified
+  protected void activate(final Config config) {
+    MetricsHelper metrics = new MetricsHelper(metricsService, "publicurl");
+    cache =
+        config.isEnabled() && config.max_size() > 0
+            ? new BoundedCache<>(
+                config.max_size(),
+                config.ttl(),
+                System::nanoTime,
+                metrics.counter("cache.hit"),
+                metrics.counter("cache.miss"))
+            : null;
+    LOGGER.info(
+        "Public URL cache - enabled: {}, max size: {}, ttl: {} ms", cache != null, config.max_size(), config.ttl());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<String> getPublicUrls(
+      final String key, final String path, final Function<String, List<String>> externalizer) {
+    final BoundedCache<String, List<String>> current = cache;
+    if (current == null) {
+      return externalizer.apply(path);
+    }
+    return current.get(
+        key + KEY_SEPARATOR + path,
+        cacheKey -> Collections.unmodifiableList(new ArrayList<>(externalizer.apply(path))));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void invalidate() {
+    final BoundedCache<String, List<String>> current = cache;
+    if (current != null) {
+      current.clear();
+      LOGGER.debug("Public URL cache cleared");
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void invalidate(final Collection<String> paths) {
+    final BoundedCache<String, List<String>> current = cache;
+    if (current == null || paths == null || paths.isEmpty()) {
+      return;
+    }
+    final Set<String> roots = new HashSet<>(paths);
+    int removed =
+        current.removeIf(cacheKey -> isAtOrBelow(cacheKey.substring(cacheKey.indexOf(KEY_SEPARATOR) + 1), roots));
+    LOGGER.debug("Public URL cache - removed {} entries at {}", removed, roots);
+  }
+
+  /**
+   * Checks whether the path or one of its ancestors is one of the roots, walking up the path once.
+   *
+   * @param path the cached content path
+   * @param roots the content paths to match
+   * @return true if the path is at or below a root
+   */
+  private static boolean isAtOrBelow(final String path, final Set<String> roots) {
+    String current = path;
+    while (!current.isEmpty()) {
+      if (roots.contains(current)) {
+        return true;
+      }
+      current = current.substring(0, Math.max(0, current.lastIndexOf('/')));
+    }
+    return false;
+  }
+
+  @ObjectClassDefinition(
+      name = "Auto CDN Invalidator - Public URL Cache",
+      description = "Caches the externalized URL of content paths, cleared when mappings or vanity URLs change")
+  public @interface Config {
+
+    @AttributeDefinition(
+        name = "Enable",
+        type = AttributeType.BOOLEAN,
+        description =
+            "Tick to enable it. Every content change batch then scans the cache to evict the changed pages, so size "
+                + "it accordingly")
+    boolean isEnabled() default false;
+
+    @AttributeDefinition(
+        name = "Max Size",
+        type = AttributeType.INTEGER,
+        description = "Max amount of cached content paths, each with all its URL variants")
+    int max_size() default 10000;
+
+    @AttributeDefinition(
+        name = "TTL",
+        type = AttributeType.LONG,
+        description = "Time to live of a cached URL in milliseconds. Zero or negative keeps it until evicted")
+    long ttl() default 600000;
+  }
+}
@@ -0,0 +1,171 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Rate limiter of the purge requests of one CDN configuration, shared by all the jobs. Two token buckets meter the
+ * requests and the purged objects per second; the CDN can further pause all requests, e.g. when it answers 429 Too Many
+ * Requests with a Retry-After header, or reduce the objects available when it reports its remaining quota.
+ *
+ * <p>Tokens are reserved in advance: a caller takes its tokens immediately, possibly leaving the bucket in debt, and
+ * waits the returned time before sending. Following callers wait for the debt to be repaid too, so requests are spread
+ * at the sustained rate instead of being sent in bursts. A request larger than the bucket is allowed once the bucket is
+ * full.
+ *
+ * <p>The limiter outlives configuration changes: {@link #configure(double, double, long, long)} applies the new rates
+ * keeping the tokens left and any pause requested by the CDN.
+ */
+final class PurgeRateLimiter {
+  private final Bucket requests;
+  private final Bucket objects;
+  private long maxWaitNanos;
+  private final LongSupplier nanoClock;
+  private long pausedUntil;
+
+  /**
+   * Creates a rate limiter.
+   *
+   * @param requestsPerSecond sustained rate of requests, 0 or less for no limit
+   * @param objectsPerSecond sustained rate of purged objects, 0 or less for no limit
+   * @param objectsBurst max amount of objects purged at once after an idle period
+   * @param maxWaitMillis max time a request may wait before being refused
+   * @param nanoClock monotonic clock in nanoseconds, e.g. {@code System::nanoTime}
+   */
+  PurgeRateLimiter(
+      final double requestsPerSecond,
+      final double objectsPerSecond,
+      final long objectsBurst,
+      final long maxWaitMillis,
+      final LongSupplier nanoClock) {
+    long now = nanoClock.getAsLong();
+    // one second of requests as burst, enough to start all the chunks of a purge at once
+    this.requests = new Bucket(requestsPerSecond, Math.max(1, requestsPerSecond), now);
+    this.objects = new Bucket(objectsPerSecond, Math.max(1, objectsBurst), now);
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+    this.nanoClock = nanoClock;
+    this.pausedUntil = now;
+  }
+
+  /**
+   * Applies new rates. The buckets keep their tokens, or debt, up to the new capacity, and a pause requested by the CDN
+   * is kept: a configuration change does not allow a burst nor ends the pause. A bucket which was unlimited starts
+   * full.
+   *
+   * @param requestsPerSecond sustained rate of requests, 0 or less for no limit
+   * @param objectsPerSecond sustained rate of purged objects, 0 or less for no limit
+   * @param objectsBurst max amount of objects purged at once after an idle period
+   * @param maxWaitMillis max time a request may wait before being refused
+   */
+  synchronized void configure(
+      final double requestsPerSecond,
+      final double objectsPerSecond,
+      final long objectsBurst,
+      final long maxWaitMillis) {
+    long now = nanoClock.getAsLong();
+    requests.configure(requestsPerSecond, Math.max(1, requestsPerSecond), now);
+    objects.configure(objectsPerSecond, Math.max(1, objectsBurst), now);
+    maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+  }
+
+  /**
+   * Reserves the tokens of a request.
+   *
+   * @param objectCount amount of objects purged by the request
+   * @return the nanoseconds to wait before sending the request, or -1 if it exceeds the max wait and nothing is
+   *     reserved
+   */
+  synchronized long reserve(final int objectCount) {
+    long now = nanoClock.getAsLong();
+    long wait = Math.max(Math.max(requests.getWait(now, 1), objects.getWait(now, objectCount)), pausedUntil - now);
+    if (wait > maxWaitNanos) {
+      return -1;
+    }
+    requests.take(1);
+    objects.take(objectCount);
+    return Math.max(0, wait);
+  }
+
+  /**
+   * Pauses all requests, e.g. after a 429 Too Many Requests answer. Buckets are drained, so that they refill during the
+   * pause instead of allowing a burst right after it.
+   *
+   * @param retryAfterNanos nanoseconds to wait before sending any request
+   */
+  synchronized void pause(final long retryAfterNanos) {
+    long now = nanoClock.getAsLong();
+    pausedUntil = Math.max(pausedUntil, now + retryAfterNanos);
+    requests.drain(now);
+    objects.drain(now);
+  }
+
+  /**
+   * Lowers the available objects to the quota reported by the CDN.
+   *
+   * @param remainingObjects amount of objects the CDN still accepts without throttling
+   */
+  synchronized void limitObjects(final long remainingObjects) {
+    objects.limit(nanoClock.getAsLong(), remainingObjects);
+  }
+
+  /** Token bucket, not thread-safe. */
+  private static final class Bucket {
+    private double tokensPerNano;
+    private double capacity;
+    private double tokens;
+    private long updated;
+
+    private Bucket(final double tokensPerSecond, final double capacity, final long now) {
+      this.tokensPerNano = getTokensPerNano(tokensPerSecond);
+      this.capacity = capacity;
+      this.tokens = capacity;
+      this.updated = now;
+    }
+
+    private static double getTokensPerNano(final double tokensPerSecond) {
+      return tokensPerSecond > 0 ? tokensPerSecond / TimeUnit.SECONDS.toNanos(1) : 0;
+    }
+
+    private void configure(final double tokensPerSecond, final double newCapacity, final long now) {
+      // tokens earned so far are counted at the previous rate
+      refill(now);
+      boolean wasUnlimited = tokensPerNano == 0;
+      tokensPerNano = getTokensPerNano(tokensPerSecond);
+      capacity = newCapacity;
+      // an unlimited bucket does not meter its tokens, so a newly limited one starts full
+      tokens = wasUnlimited ? capacity : Math.min(tokens, capacity);
+    }
+
+    private long getWait(final long now, final long amount) {
+      if (tokensPerNano == 0) {
+        return 0;
+      }
+      refill(now);
+      double missing = Math.min(amount, capacity) - tokens;
+      return missing > 0 ? (long) Math.ceil(missing / tokensPerNano) : 0;
+    }
+
+    private void take(final long amount) {
+      if (tokensPerNano > 0) {
+        tokens -= amount;
+      }
+    }
+
+    private void drain(final long now) {
+      refill(now);
+      tokens = Math.min(tokens, 0);
+    }
+
+    private void limit(final long now, final long remaining) {
+      refill(now);
+      tokens = Math.min(tokens, remaining);
+    }
+
+    private void refill(final long now) {
+      if (now > updated) {
+        tokens = Math.min(capacity, tokens + (now - updated) * tokensPerNano);
+        updated = now;
+      }
+    }
+  }
+}
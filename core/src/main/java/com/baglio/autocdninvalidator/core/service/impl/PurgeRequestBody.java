@@ -0,0 +1,208 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Serialized body of a purge request, {@code {"objects":[...]}} encoded as UTF-8. The same bytes are signed and sent.
+ *
+ * <p>Bodies are built in a single pass: every object is escaped and encoded straight into a buffer reused by the
+ * thread, without intermediate strings, and each body is copied out of it once complete.
+ */
+final class PurgeRequestBody {
+  private static final LoggingHelper LOGGER = new LoggingHelper(PurgeRequestBody.class);
+  private static final byte[] PREFIX = {'{', '"', 'o', 'b', 'j', 'e', 'c', 't', 's', '"', ':', '['};
+  private static final byte[] SUFFIX = {']', '}'};
+  private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+  /** Max bytes written for a character: a six characters unicode escape of a control character. */
+  private static final int MAX_CHAR_BYTES = 6;
+
+  private static final int INITIAL_BUFFER_SIZE = 8192;
+  /** Larger buffers, grown by purges without a size limit, are not kept by the thread. */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+  private static final ThreadLocal<Encoder> ENCODERS = ThreadLocal.withInitial(Encoder::new);
+
+  private final byte[] bytes;
+  private final List<String> objects;
+
+  PurgeRequestBody(final byte[] bytes, final List<String> objects) {
+    this.bytes = bytes;
+    this.objects = objects;
+  }
+
+  byte[] getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Gets the objects of the body, reported back when the request fails.
+   *
+   * @return the objects, in the order they are encoded
+   */
+  List<String> getObjects() {
+    return objects;
+  }
+
+  int getObjectCount() {
+    return objects.size();
+  }
+
+  /**
+   * Encodes the objects into request bodies of at most the given size and amount of objects. An object too large to
+   * fit any body is sent alone.
+   *
+   * @param objects the objects to invalidate
+   * @param maxBytes max size of a body in bytes, 0 or less for no limit
+   * @param maxObjects max amount of objects in a body, 0 or less for no limit
+   * @return the request bodies
+   */
+  static List<PurgeRequestBody> encode(final Collection<String> objects, final int maxBytes, final int maxObjects) {
+    Encoder encoder = ENCODERS.get();
+    try {
+      return encoder.encode(objects, maxBytes, maxObjects);
+    } finally {
+      encoder.release();
+    }
+  }
+
+  /** Growable byte buffer writing JSON strings as UTF-8, not thread-safe. */
+  private static final class Encoder {
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int size;
+
+    private List<PurgeRequestBody> encode(final Collection<String> objects, final int maxBytes, final int maxObjects) {
+      final List<PurgeRequestBody> bodies = new ArrayList<>();
+      write(PREFIX);
+      List<String> current = new ArrayList<>();
+      for (String object : objects) {
+        final int count = current.size();
+        final int start = size;
+        if (count > 0) {
+          ensureCapacity(1);
+          buffer[size++] = ',';
+        }
+        writeString(object);
+        if (count > 0
+            && ((maxBytes > 0 && size + SUFFIX.length > maxBytes) || (maxObjects > 0 && count >= maxObjects))) {
+          // the body is complete without this object, which moves to the start of the next one
+          bodies.add(toBody(start, current));
+          final int length = size - start - 1;
+          System.arraycopy(buffer, start + 1, buffer, PREFIX.length, length);
+          size = PREFIX.length + length;
+          current = new ArrayList<>();
+        }
+        if (current.isEmpty() && maxBytes > 0 && size + SUFFIX.length > maxBytes) {
+          LOGGER.warn("Object exceeding the max request size of {} bytes: {}", maxBytes, size - PREFIX.length);
+        }
+        current.add(object);
+      }
+      if (!current.isEmpty()) {
+        bodies.add(toBody(size, current));
+      }
+      return bodies;
+    }
+
+    private PurgeRequestBody toBody(final int end, final List<String> bodyObjects) {
+      final byte[] body = Arrays.copyOf(buffer, end + SUFFIX.length);
+      System.arraycopy(SUFFIX, 0, body, end, SUFFIX.length);
+      return new PurgeRequestBody(body, bodyObjects);
+    }
+
+    private void release() {
+      size = 0;
+      if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+        buffer = new byte[INITIAL_BUFFER_SIZE];
+      }
+    }
+
+    private void ensureCapacity(final int extra) {
+      if (size + extra > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+      }
+    }
+
+    private void write(final byte[] bytes) {
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, size, bytes.length);
+      size += bytes.length;
+    }
+
+    /** Writes a JSON string, escaping quotes, backslashes, control characters and line/paragraph separators. */
+    private void writeString(final String value) {
+      final int length = value.length();
+      ensureCapacity(length * MAX_CHAR_BYTES + 2);
+      final byte[] out = buffer;
+      int position = size;
+      out[position++] = '"';
+      for (int i = 0; i < length; i++) {
+        final char c = value.charAt(i);
+        if (c < 0x80) {
+          if (c >= 0x20 && c != '"' && c != '\\') {
+            out[position++] = (byte) c;
+          } else {
+            position = writeEscape(out, position, c);
+          }
+        } else if (c < 0x800) {
+          out[position++] = (byte) (0xc0 | c >> 6);
+          out[position++] = (byte) (0x80 | c & 0x3f);
+        } else if (Character.isSurrogate(c)) {
+          if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+            final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+            out[position++] = (byte) (0xf0 | codePoint >> 18);
+            out[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+            out[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+            out[position++] = (byte) (0x80 | codePoint & 0x3f);
+          } else {
+            // unpaired surrogate, replaced as String.getBytes does
+            out[position++] = '?';
+          }
+        } else if (c == '\u2028' || c == '\u2029') {
+          position = writeEscape(out, position, c);
+        } else {
+          out[position++] = (byte) (0xe0 | c >> 12);
+          out[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+          out[position++] = (byte) (0x80 | c & 0x3f);
+        }
+      }
+      out[position++] = '"';
+      size = position;
+    }
+
+    private static int writeEscape(final byte[] out, final int start, final char c) {
+      int position = start;
+      out[position++] = '\\';
+      switch (c) {
+        case '"':
+        case '\\':
+          out[position++] = (byte) c;
+          break;
+        case '\n':
+          out[position++] = 'n';
+          break;
+        case '\r':
+          out[position++] = 'r';
+          break;
+        case '\t':
+          out[position++] = 't';
+          break;
+        case '\b':
+          out[position++] = 'b';
+          break;
+        case '\f':
+          out[position++] = 'f';
+          break;
+        default:
+          out[position++] = 'u';
+          out[position++] = HEX[c >> 12 & 0xf];
+          out[position++] = HEX[c >> 8 & 0xf];
+          out[position++] = HEX[c >> 4 & 0xf];
+          out[position++] = HEX[c & 0xf];
+      }
+      return position;
+    }
+  }
+}
@@ -1,14 +1,26 @@
 package com.baglio.autocdninvalidator.core.service.impl;
 
 import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.helpers.MetricsHelper;
 import com.baglio.autocdninvalidator.core.service.ReadService;
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.AttributeType;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
+@Designate(ocd = ReadServiceImpl.Config.class)
 @Component(
     immediate = true,
     service = {ReadService.class})
@@ -16,6 +28,51 @@ public class ReadServiceImpl implements ReadService {
   private static final LoggingHelper LOGGER = new LoggingHelper(ReadServiceImpl.class);
   @Reference private ResourceResolverFactory resolverFactory;
 
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private MetricsService metricsService;
+
+  private volatile ResourceResolverPool pool;
+
+  /**
+   * Activate method to initialize configuration.
+   *
+   * @param config The OSGi configuration
+   */
+  @Activate
+  @Modified
+  protected void activate(final Config config) {
+    ResourceResolverPool previous = pool;
+    pool =
+        config.pool_enabled()
+            ? new ResourceResolverPool(
+                this::getResourceResolver,
+                config.pool_max_size(),
+                config.pool_max_wait(),
+                config.pool_max_age(),
+                System::nanoTime,
+                new MetricsHelper(metricsService, "readservice"))
+            : null;
+    if (previous != null) {
+      previous.close();
+    }
+    LOGGER.info(
+        "Resource resolver pool - enabled: {}, max size: {}, max wait: {} ms, max age: {} ms",
+        config.pool_enabled(),
+        config.pool_max_size(),
+        config.pool_max_wait(),
+        config.pool_max_age());
+  }
+
+  /** Deactivate method before service is stopped: idle pooled resolvers are closed. */
+  @Deactivate
+  protected void deactivate() {
+    ResourceResolverPool previous = pool;
+    pool = null;
+    if (previous != null) {
+      previous.close();
+    }
+  }
+
   /**
    * Gets a resource resolver using the autocdninvalidatorReadService subservice.
    *
@@ -36,4 +93,41 @@ public class ReadServiceImpl implements ReadService {
       return null;
     }
   }
+
+  /** {@inheritDoc} */
+  @Override
+  public ResourceResolver leaseResourceResolver() {
+    ResourceResolverPool current = pool;
+    return current != null ? current.lease() : getResourceResolver();
+  }
+
+  @ObjectClassDefinition(
+      name = "Auto CDN Invalidator - Read Service",
+      description = "Provides the service resource resolvers used to read content")
+  public @interface Config {
+
+    @AttributeDefinition(
+        name = "Enable Pool",
+        type = AttributeType.BOOLEAN,
+        description = "Tick to reuse service resource resolvers across jobs instead of logging in for every job")
+    boolean pool_enabled() default false;
+
+    @AttributeDefinition(
+        name = "Pool Max Size",
+        type = AttributeType.INTEGER,
+        description = "Max amount of pooled resource resolvers, leased or idle")
+    int pool_max_size() default 8;
+
+    @AttributeDefinition(
+        name = "Pool Max Wait",
+        type = AttributeType.LONG,
+        description = "Max time in milliseconds a job waits for a pooled resource resolver")
+    long pool_max_wait() default 5000;
+
+    @AttributeDefinition(
+        name = "Pool Max Age",
+        type = AttributeType.LONG,
+        description = "Pooled resource resolvers older than this, in milliseconds, are closed instead of reused")
+    long pool_max_age() default 300000;
+  }
 }
@@ -0,0 +1,177 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import com.baglio.autocdninvalidator.core.utils.PathSetCodec;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe, in-memory index of the references from pages to other resources (e.g. DAM assets, content fragments),
+ * kept in both directions: pages to references, to update the index incrementally, and references to pages, to look up
+ * the pages embedding a changed resource.
+ *
+ * <p>The compact form is the {@link PathSetCodec} encoding of the set of {@code page|reference} pairs: pairs are sorted
+ * by page, so the front coding stores every page path only once.
+ */
+final class ReferenceIndex {
+  /** Separator of the pairs in the compact form; it is not allowed in repository names. */
+  private static final char PAIR_SEPARATOR = '|';
+
+  private final NavigableMap<String, Set<String>> referencesByPage = new TreeMap<>();
+  private final Map<String, Set<String>> pagesByReference = new HashMap<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Replaces the references of a page.
+   *
+   * @param page the page path
+   * @param references the paths the page references, empty to remove the page
+   */
+  void put(final String page, final Set<String> references) {
+    lock.writeLock().lock();
+    try {
+      unlink(page, referencesByPage.remove(page));
+      if (!references.isEmpty()) {
+        referencesByPage.put(page, new HashSet<>(references));
+        for (String reference : references) {
+          pagesByReference.computeIfAbsent(reference, key -> new HashSet<>()).add(page);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes a page and every page below it.
+   *
+   * @param path the root path of the removed tree
+   */
+  void removeTree(final String path) {
+    lock.writeLock().lock();
+    try {
+      unlink(path, referencesByPage.remove(path));
+      // '0' is the character following '/', so the sub map holds exactly the descendants
+      NavigableMap<String, Set<String>> descendants = referencesByPage.subMap(path + "/", true, path + "0", false);
+      descendants.forEach(this::unlink);
+      descendants.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the pages referencing any of the paths, or any of their ancestors: a change to an asset rendition or
+   * metadata is a change to the asset.
+   *
+   * @param paths the changed paths
+   * @return the referencing pages, possibly empty
+   */
+  Set<String> getReferencingPages(final Collection<String> paths) {
+    Set<String> result = new HashSet<>();
+    lock.readLock().lock();
+    try {
+      if (pagesByReference.isEmpty()) {
+        return result;
+      }
+      for (String path : paths) {
+        String current = path;
+        while (current != null && !current.isEmpty()) {
+          Set<String> pages = pagesByReference.get(current);
+          if (pages != null) {
+            result.addAll(pages);
+          }
+          int index = current.lastIndexOf('/');
+          current = index > 0 ? current.substring(0, index) : null;
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the amount of indexed pages.
+   *
+   * @return the amount of pages with at least one reference
+   */
+  int size() {
+    lock.readLock().lock();
+    try {
+      return referencesByPage.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the indexed pages.
+   *
+   * @return a snapshot of the pages with at least one reference
+   */
+  Set<String> getPages() {
+    lock.readLock().lock();
+    try {
+      return new HashSet<>(referencesByPage.keySet());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Encodes the index in its compact form.
+   *
+   * @return the encoded index
+   */
+  byte[] encode() {
+    List<String> pairs = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      referencesByPage.forEach(
+          (page, references) -> references.forEach(reference -> pairs.add(page + PAIR_SEPARATOR + reference)));
+    } finally {
+      lock.readLock().unlock();
+    }
+    return PathSetCodec.encode(pairs);
+  }
+
+  /**
+   * Decodes an index encoded by {@link #encode()}.
+   *
+   * @param encoded the encoded index
+   * @return the index
+   * @throws IllegalArgumentException if the payload is not valid
+   */
+  static ReferenceIndex decode(final byte[] encoded) {
+    Map<String, Set<String>> references = new HashMap<>();
+    for (String pair : PathSetCodec.decode(encoded)) {
+      int index = pair.indexOf(PAIR_SEPARATOR);
+      if (index <= 0) {
+        throw new IllegalArgumentException("Corrupted reference index encoding");
+      }
+      references.computeIfAbsent(pair.substring(0, index), key -> new HashSet<>()).add(pair.substring(index + 1));
+    }
+    ReferenceIndex result = new ReferenceIndex();
+    references.forEach(result::put);
+    return result;
+  }
+
+  private void unlink(final String page, final Set<String> references) {
+    for (String reference : references != null ? references : Collections.<String>emptySet()) {
+      Set<String> pages = pagesByReference.get(reference);
+      if (pages != null && pages.remove(page) && pages.isEmpty()) {
+        pagesByReference.remove(reference);
+      }
+    }
+  }
+}
@@ -0,0 +1,400 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.service.ReadService;
+import com.baglio.autocdninvalidator.core.service.ReferenceIndexService;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.lang.StringUtils;
+import org.apache.jackrabbit.vault.util.JcrConstants;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.AttributeType;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Reference index kept in memory and persisted in the bundle data area, so that it survives restarts without crawling
+ * the content again. Pages are scanned on a single background thread: every string property of the page content whose
+ * value contains one of the reference prefixes (plain paths as well as links inside rich text) is a reference.
+ *
+ * <p>When no persisted index is found the root paths are crawled once in the background; meanwhile lookups return the
+ * pages indexed so far. A persisted index misses the changes made while the instance was stopped: unless disabled, the
+ * root paths are crawled in the background also after loading it, rescanning every page and dropping the pages that no
+ * longer exist, while lookups are served from the loaded index.
+ */
+@Designate(ocd = ReferenceIndexServiceImpl.Config.class)
+@Component(service = ReferenceIndexService.class, immediate = true)
+public class ReferenceIndexServiceImpl implements ReferenceIndexService {
+  private static final LoggingHelper LOGGER = new LoggingHelper(ReferenceIndexServiceImpl.class);
+  private static final String DATA_FILE = "reference-index.bin";
+  private static final String PAGE_TYPE = "cq:Page";
+  private static final String DAM_ROOT = "/content/dam";
+  private static final String MARKUP_CHARACTERS = "\"'<>\r\n";
+  private static final String REFERENCE_DELIMITERS = MARKUP_CHARACTERS + "?#,;()[]{} \t";
+  private static final String[] CONTENT_SEGMENTS = {"/" + JcrConstants.JCR_CONTENT, "/_jcr_content"};
+
+  @Reference private ReadService readService;
+
+  private final Set<String> pendingPages = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean dirty = new AtomicBoolean();
+
+  private volatile ReferenceIndex index = new ReferenceIndex();
+  private volatile boolean isEnabled;
+  private String[] referencePrefixes;
+  private File dataFile;
+  private volatile ScheduledExecutorService executor;
+
+  /**
+   * Activate method to initialize configuration.
+   *
+   * @param context The bundle context, providing the data area
+   * @param config The OSGi configuration
+   */
+  @Activate
+  protected void activate(final BundleContext context, final Config config) {
+    configure(context, config, config.reconcile_on_startup());
+  }
+
+  /**
+   * Modified method to apply a new configuration, reloading the index just persisted without reconciling it.
+   *
+   * @param context The bundle context, providing the data area
+   * @param config The OSGi configuration
+   */
+  @Modified
+  protected void modified(final BundleContext context, final Config config) {
+    configure(context, config, false);
+  }
+
+  private void configure(final BundleContext context, final Config config, final boolean reconcile) {
+    deactivate();
+    isEnabled = config.isEnabled();
+    referencePrefixes =
+        config.reference_prefixes() != null
+            ? Arrays.stream(config.reference_prefixes())
+                .filter(StringUtils::isNotBlank)
+                .map(String::trim)
+                .toArray(String[]::new)
+            : new String[0];
+    LOGGER.info(
+        "Reference index - enabled: {}, reference prefixes: {}, root paths: {}",
+        isEnabled,
+        referencePrefixes,
+        config.root_paths());
+    if (!isEnabled) {
+      index = new ReferenceIndex();
+      return;
+    }
+    dataFile = context.getDataFile(DATA_FILE);
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "autocdninvalidator-reference-index");
+              thread.setDaemon(true);
+              return thread;
+            });
+    if (!load() || reconcile) {
+      final String[] rootPaths = config.root_paths();
+      executor.execute(() -> crawl(rootPaths));
+    }
+    long interval = Math.max(1, config.persist_interval());
+    executor.scheduleWithFixedDelay(this::persist, interval, interval, TimeUnit.SECONDS);
+  }
+
+  /** Deactivate method before service is stopped: pending work is dropped and the index is persisted. */
+  @Deactivate
+  protected void deactivate() {
+    if (executor != null) {
+      executor.shutdownNow();
+      try {
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      executor = null;
+      persist();
+    }
+    pendingPages.clear();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Set<String> getReferencingPages(final Collection<String> paths) {
+    return isEnabled ? index.getReferencingPages(paths) : Collections.emptySet();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void reindex(final Collection<String> pagePaths) {
+    if (isEnabled && !pagePaths.isEmpty()) {
+      pendingPages.addAll(pagePaths);
+      submit(this::drainPending);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void remove(final Collection<String> paths) {
+    if (isEnabled && !paths.isEmpty()) {
+      final List<String> removed = new ArrayList<>(paths);
+      submit(
+          () -> {
+            removed.forEach(index::removeTree);
+            dirty.set(true);
+          });
+    }
+  }
+
+  /**
+   * Extracts the references contained in a property value.
+   *
+   * @param value the property value, a plain path or a markup fragment
+   * @param prefixes the prefixes of the referenced paths
+   * @param references collects the references found
+   */
+  static void extractReferences(final String value, final String[] prefixes, final Set<String> references) {
+    for (String prefix : prefixes) {
+      // a plain path may contain spaces, it is a reference as a whole
+      if (value.startsWith(prefix) && StringUtils.containsNone(value, MARKUP_CHARACTERS)) {
+        addReference(value.trim(), prefix, references);
+        continue;
+      }
+      int start = value.indexOf(prefix);
+      while (start >= 0) {
+        int end = start + prefix.length();
+        while (end < value.length() && REFERENCE_DELIMITERS.indexOf(value.charAt(end)) < 0) {
+          end++;
+        }
+        addReference(value.substring(start, end), prefix, references);
+        start = value.indexOf(prefix, end);
+      }
+    }
+  }
+
+  private static void addReference(final String candidate, final String prefix, final Set<String> references) {
+    String reference = StringUtils.removeEnd(toResourcePath(candidate), "/");
+    if (reference.length() > StringUtils.removeEnd(prefix, "/").length()) {
+      references.add(reference);
+    }
+  }
+
+  private static String toResourcePath(final String reference) {
+    String result = reference;
+    for (String segment : CONTENT_SEGMENTS) {
+      int index = result.indexOf(segment);
+      if (index > 0) {
+        result = result.substring(0, index);
+      }
+    }
+    return result;
+  }
+
+  private void submit(final Runnable task) {
+    ScheduledExecutorService current = executor;
+    try {
+      if (current != null) {
+        current.execute(task);
+      }
+    } catch (RejectedExecutionException e) {
+      LOGGER.debug("Reference index is being stopped, update skipped");
+    }
+  }
+
+  private void drainPending() {
+    if (pendingPages.isEmpty()) {
+      return;
+    }
+    try (ResourceResolver resolver = readService.leaseResourceResolver()) {
+      for (String page : new ArrayList<>(pendingPages)) {
+        pendingPages.remove(page);
+        index(resolver, page);
+      }
+    } catch (RuntimeException e) {
+      LOGGER.error("Unable to update the reference index", e);
+    }
+  }
+
+  private void index(final ResourceResolver resolver, final String page) {
+    Resource resource = resolver.getResource(page);
+    Set<String> references = new HashSet<>();
+    if (resource != null && resource.isResourceType(PAGE_TYPE)) {
+      Resource content = resource.getChild(JcrConstants.JCR_CONTENT);
+      if (content != null) {
+        collectReferences(content, references);
+      }
+    }
+    index.put(page, references);
+    dirty.set(true);
+  }
+
+  private void collectReferences(final Resource content, final Set<String> references) {
+    Deque<Resource> resources = new ArrayDeque<>();
+    resources.push(content);
+    while (!resources.isEmpty()) {
+      Resource resource = resources.pop();
+      for (Object value : resource.getValueMap().values()) {
+        if (value instanceof String) {
+          extractReferences((String) value, referencePrefixes, references);
+        } else if (value instanceof String[]) {
+          for (String item : (String[]) value) {
+            extractReferences(item, referencePrefixes, references);
+          }
+        }
+      }
+      resource.getChildren().forEach(resources::push);
+    }
+  }
+
+  private void crawl(final String[] rootPaths) {
+    if (rootPaths == null) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    Set<String> stalePages = index.getPages();
+    List<String> crawledRoots = new ArrayList<>();
+    try (ResourceResolver resolver = readService.leaseResourceResolver()) {
+      Deque<Resource> resources = new ArrayDeque<>();
+      for (String rootPath : rootPaths) {
+        if (StringUtils.isBlank(rootPath)) {
+          continue;
+        }
+        Resource root = resolver.getResource(rootPath.trim());
+        if (root != null) {
+          resources.push(root);
+        }
+        crawledRoots.add(rootPath.trim());
+      }
+      while (!resources.isEmpty() && !Thread.currentThread().isInterrupted()) {
+        Resource resource = resources.pop();
+        if (resource.isResourceType(PAGE_TYPE)) {
+          stalePages.remove(resource.getPath());
+          index(resolver, resource.getPath());
+        }
+        for (Resource child : resource.getChildren()) {
+          // assets are never pages, the DAM tree is not worth visiting
+          if (!JcrConstants.JCR_CONTENT.equals(child.getName()) && !DAM_ROOT.equals(child.getPath())) {
+            resources.push(child);
+          }
+        }
+      }
+      if (!Thread.currentThread().isInterrupted()) {
+        removeStalePages(stalePages, crawledRoots);
+      }
+    } catch (RuntimeException e) {
+      LOGGER.error("Unable to crawl content for the reference index", e);
+    }
+    LOGGER.info("Reference index built with {} pages in {} ms", index.size(), System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Removes the indexed pages below the crawled roots that the crawl did not find, i.e. removed or moved while the
+   * instance was stopped. It runs on the index thread, so no concurrent update can be lost.
+   *
+   * @param stalePages the pages indexed before the crawl and not found by it
+   * @param crawledRoots the root paths crawled
+   */
+  private void removeStalePages(final Set<String> stalePages, final List<String> crawledRoots) {
+    int removed = 0;
+    for (String page : stalePages) {
+      for (String root : crawledRoots) {
+        if (page.equals(root) || page.startsWith(StringUtils.removeEnd(root, "/") + "/")) {
+          index.put(page, Collections.emptySet());
+          removed++;
+          break;
+        }
+      }
+    }
+    if (removed > 0) {
+      dirty.set(true);
+      LOGGER.info("Reference index reconciled, {} stale pages removed", removed);
+    }
+  }
+
+  private boolean load() {
+    if (dataFile == null || !dataFile.isFile()) {
+      return false;
+    }
+    try {
+      index = ReferenceIndex.decode(Files.readAllBytes(dataFile.toPath()));
+      LOGGER.info("Reference index loaded with {} pages", index.size());
+      return true;
+    } catch (IOException | IllegalArgumentException e) {
+      LOGGER.warn("Unable to load the reference index, content will be crawled again", e);
+      index = new ReferenceIndex();
+      return false;
+    }
+  }
+
+  private void persist() {
+    if (dataFile == null || !dirty.getAndSet(false)) {
+      return;
+    }
+    File temporary = new File(dataFile.getPath() + ".tmp");
+    try {
+      Files.write(temporary.toPath(), index.encode());
+      Files.move(temporary.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      LOGGER.debug("Reference index persisted with {} pages", index.size());
+    } catch (IOException | RuntimeException e) {
+      dirty.set(true);
+      LOGGER.error("Unable to persist the reference index", e);
+    }
+  }
+
+  @ObjectClassDefinition(
+      name = "Auto CDN Invalidator - Reference Index",
+      description = "Indexes the pages referencing assets and content fragments, to purge them together")
+  public @interface Config {
+
+    @AttributeDefinition(name = "Enable", type = AttributeType.BOOLEAN, description = "Tick to enable it")
+    boolean isEnabled() default false;
+
+    @AttributeDefinition(
+        name = "Reference Prefixes",
+        description = "Paths starting with these prefixes found in page content are indexed as references")
+    String[] reference_prefixes() default {"/content/dam/", "/content/experience-fragments/"};
+
+    @AttributeDefinition(
+        name = "Root Paths",
+        description = "Pages crawled to build the index when no persisted index is available, or to reconcile it")
+    String[] root_paths() default {"/content"};
+
+    @AttributeDefinition(
+        name = "Reconcile On Startup",
+        type = AttributeType.BOOLEAN,
+        description =
+            "Crawl the root paths in the background also when a persisted index is loaded at startup, to catch up "
+                + "with the changes made while the instance was stopped. Configuration changes never reconcile")
+    boolean reconcile_on_startup() default false;
+
+    @AttributeDefinition(
+        name = "Persist Interval",
+        type = AttributeType.LONG,
+        description = "Seconds between two writes of the changed index to the bundle data area")
+    long persist_interval() default 60;
+  }
+}
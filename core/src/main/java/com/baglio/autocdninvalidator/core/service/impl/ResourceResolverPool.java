@@ -0,0 +1,234 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import com.baglio.autocdninvalidator.core.helpers.LoggingHelper;
+import com.baglio.autocdninvalidator.core.helpers.MetricsHelper;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Meter;
+import org.apache.sling.commons.metrics.Timer;
+
+/**
+ * Bounded pool of service resource resolvers. A leased resolver is refreshed before being handed out and goes back to
+ * the pool when closed; resolvers which are no longer live or older than the max age are closed instead of being
+ * reused. At most {@code maxSize} resolvers exist at any time, callers wait up to {@code maxWait} for one to be
+ * returned.
+ */
+final class ResourceResolverPool {
+  private static final LoggingHelper LOGGER = new LoggingHelper(ResourceResolverPool.class);
+
+  private final Supplier<ResourceResolver> factory;
+  private final int maxSize;
+  private final long maxWaitMillis;
+  private final long maxAgeNanos;
+  private final LongSupplier nanoClock;
+  private final Semaphore permits;
+  private final Deque<PooledResolver> idle = new ConcurrentLinkedDeque<>();
+  private final Counter leased;
+  private final Timer waitTime;
+  private final Meter exhausted;
+  private final Meter evicted;
+  private volatile boolean closed;
+
+  /**
+   * Creates an empty pool, resolvers are created on demand.
+   *
+   * @param factory logs in a new service resource resolver, returning null on failure
+   * @param maxSize max amount of resolvers, leased or idle
+   * @param maxWaitMillis max time in milliseconds a caller waits for a resolver
+   * @param maxAgeMillis max time in milliseconds a resolver is reused after its creation, 0 or less for no limit
+   * @param nanoClock source of monotonic time in nanoseconds
+   * @param metrics helper creating the pool metrics
+   */
+  ResourceResolverPool(
+      final Supplier<ResourceResolver> factory,
+      final int maxSize,
+      final long maxWaitMillis,
+      final long maxAgeMillis,
+      final LongSupplier nanoClock,
+      final MetricsHelper metrics) {
+    this.factory = factory;
+    this.maxSize = Math.max(1, maxSize);
+    this.maxWaitMillis = Math.max(0, maxWaitMillis);
+    this.maxAgeNanos = maxAgeMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(maxAgeMillis) : 0;
+    this.nanoClock = nanoClock;
+    this.permits = new Semaphore(this.maxSize, true);
+    this.leased = metrics.counter("pool.leased");
+    this.waitTime = metrics.timer("pool.wait");
+    this.exhausted = metrics.meter("pool.exhausted");
+    this.evicted = metrics.meter("pool.evicted");
+  }
+
+  /**
+   * Leases a resolver, reusing an idle one if possible. The caller must close it to give it back to the pool.
+   *
+   * @return the leased resolver, or null if none became available in time or it could not be created
+   */
+  ResourceResolver lease() {
+    if (closed) {
+      return factory.get();
+    }
+    final long start = nanoClock.getAsLong();
+    boolean acquired;
+    try {
+      acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      acquired = false;
+    }
+    waitTime.update(nanoClock.getAsLong() - start, TimeUnit.NANOSECONDS);
+    if (!acquired) {
+      exhausted.mark();
+      LOGGER.warn("No resource resolver available within {} ms, pool size: {}", maxWaitMillis, maxSize);
+      return null;
+    }
+    try {
+      PooledResolver pooled = takeIdle();
+      if (pooled == null) {
+        ResourceResolver resolver = factory.get();
+        if (resolver == null) {
+          permits.release();
+          return null;
+        }
+        pooled = new PooledResolver(resolver, nanoClock.getAsLong());
+      }
+      leased.increment();
+      return pooled.lease();
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /** Closes the idle resolvers; leased ones are closed when given back. Later leases get fresh resolvers. */
+  void close() {
+    closed = true;
+    drain();
+  }
+
+  /**
+   * Returns the amount of idle resolvers.
+   *
+   * @return the amount of idle resolvers
+   */
+  int getIdleCount() {
+    return idle.size();
+  }
+
+  /**
+   * Returns the amount of resolvers which can still be leased without waiting.
+   *
+   * @return the amount of available permits
+   */
+  int getAvailableCount() {
+    return permits.availablePermits();
+  }
+
+  private PooledResolver takeIdle() {
+    PooledResolver pooled;
+    while ((pooled = idle.pollFirst()) != null) {
+      if (isReusable(pooled)) {
+        try {
+          pooled.resolver.refresh();
+          return pooled;
+        } catch (RuntimeException e) {
+          LOGGER.debug("Unable to refresh pooled resource resolver", e);
+        }
+      }
+      discard(pooled);
+    }
+    return null;
+  }
+
+  private void giveBack(final PooledResolver pooled) {
+    leased.decrement();
+    if (!closed && isReusable(pooled)) {
+      // most recently used first, so that the least used resolvers age out
+      idle.offerFirst(pooled);
+      if (closed) {
+        drain();
+      }
+    } else {
+      discard(pooled);
+    }
+    permits.release();
+  }
+
+  private boolean isReusable(final PooledResolver pooled) {
+    return (maxAgeNanos == 0 || nanoClock.getAsLong() - pooled.created < maxAgeNanos) && pooled.resolver.isLive();
+  }
+
+  private void drain() {
+    PooledResolver pooled;
+    while ((pooled = idle.pollFirst()) != null) {
+      discard(pooled);
+    }
+  }
+
+  private void discard(final PooledResolver pooled) {
+    evicted.mark();
+    try {
+      if (pooled.resolver.isLive()) {
+        pooled.resolver.close();
+      }
+    } catch (RuntimeException e) {
+      LOGGER.debug("Unable to close pooled resource resolver", e);
+    }
+  }
+
+  /** Pooled resolver with its creation time. */
+  private final class PooledResolver {
+    private final ResourceResolver resolver;
+    private final long created;
+
+    private PooledResolver(final ResourceResolver resolver, final long created) {
+      this.resolver = resolver;
+      this.created = created;
+    }
+
+    /**
+     * Wraps the resolver for a single lease: closing the wrapper gives the resolver back, and the wrapper cannot be
+     * used afterwards.
+     */
+    private ResourceResolver lease() {
+      final AtomicBoolean returned = new AtomicBoolean();
+      final InvocationHandler handler =
+          (proxy, method, args) -> {
+            if (isClose(method)) {
+              if (returned.compareAndSet(false, true)) {
+                giveBack(this);
+              }
+              return null;
+            }
+            if (returned.get()) {
+              if ("isLive".equals(method.getName())) {
+                return false;
+              }
+              throw new IllegalStateException("Resource resolver already returned to the pool");
+            }
+            try {
+              return method.invoke(resolver, args);
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          };
+      return (ResourceResolver)
+          Proxy.newProxyInstance(
+              ResourceResolver.class.getClassLoader(), new Class<?>[] {ResourceResolver.class}, handler);
+    }
+
+    private boolean isClose(final Method method) {
+      return "close".equals(method.getName()) && method.getParameterCount() == 0;
+    }
+  }
+}
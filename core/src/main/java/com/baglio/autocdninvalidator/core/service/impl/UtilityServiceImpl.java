@@ -31,7 +31,7 @@ public class UtilityServiceImpl implements UtilityService {
       Collection<ServiceReference<T>> refs = context.getServiceReferences(tClass, null);
 
       Optional<T> optionalHttpClientService =
-          refs.parallelStream()
+          refs.stream()
               .filter(
                   cdnInvalidationServiceServiceReference ->
                       serviceId.equals(cdnInvalidationServiceServiceReference.getProperty(CONFIGURATION_ID)))
@@ -0,0 +1,150 @@
+package com.baglio.autocdninvalidator.core.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import org.apache.sling.commons.metrics.Counter;
+
+/**
+ * Thread-safe memoization cache bounded both in size and in time. When full, the least recently used entry is evicted;
+ * entries older than the time to live are recomputed. Hits and misses are counted, so that the cache can be sized.
+ *
+ * <p>Values are computed outside the cache lock, so concurrent misses on the same key may compute it more than once.
+ * A value whose computation overlaps a removal is returned but not cached, as it may have been computed from the state
+ * the removal was meant to discard.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public final class BoundedCache<K, V> {
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private final int maxSize;
+  private final long ttlNanos;
+  private final LongSupplier nanoClock;
+  private final Counter hits;
+  private final Counter misses;
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LinkedHashMap<K, Entry<V>> entries;
+  private long generation;
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxSize max amount of entries
+   * @param ttlMillis time to live of an entry in milliseconds, 0 or less to keep entries until evicted
+   * @param nanoClock source of monotonic time in nanoseconds
+   * @param hits metric counting cache hits
+   * @param misses metric counting cache misses
+   */
+  public BoundedCache(
+      final int maxSize, final long ttlMillis, final LongSupplier nanoClock, final Counter hits, final Counter misses) {
+    this.maxSize = Math.max(1, maxSize);
+    this.ttlNanos = ttlMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : 0;
+    this.nanoClock = nanoClock;
+    this.hits = hits;
+    this.misses = misses;
+    this.entries =
+        new LinkedHashMap<K, Entry<V>>(16, LOAD_FACTOR, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+            return size() > BoundedCache.this.maxSize;
+          }
+        };
+  }
+
+  /**
+   * Returns the cached value of the key, computing and caching it when missing or expired.
+   *
+   * @param key the key
+   * @param loader computes the value of the key, must not return null
+   * @return the value
+   */
+  public V get(final K key, final Function<? super K, ? extends V> loader) {
+    final long now = nanoClock.getAsLong();
+    Entry<V> entry;
+    long loadGeneration;
+    synchronized (this) {
+      entry = entries.get(key);
+      loadGeneration = generation;
+    }
+    if (entry != null && (ttlNanos == 0 || now - entry.created < ttlNanos)) {
+      hitCount.increment();
+      hits.increment();
+      return entry.value;
+    }
+    missCount.increment();
+    misses.increment();
+    V value = loader.apply(key);
+    synchronized (this) {
+      if (generation == loadGeneration) {
+        entries.put(key, new Entry<>(value, now));
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Returns the amount of cached entries, including expired ones not yet replaced or evicted.
+   *
+   * @return the amount of entries
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Removes every entry. */
+  public synchronized void clear() {
+    generation++;
+    entries.clear();
+  }
+
+  /**
+   * Removes the entries whose key matches the filter.
+   *
+   * @param filter selects the keys to remove
+   * @return the amount of removed entries
+   */
+  public synchronized int removeIf(final Predicate<? super K> filter) {
+    generation++;
+    final int before = entries.size();
+    entries.keySet().removeIf(filter);
+    return before - entries.size();
+  }
+
+  /**
+   * Returns the amount of hits.
+   *
+   * @return the amount of hits
+   */
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  /**
+   * Returns the amount of misses.
+   *
+   * @return the amount of misses
+   */
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  /** Cached value with its creation time. */
+  private static final class Entry<V> {
+    private final V value;
+    private final long created;
+
+    private Entry(final V value, final long created) {
+      this.value = value;
+      this.created = created;
+    }
+  }
+}
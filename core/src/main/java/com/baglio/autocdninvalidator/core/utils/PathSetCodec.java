@@ -0,0 +1,173 @@
+package com.baglio.autocdninvalidator.core.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact binary encoding of a set of paths. Paths are sorted and front-coded, i.e. every path is stored as the length
+ * of the prefix it shares with the previous one followed by the remaining characters, and the result is deflated.
+ * Sibling pages share most of their path, so the payload is a fraction of the serialized set.
+ *
+ * <p>Layout: a version byte, then the deflated sequence of the path count and, for every path, the shared prefix
+ * length, the suffix length in bytes and the UTF-8 suffix. Numbers are written as unsigned variable-length integers.
+ */
+public final class PathSetCodec {
+  private static final int VERSION = 1;
+  private static final int VARINT_PAYLOAD_MASK = 0x7F;
+  private static final int VARINT_CONTINUATION = 0x80;
+  private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+  /** Smallest amount of bytes of an encoded path: an empty suffix after the shared prefix length. */
+  private static final int MIN_PATH_BYTES = 2;
+  private static final int BUFFER_SIZE = 8192;
+
+  private PathSetCodec() {
+    // utility class
+  }
+
+  /**
+   * Encodes the paths.
+   *
+   * @param paths the paths to encode, duplicates and null values are ignored
+   * @return the encoded paths
+   */
+  public static byte[] encode(final Collection<String> paths) {
+    List<String> sorted = new ArrayList<>(new HashSet<>(paths));
+    sorted.remove(null);
+    Collections.sort(sorted);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(VERSION);
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+      writeVarInt(out, sorted.size());
+      String previous = "";
+      for (String path : sorted) {
+        int shared = sharedPrefixLength(previous, path);
+        byte[] suffix = path.substring(shared).getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, shared);
+        writeVarInt(out, suffix.length);
+        out.write(suffix);
+        previous = path;
+      }
+    } catch (IOException e) {
+      // not expected when writing to memory
+      throw new UncheckedIOException(e);
+    } finally {
+      deflater.end();
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decodes paths encoded by {@link #encode(Collection)}.
+   *
+   * @param encoded the encoded paths
+   * @return the decoded paths
+   * @throws IllegalArgumentException if the payload is not valid
+   */
+  public static Set<String> decode(final byte[] encoded) {
+    if (encoded == null || encoded.length == 0 || encoded[0] != VERSION) {
+      throw new IllegalArgumentException("Unsupported path set encoding");
+    }
+    // lengths are checked against the inflated bytes, so a corrupted length cannot trigger a huge allocation
+    try (ByteArrayInputStream in = new ByteArrayInputStream(inflate(encoded))) {
+      int count = readVarInt(in);
+      if (count > in.available() / MIN_PATH_BYTES) {
+        throw new IllegalArgumentException("Corrupted path set encoding: " + count + " paths");
+      }
+      Set<String> result = new HashSet<>(Math.min(count, MAX_INITIAL_CAPACITY));
+      String previous = "";
+      for (int i = 0; i < count; i++) {
+        int shared = readVarInt(in);
+        int suffixLength = readVarInt(in);
+        if (shared > previous.length() || suffixLength > in.available()) {
+          throw new IllegalArgumentException("Corrupted path set encoding");
+        }
+        byte[] suffix = new byte[suffixLength];
+        readFully(in, suffix);
+        previous = previous.substring(0, shared) + new String(suffix, StandardCharsets.UTF_8);
+        result.add(previous);
+      }
+      return result;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Corrupted path set encoding", e);
+    }
+  }
+
+  private static byte[] inflate(final byte[] encoded) throws IOException {
+    ByteArrayOutputStream inflated = new ByteArrayOutputStream(encoded.length * 4);
+    try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(encoded, 1, encoded.length - 1))) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        inflated.write(buffer, 0, read);
+      }
+    }
+    return inflated.toByteArray();
+  }
+
+  private static int sharedPrefixLength(final String previous, final String path) {
+    int max = Math.min(previous.length(), path.length());
+    int i = 0;
+    while (i < max && previous.charAt(i) == path.charAt(i)) {
+      i++;
+    }
+    // do not split surrogate pairs, the suffix must be valid UTF-16 on its own
+    if (i > 0 && i < path.length() && Character.isHighSurrogate(path.charAt(i - 1))) {
+      i--;
+    }
+    return i;
+  }
+
+  private static void writeVarInt(final OutputStream out, final int value) throws IOException {
+    int remaining = value;
+    while ((remaining & ~VARINT_PAYLOAD_MASK) != 0) {
+      out.write((remaining & VARINT_PAYLOAD_MASK) | VARINT_CONTINUATION);
+      remaining >>>= 7;
+    }
+    out.write(remaining);
+  }
+
+  private static int readVarInt(final InputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new IOException("Unexpected end of path set encoding");
+      }
+      value |= (b & VARINT_PAYLOAD_MASK) << shift;
+      if ((b & VARINT_CONTINUATION) == 0) {
+        if (value < 0) {
+          throw new IOException("Negative length in path set encoding");
+        }
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable-length integer");
+  }
+
+  private static void readFully(final InputStream in, final byte[] buffer) throws IOException {
+    int offset = 0;
+    while (offset < buffer.length) {
+      int read = in.read(buffer, offset, buffer.length - offset);
+      if (read < 0) {
+        throw new IOException("Unexpected end of path set encoding");
+      }
+      offset += read;
+    }
+  }
+}
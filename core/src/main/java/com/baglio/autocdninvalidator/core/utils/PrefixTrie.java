@@ -0,0 +1,206 @@
+package com.baglio.autocdninvalidator.core.utils;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Character based prefix tree mapping string prefixes to values. Lookups walk the input once and do not allocate, so
+ * their cost depends on the length of the input and not on the number of stored prefixes.
+ *
+ * <p>The trie is meant to be filled once (e.g. when a component is activated) and then only read: it is safe for
+ * concurrent reads as long as it is published safely and no longer modified.
+ *
+ * @param <V> type of the values associated with the prefixes
+ */
+public final class PrefixTrie<V> {
+
+  private final Node<V> root = new Node<>();
+  private int size;
+
+  /**
+   * Associates a value with a prefix, replacing any value previously associated with the same prefix.
+   *
+   * @param prefix the prefix
+   * @param value the value to associate
+   */
+  public void put(final String prefix, final V value) {
+    Node<V> node = root;
+    for (int i = 0; i < prefix.length(); i++) {
+      node = node.getOrCreateChild(prefix.charAt(i));
+    }
+    if (!node.terminal) {
+      size++;
+    }
+    node.terminal = true;
+    node.value = value;
+  }
+
+  /**
+   * Tells whether any stored prefix is a prefix of the given input.
+   *
+   * @param input the input to check
+   * @return true if at least one stored prefix matches the beginning of the input
+   */
+  public boolean matchesPrefixOf(final CharSequence input) {
+    Node<V> node = root;
+    if (node.terminal) {
+      return true;
+    }
+    for (int i = 0; i < input.length(); i++) {
+      node = node.getChild(input.charAt(i));
+      if (node == null) {
+        return false;
+      }
+      if (node.terminal) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the value associated with the longest stored prefix of the given input.
+   *
+   * @param input the input to check
+   * @return the value of the longest matching prefix, or null if none matches
+   */
+  public V getLongestPrefixValue(final CharSequence input) {
+    Node<V> node = root;
+    V result = node.terminal ? node.value : null;
+    for (int i = 0; i < input.length() && node != null; i++) {
+      node = node.getChild(input.charAt(i));
+      if (node != null && node.terminal) {
+        result = node.value;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Tells whether any stored prefix is the path given as input or one of its ancestors. Unlike {@link
+   * #matchesPrefixOf(CharSequence)}, a prefix only matches at a segment boundary: {@code /content/site} matches {@code
+   * /content/site/en} but not {@code /content/site-b}.
+   *
+   * @param input the path to check
+   * @return true if at least one stored prefix is the path or an ancestor of it
+   */
+  public boolean matchesPathPrefixOf(final CharSequence input) {
+    Node<V> node = root;
+    if (node.terminal && isPathBoundary(input, 0)) {
+      return true;
+    }
+    for (int i = 0; i < input.length(); i++) {
+      node = node.getChild(input.charAt(i));
+      if (node == null) {
+        return false;
+      }
+      if (node.terminal && isPathBoundary(input, i + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the value associated with the longest stored prefix which is the path given as input or one of its
+   * ancestors, see {@link #matchesPathPrefixOf(CharSequence)}.
+   *
+   * @param input the path to check
+   * @return the value of the longest matching path prefix, or null if none matches
+   */
+  public V getLongestPathPrefixValue(final CharSequence input) {
+    Node<V> node = root;
+    V result = node.terminal && isPathBoundary(input, 0) ? node.value : null;
+    for (int i = 0; i < input.length() && node != null; i++) {
+      node = node.getChild(input.charAt(i));
+      if (node != null && node.terminal && isPathBoundary(input, i + 1)) {
+        result = node.value;
+      }
+    }
+    return result;
+  }
+
+  private static boolean isPathBoundary(final CharSequence input, final int length) {
+    return length == input.length() || input.charAt(length) == '/' || (length > 0 && input.charAt(length - 1) == '/');
+  }
+
+  /**
+   * Passes to the consumer the values of every stored prefix of the given input, from the shortest to the longest.
+   *
+   * @param input the input to check
+   * @param consumer receives the values of the matching prefixes
+   */
+  public void forEachPrefixValue(final CharSequence input, final Consumer<? super V> consumer) {
+    Node<V> node = root;
+    if (node.terminal) {
+      consumer.accept(node.value);
+    }
+    for (int i = 0; i < input.length(); i++) {
+      node = node.getChild(input.charAt(i));
+      if (node == null) {
+        return;
+      }
+      if (node.terminal) {
+        consumer.accept(node.value);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of stored prefixes.
+   *
+   * @return the number of stored prefixes
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Tells whether no prefix is stored.
+   *
+   * @return true if the trie is empty
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Trie node keeping its children in arrays sorted by character, to avoid boxing on lookups. */
+  private static final class Node<V> {
+    private static final char[] NO_LABELS = new char[0];
+
+    private char[] labels = NO_LABELS;
+    private Node<V>[] children = newChildren(0);
+    private boolean terminal;
+    private V value;
+
+    private Node<V> getChild(final char label) {
+      int index = Arrays.binarySearch(labels, label);
+      return index >= 0 ? children[index] : null;
+    }
+
+    private Node<V> getOrCreateChild(final char label) {
+      int index = Arrays.binarySearch(labels, label);
+      if (index >= 0) {
+        return children[index];
+      }
+      int insertion = -index - 1;
+      Node<V> child = new Node<>();
+      char[] newLabels = new char[labels.length + 1];
+      Node<V>[] newChildren = newChildren(children.length + 1);
+      System.arraycopy(labels, 0, newLabels, 0, insertion);
+      System.arraycopy(children, 0, newChildren, 0, insertion);
+      newLabels[insertion] = label;
+      newChildren[insertion] = child;
+      System.arraycopy(labels, insertion, newLabels, insertion + 1, labels.length - insertion);
+      System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+      labels = newLabels;
+      children = newChildren;
+      return child;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] newChildren(final int length) {
+      return (Node<V>[]) new Node[length];
+    }
+  }
+}
@@ -1,18 +1,32 @@
 package com.baglio.autocdninvalidator.core.jobs;
 
+import static com.baglio.autocdninvalidator.core.jobs.EditorialAssetInvalidationJobConsumer.JOB_PROPERTY_ENCODED_PATHS;
 import static com.baglio.autocdninvalidator.core.jobs.EditorialAssetInvalidationJobConsumer.JOB_PROPERTY_PATHS;
+import static com.baglio.autocdninvalidator.core.jobs.EditorialAssetInvalidationJobConsumer.JOB_PROPERTY_PURGE_OBJECTS;
+import static com.baglio.autocdninvalidator.core.jobs.EditorialAssetInvalidationJobConsumer.JOB_PROPERTY_PURGE_TYPE;
 import static junit.framework.Assert.assertNotNull;
 import static junitx.framework.Assert.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anySet;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.baglio.autocdninvalidator.core.service.CdnInvalidationService;
+import com.baglio.autocdninvalidator.core.service.PurgeResult;
 import com.baglio.autocdninvalidator.core.service.ReadService;
+import com.baglio.autocdninvalidator.core.service.ReferenceIndexService;
 import com.baglio.autocdninvalidator.core.service.UtilityService;
+import com.baglio.autocdninvalidator.core.utils.PathSetCodec;
+import com.baglio.autocdninvalidator.core.utils.PrefixTrie;
 import com.day.cq.commons.Externalizer;
 import java.lang.reflect.Field;
 import java.util.Arrays;
@@ -21,14 +35,19 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import javax.servlet.http.HttpServletResponse;
 import junit.framework.Assert;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
 import org.apache.sling.event.jobs.consumer.JobConsumer;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
@@ -38,12 +57,18 @@ class EditorialAssetInvalidationJobConsumerTest {
   private static final String INVALIDATION_RULE_1 = "/content/we-retail/(..)(/.*)*=tag-dev-$1";
   private static final String INVALIDATION_RULE_2 = "/content/we-retail/(..)/.*/experience/.*=tag-dev-$1-experience";
   private static final String VALUE_SEPARATOR = "=";
+  private static final String TOPIC = "com/baglio/autocdninvalidator/job/editorial";
+
   @Mock private Job job;
   @Mock private Externalizer externalizer;
 
-  @Mock private CdnInvalidationService cdnInvalidationService;
+  // the asynchronous purges run the stubbed blocking ones
+  @Mock(answer = Answers.CALLS_REAL_METHODS)
+  private CdnInvalidationService cdnInvalidationService;
   @Mock private ReadService readService;
   @Mock private ResourceResolver resourceResolver;
+  @Mock private ReferenceIndexService referenceIndexService;
+  @Mock private JobManager jobManager;
 
   private UtilityService utilityService;
   private EditorialAssetInvalidationJobConsumer.Config config;
@@ -79,6 +104,12 @@ class EditorialAssetInvalidationJobConsumerTest {
     result = consumer.process(job);
     assertEquals(JobConsumer.JobResult.CANCEL, result);
 
+    // test invalid encoded paths
+    when(job.getProperty(JOB_PROPERTY_ENCODED_PATHS, byte[].class)).thenReturn(new byte[] {9});
+    result = consumer.process(job);
+    assertEquals(JobConsumer.JobResult.CANCEL, result);
+    when(job.getProperty(JOB_PROPERTY_ENCODED_PATHS, byte[].class)).thenReturn(null);
+
     // test wrong invalidation type
     when(config.invalidation_type()).thenReturn("not-valid");
     when(job.getProperty(JOB_PROPERTY_PATHS)).thenReturn(new HashSet<>(Collections.singletonList("test")));
@@ -139,6 +170,104 @@ class EditorialAssetInvalidationJobConsumerTest {
     testInvalidationBy("urls");
   }
 
+  @Test
+  void testInvalidationByTagAndURLs() {
+    consumer.activate(getDefaultConfig("tag, urls,tag"));
+    when(job.getProperty(JOB_PROPERTY_PATHS))
+        .thenReturn(new HashSet<>(Collections.singletonList("/content/we-retail/ca/en/home")));
+
+    when(cdnInvalidationService.purgeByTag(anySet())).thenReturn(true);
+    when(cdnInvalidationService.purgeByURLs(anySet())).thenReturn(true);
+    Assert.assertEquals(JobConsumer.JobResult.OK, consumer.process(job));
+    verify(cdnInvalidationService).purgeByTag(anySet());
+    verify(cdnInvalidationService).purgeByURLs(anySet());
+
+    // a single failed purge fails the job
+    when(cdnInvalidationService.purgeByURLs(anySet())).thenThrow(new IllegalStateException("unreachable"));
+    Assert.assertEquals(JobConsumer.JobResult.FAILED, consumer.process(job));
+  }
+
+  @Test
+  void testJobFailsWhenNoResolverCanBeLeased() {
+    consumer.activate(getDefaultConfig("urls"));
+    when(readService.leaseResourceResolver()).thenReturn(null);
+    when(job.getProperty(JOB_PROPERTY_PATHS))
+        .thenReturn(new HashSet<>(Collections.singletonList("/content/we-retail/ca/en/home")));
+
+    Assert.assertEquals(JobConsumer.JobResult.FAILED, consumer.process(job));
+    verify(cdnInvalidationService, never()).purgeByURLs(anySet());
+  }
+
+  @Test
+  void testFailedObjectsAreRequeued() {
+    EditorialAssetInvalidationJobConsumer.Config config = getDefaultConfig("tag,urls");
+    when(config.requeue_failed_objects()).thenReturn(true);
+    consumer.activate(config);
+    when(job.getProperty(JOB_PROPERTY_PATHS))
+        .thenReturn(new HashSet<>(Collections.singletonList("/content/we-retail/ca/en/home")));
+    when(job.getTopic()).thenReturn(TOPIC);
+    Set<String> failed = Collections.singleton("https://publish/content/we-retail/ca/en/home.html");
+    doReturn(CompletableFuture.completedFuture(PurgeResult.SUCCESS))
+        .when(cdnInvalidationService)
+        .purgeByTagAsync(anySet());
+    doReturn(CompletableFuture.completedFuture(PurgeResult.failed(HttpServletResponse.SC_SERVICE_UNAVAILABLE, failed)))
+        .when(cdnInvalidationService)
+        .purgeByURLsAsync(anySet());
+    when(jobManager.addJob(eq(TOPIC), anyMap())).thenReturn(mock(Job.class));
+
+    Assert.assertEquals(JobConsumer.JobResult.OK, consumer.process(job));
+    // re-queuing is not success: the hook is told the purge failed
+    Assert.assertEquals(Boolean.FALSE, consumer.afterInvalidationResult);
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Map<String, Object>> properties = ArgumentCaptor.forClass(Map.class);
+    verify(jobManager).addJob(eq(TOPIC), properties.capture());
+    Assert.assertEquals("urls", properties.getValue().get(JOB_PROPERTY_PURGE_TYPE));
+    assertArrayEquals(failed.toArray(), (Object[]) properties.getValue().get(JOB_PROPERTY_PURGE_OBJECTS));
+
+    // the job fails as a whole when the failed objects are unknown, or the failure is permanent
+    doReturn(CompletableFuture.completedFuture(PurgeResult.failed(0, null)))
+        .when(cdnInvalidationService)
+        .purgeByURLsAsync(anySet());
+    Assert.assertEquals(JobConsumer.JobResult.FAILED, consumer.process(job));
+    doReturn(CompletableFuture.completedFuture(PurgeResult.failed(HttpServletResponse.SC_FORBIDDEN, failed)))
+        .when(cdnInvalidationService)
+        .purgeByURLsAsync(anySet());
+    Assert.assertEquals(JobConsumer.JobResult.FAILED, consumer.process(job));
+    doReturn(CompletableFuture.completedFuture(PurgeResult.rejected(0, failed)))
+        .when(cdnInvalidationService)
+        .purgeByURLsAsync(anySet());
+    Assert.assertEquals(JobConsumer.JobResult.FAILED, consumer.process(job));
+    verify(jobManager, times(1)).addJob(anyString(), anyMap());
+  }
+
+  @Test
+  void testRequeuedJobPurgesOnlyItsObjects() {
+    consumer.activate(getDefaultConfig("urls"));
+    when(job.getProperty(JOB_PROPERTY_PURGE_TYPE, String.class)).thenReturn("urls");
+    when(job.getProperty(JOB_PROPERTY_PURGE_OBJECTS, String[].class))
+        .thenReturn(new String[] {"https://publish/content/we-retail/ca/en/home.html"});
+
+    when(cdnInvalidationService.purgeByURLs(anySet())).thenReturn(true);
+    Assert.assertEquals(JobConsumer.JobResult.OK, consumer.process(job));
+    verify(cdnInvalidationService)
+        .purgeByURLs(Collections.singleton("https://publish/content/we-retail/ca/en/home.html"));
+    verify(readService, never()).leaseResourceResolver();
+    // the hook was called by the job which re-queued the objects
+    Assert.assertNull(consumer.afterInvalidationResult);
+
+    // retried by Sling as long as the purge fails
+    when(cdnInvalidationService.purgeByURLs(anySet())).thenReturn(false);
+    Assert.assertEquals(JobConsumer.JobResult.FAILED, consumer.process(job));
+  }
+
+  @Test
+  void testParseInvalidationTypes() {
+    Assert.assertEquals(
+        Arrays.asList("code", "urls"),
+        EditorialAssetInvalidationJobConsumer.parseInvalidationTypes(" code,,urls,code"));
+    Assert.assertTrue(EditorialAssetInvalidationJobConsumer.parseInvalidationTypes(null).isEmpty());
+  }
+
   void testInvalidationBy(final String invalidationType) {
     consumer.activate(getDefaultConfig(invalidationType));
 
@@ -197,7 +326,7 @@ class EditorialAssetInvalidationJobConsumerTest {
     when(config.isEnabled()).thenReturn(true);
     when(config.cdnConfigurationID()).thenReturn("cdnConfigurationID");
     when(config.invalidation_type()).thenReturn(invalidationType);
-    lenient().when(readService.getResourceResolver()).thenReturn(resourceResolver);
+    lenient().when(readService.leaseResourceResolver()).thenReturn(resourceResolver);
     lenient().when(externalizer.publishLink(any(ResourceResolver.class), anyString())).thenReturn("publishLink");
 
     if (!EditorialAssetInvalidationJobConsumer.Config.INVALIDATION_TYPE_OPTION_URLS.equals(invalidationType)) {
@@ -206,12 +335,97 @@ class EditorialAssetInvalidationJobConsumerTest {
     return config;
   }
 
+  @Test
+  void testCollapseToPurgeAnchors() {
+    PrefixTrie<String> anchors = new PrefixTrie<>();
+    anchors.put("/content/we-retail/ca/en", "/content/we-retail/ca/en");
+    anchors.put("/content/we-retail/ca/en/experience", "/content/we-retail/ca/en/experience");
+
+    Set<String> paths =
+        new HashSet<>(
+            Arrays.asList(
+                "/content/we-retail/ca/en/men",
+                "/content/we-retail/ca/en/women",
+                "/content/we-retail/ca/en/experience/arctic-surfing",
+                "/content/we-retail/ca/english",
+                "/content/we-retail/us/en"));
+    Set<String> expected =
+        new HashSet<>(
+            Arrays.asList(
+                "/content/we-retail/ca/en",
+                "/content/we-retail/ca/en/experience",
+                "/content/we-retail/ca/english",
+                "/content/we-retail/us/en"));
+    Assert.assertEquals(expected, consumer.collapseToPurgeAnchors(paths, anchors));
+    Assert.assertEquals(paths, consumer.collapseToPurgeAnchors(paths, new PrefixTrie<>()));
+  }
+
+  @Test
+  void testPurgeAnchorsCollapseValuesButNotUrls() {
+    EditorialAssetInvalidationJobConsumer.Config config = getDefaultConfig("tag,urls");
+    when(config.purge_anchors()).thenReturn(new String[] {"/content/we-retail/ca/en"});
+    consumer.activate(config);
+    when(job.getProperty(JOB_PROPERTY_PATHS))
+        .thenReturn(new HashSet<>(Arrays.asList("/content/we-retail/ca/en/men", "/content/we-retail/ca/en/women")));
+    when(resourceResolver.map(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+    when(externalizer.externalLink(any(ResourceResolver.class), anyString(), anyString(), anyString()))
+        .thenAnswer(invocation -> "https://publish" + invocation.getArgument(3));
+    when(cdnInvalidationService.purgeByTag(anySet())).thenReturn(true);
+    when(cdnInvalidationService.purgeByURLs(anySet())).thenReturn(true);
+
+    Assert.assertEquals(JobConsumer.JobResult.OK, consumer.process(job));
+    // the tag of the anchor covers its subtree, while every changed page keeps its own URL
+    verify(cdnInvalidationService).purgeByTag(Collections.singleton("tag-dev-ca"));
+    verify(cdnInvalidationService)
+        .purgeByURLs(
+            new HashSet<>(
+                Arrays.asList(
+                    "https://publish/content/we-retail/ca/en/men.html",
+                    "https://publish/content/we-retail/ca/en/women.html")));
+  }
+
+  @Test
+  void testGetPathsReadsEncodedAndLegacyFormats() {
+    Set<String> paths = new HashSet<>(Arrays.asList("/content/we-retail/ca/en/men", "/content/we-retail/ca/en/women"));
+    when(job.getProperty(JOB_PROPERTY_ENCODED_PATHS, byte[].class)).thenReturn(PathSetCodec.encode(paths));
+    Assert.assertEquals(paths, consumer.getPaths(job));
+
+    when(job.getProperty(JOB_PROPERTY_ENCODED_PATHS, byte[].class)).thenReturn(null);
+    when(job.getProperty(JOB_PROPERTY_PATHS)).thenReturn(paths);
+    Assert.assertEquals(paths, consumer.getPaths(job));
+
+    when(job.getProperty(JOB_PROPERTY_PATHS)).thenReturn(null);
+    Assert.assertTrue(consumer.getPaths(job).isEmpty());
+  }
+
   @NotNull
   private static String[] getInvalidationRules() {
     return new String[] {INVALIDATION_RULE_1, INVALIDATION_RULE_2, "missing-separator", "empty-value=", "=empty-key"};
   }
 
+  @Test
+  void testAddReferencingPages() {
+    Set<String> paths = Collections.singleton("/content/dam/we-retail/hero.jpg");
+    when(referenceIndexService.getReferencingPages(paths))
+        .thenReturn(Collections.singleton("/content/we-retail/ca/en"));
+    assertEquals(
+        new HashSet<>(Arrays.asList("/content/dam/we-retail/hero.jpg", "/content/we-retail/ca/en")),
+        consumer.addReferencingPages(paths));
+
+    Set<String> unreferenced = Collections.singleton("/content/dam/we-retail/unused.jpg");
+    when(referenceIndexService.getReferencingPages(unreferenced)).thenReturn(Collections.emptySet());
+    assertEquals(unreferenced, consumer.addReferencingPages(unreferenced));
+  }
+
   class EditorialAssetInvalidationJobConsumerHelper extends EditorialAssetInvalidationJobConsumer {
+    private Boolean afterInvalidationResult;
+
+    @Override
+    public boolean afterInvalidation(final boolean result, final Job job) {
+      afterInvalidationResult = result;
+      return super.afterInvalidation(result, job);
+    }
+
     @Override
     Externalizer getExternalizer() {
       return externalizer;
@@ -226,6 +440,16 @@ class EditorialAssetInvalidationJobConsumerTest {
     UtilityService getUtilityService() {
       return utilityService;
     }
+
+    @Override
+    ReferenceIndexService getReferenceIndexService() {
+      return referenceIndexService;
+    }
+
+    @Override
+    JobManager getJobManager() {
+      return jobManager;
+    }
   }
 
   class EditorialAssetInvalidationJobConsumerErrorHelper extends EditorialAssetInvalidationJobConsumerHelper {
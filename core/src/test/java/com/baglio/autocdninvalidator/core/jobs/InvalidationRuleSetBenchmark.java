@@ -0,0 +1,90 @@
+package com.baglio.autocdninvalidator.core.jobs;
+
+import java.util.AbstractMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.lang.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the precompiled {@link InvalidationRuleSet} with the former evaluation of tag/code rules, which compiled
+ * every rule for every path inside a nested parallel stream.
+ *
+ * <p>Run with {@code mvn -Pbenchmark test -Djmh.includes=InvalidationRuleSetBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvalidationRuleSetBenchmark {
+
+  @Param({"20", "200"})
+  public int ruleCount;
+
+  @Param({"100", "5000"})
+  public int pathCount;
+
+  private Map<String, String> rules;
+  private Set<String> paths;
+  private InvalidationRuleSet ruleSet;
+
+  @Setup
+  public void setUp() {
+    rules = new TreeMap<>();
+    for (int i = 0; i < ruleCount; i += 2) {
+      rules.put("/content/site-" + i + "/(..)(/.*)*", "tag-site-" + i + "-$1");
+      rules.put("/content/site-" + i + "/(..)/.*/section-1/.*", "tag-site-" + i + "-$1-section");
+    }
+    paths = new HashSet<>();
+    for (int i = 0; i < pathCount; i++) {
+      paths.add("/content/site-" + (i % ruleCount) + "/en/section-" + (i % 7) + "/page-" + i);
+    }
+    ruleSet = new InvalidationRuleSet(rules);
+  }
+
+  @Benchmark
+  public Set<String> legacy() {
+    return paths.stream()
+        .flatMap(
+            path ->
+                rules.entrySet().parallelStream()
+                    .map(
+                        item ->
+                            new AbstractMap.SimpleEntry<>(
+                                Pattern.compile(item.getKey()).matcher(path), item.getValue()))
+                    .filter(e -> e.getKey().matches())
+                    .map(e -> e.getKey().replaceAll(e.getValue()))
+                    .filter(StringUtils::isNotBlank)
+                    .collect(Collectors.toSet())
+                    .stream())
+        .collect(Collectors.toSet());
+  }
+
+  @Benchmark
+  public Set<String> compiled() {
+    return paths.stream().flatMap(path -> ruleSet.apply(path).stream()).collect(Collectors.toSet());
+  }
+
+  @Benchmark
+  public Set<String> compiledIncludingBuild() {
+    InvalidationRuleSet fresh = new InvalidationRuleSet(rules);
+    return paths.stream().flatMap(path -> fresh.apply(path).stream()).collect(Collectors.toSet());
+  }
+}
@@ -0,0 +1,94 @@
+package com.baglio.autocdninvalidator.core.jobs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.baglio.autocdninvalidator.core.utils.BoundedCache;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.junit.jupiter.api.Test;
+
+class InvalidationRuleSetTest {
+
+  @Test
+  void testGetLiteralPrefix() {
+    assertEquals("/content/we-retail/", InvalidationRuleSet.getLiteralPrefix("/content/we-retail/(..)(/.*)*"));
+    assertEquals("/content/we-retail/", InvalidationRuleSet.getLiteralPrefix("^/content/we-retail/.*"));
+    assertEquals("/content/site.", InvalidationRuleSet.getLiteralPrefix("/content/site\\.[a-z]+"));
+    assertEquals("/content/sit", InvalidationRuleSet.getLiteralPrefix("/content/site?/.*"));
+    assertEquals("/content/", InvalidationRuleSet.getLiteralPrefix("/content/\\d+"));
+    assertEquals("/content/", InvalidationRuleSet.getLiteralPrefix("/content/(a|b)/.*"));
+    assertEquals("", InvalidationRuleSet.getLiteralPrefix("/content/a/.*|/content/b/.*"));
+    assertEquals("", InvalidationRuleSet.getLiteralPrefix("(?i)/content/.*"));
+    assertEquals("/content/[a|b", InvalidationRuleSet.getLiteralPrefix("/content/\\[a\\|b"));
+  }
+
+  @Test
+  void testMatchesLegacyEvaluation() {
+    Map<String, String> rules = new LinkedHashMap<>();
+    rules.put("/content/we-retail/(..)(/.*)*", "tag-dev-$1");
+    rules.put("/content/we-retail/(..)/.*/experience/.*", "tag-dev-$1-experience");
+    rules.put("/content/wknd/(..)/.*/adventures/.*", "tag-dev-$1-adventures");
+    rules.put(".*/products/(.*)", "product-$1");
+    rules.put("/content/(we-retail|wknd)/blank", " ");
+    rules.put("/content/[invalid", "never");
+
+    List<String> paths =
+        Arrays.asList(
+            "/content/we-retail/ca/en",
+            "/content/we-retail/ca/en/experience/arctic-surfing",
+            "/content/wknd/us/en/adventures/bali",
+            "/content/wknd/us/en/products/shoes",
+            "/content/we-retail/blank",
+            "/content/other");
+
+    InvalidationRuleSet ruleSet = new InvalidationRuleSet(rules);
+    assertEquals(5, ruleSet.size());
+    for (String path : paths) {
+      assertEquals(legacy(path, rules), new HashSet<>(ruleSet.apply(path)), path);
+    }
+    assertTrue(InvalidationRuleSet.EMPTY.apply("/content/we-retail").isEmpty());
+  }
+
+  @Test
+  void testValuesAreCached() {
+    Map<String, String> rules = new LinkedHashMap<>();
+    rules.put("/content/we-retail/(..)(/.*)*", "tag-dev-$1");
+    BoundedCache<String, List<String>> cache =
+        new BoundedCache<>(
+            10, 0, System::nanoTime, MetricsService.NOOP.counter("hit"), MetricsService.NOOP.counter("miss"));
+
+    InvalidationRuleSet ruleSet = new InvalidationRuleSet(rules, cache);
+    assertEquals(Collections.singletonList("tag-dev-ca"), ruleSet.apply("/content/we-retail/ca/en"));
+    assertEquals(Collections.singletonList("tag-dev-ca"), ruleSet.apply("/content/we-retail/ca/en"));
+    assertTrue(ruleSet.apply("/content/other").isEmpty());
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  private static Set<String> legacy(final String path, final Map<String, String> rules) {
+    List<String> values = new ArrayList<>();
+    for (Map.Entry<String, String> rule : rules.entrySet()) {
+      if (rule.getValue().equals("never")) {
+        continue;
+      }
+      Matcher matcher = Pattern.compile(rule.getKey()).matcher(path);
+      if (matcher.matches()) {
+        values.add(matcher.replaceAll(rule.getValue()));
+      }
+    }
+    values.removeIf(StringUtils::isBlank);
+    return new HashSet<>(values);
+  }
+}
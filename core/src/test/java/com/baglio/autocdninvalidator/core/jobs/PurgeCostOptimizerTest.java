@@ -0,0 +1,77 @@
+package com.baglio.autocdninvalidator.core.jobs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.baglio.autocdninvalidator.core.helpers.MetricsHelper;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class PurgeCostOptimizerTest {
+
+  private static final String URLS = EditorialAssetInvalidationJobConsumer.Config.INVALIDATION_TYPE_OPTION_URLS;
+  private static final String TAG = EditorialAssetInvalidationJobConsumer.Config.INVALIDATION_TYPE_OPTION_TAG;
+  private static final String CODE = EditorialAssetInvalidationJobConsumer.Config.INVALIDATION_TYPE_OPTION_CODE;
+
+  private final MetricsHelper metrics = new MetricsHelper(null, "test");
+
+  @Test
+  void testUrlsDroppedWhenCoveredByTags() {
+    PurgeCostOptimizer optimizer = new PurgeCostOptimizer(1, 10, 5000, 0, Collections.emptyList(), metrics);
+    Set<String> tags = new HashSet<>(Arrays.asList("tag-ca", "tag-us"));
+    Map<String, Set<String>> plan = new LinkedHashMap<>();
+    plan.put(TAG, tags);
+    plan.put(URLS, urls(100));
+
+    assertEquals(Collections.singletonMap(TAG, tags), optimizer.optimize(plan, () -> tags));
+    // some path without tags: its URLs are still needed
+    assertSame(plan, optimizer.optimize(plan, () -> null));
+  }
+
+  @Test
+  void testUrlsKeptWhenRuleValuesAreNotTags() {
+    PurgeCostOptimizer optimizer = new PurgeCostOptimizer(1, 10, 5000, 0, Collections.emptyList(), metrics);
+    Supplier<Set<String>> coveringValues =
+        () -> {
+          throw new AssertionError("rule values are CP codes, not tags");
+        };
+
+    Map<String, Set<String>> urlsOnly = Collections.singletonMap(URLS, urls(100));
+    assertSame(urlsOnly, optimizer.optimize(urlsOnly, coveringValues));
+
+    Map<String, Set<String>> codesAndUrls = new LinkedHashMap<>();
+    codesAndUrls.put(CODE, Collections.singleton("123456"));
+    codesAndUrls.put(URLS, urls(100));
+    assertSame(codesAndUrls, optimizer.optimize(codesAndUrls, coveringValues));
+  }
+
+  @Test
+  void testEscalationToCpCodes() {
+    PurgeCostOptimizer optimizer =
+        new PurgeCostOptimizer(1, 10, 5000, 6000, Collections.singletonList("123456"), metrics);
+    Map<String, Set<String>> plan = new LinkedHashMap<>();
+    plan.put(TAG, new HashSet<>(Collections.singletonList("tag-ca")));
+    plan.put(URLS, urls(8000));
+    assertEquals(8010, optimizer.getCost(plan));
+
+    // some path without tags: the URLs are kept and the plan escalated
+    assertEquals(
+        Collections.singletonMap(CODE, Collections.singleton("123456")), optimizer.optimize(plan, () -> null));
+
+    // below the threshold the cheaper CP code purge is not evaluated
+    Map<String, Set<String>> smallPlan = Collections.singletonMap(URLS, urls(5500));
+    assertSame(smallPlan, optimizer.optimize(smallPlan, () -> null));
+  }
+
+  private static Set<String> urls(final int size) {
+    return IntStream.range(0, size).mapToObj(i -> "https://publish/page-" + i + ".html").collect(Collectors.toSet());
+  }
+}
@@ -0,0 +1,89 @@
+package com.baglio.autocdninvalidator.core.jobs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+import com.day.cq.commons.Externalizer;
+import java.util.Arrays;
+import java.util.Collections;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith({MockitoExtension.class})
+class UrlVariantExpanderTest {
+
+  private static final String PAGE = "/content/we-retail/ca/en/home";
+
+  @Mock private ResourceResolver resolver;
+  @Mock private Externalizer externalizer;
+  @Mock private Resource content;
+  @Mock private ValueMap properties;
+
+  @BeforeEach
+  void setUp() {
+    when(resolver.map(PAGE)).thenReturn("/ca/en/home");
+    lenient()
+        .when(externalizer.externalLink(any(), anyString(), anyString(), anyString()))
+        .thenAnswer(
+            invocation -> invocation.getArgument(2) + "://" + invocation.getArgument(1) + invocation.getArgument(3));
+  }
+
+  @Test
+  void testDefaultIsHtmlPage() {
+    UrlVariantExpander expander =
+        new UrlVariantExpander(new String[] {"", "invalid"}, Collections.singletonList("publish"), "https", false);
+    assertEquals(1, expander.size());
+    assertEquals(
+        Collections.singletonList("https://publish/ca/en/home.html"), expander.expand(resolver, externalizer, PAGE));
+  }
+
+  @Test
+  void testVariantsDomainsAndVanityPaths() {
+    when(resolver.getResource(PAGE + "/jcr:content")).thenReturn(content);
+    when(content.getValueMap()).thenReturn(properties);
+    when(properties.get(UrlVariantExpander.PN_VANITY_PATH, String[].class))
+        .thenReturn(new String[] {"/promo", "https://other.example.com/promo"});
+
+    UrlVariantExpander expander =
+        new UrlVariantExpander(
+            new String[] {"{path}.html", "{path}.model.json"}, Arrays.asList("publish", "mobile"), "https", true);
+    assertEquals(4, expander.size());
+    assertEquals(
+        Arrays.asList(
+            "https://publish/ca/en/home.html",
+            "https://mobile/ca/en/home.html",
+            "https://publish/ca/en/home.model.json",
+            "https://mobile/ca/en/home.model.json",
+            "https://publish/promo.html",
+            "https://mobile/promo.html",
+            "https://publish/promo.model.json",
+            "https://mobile/promo.model.json"),
+        expander.expand(resolver, externalizer, PAGE));
+
+    UrlVariantExpander other =
+        new UrlVariantExpander(new String[] {"{path}.html"}, Arrays.asList("publish", "mobile"), "https", true);
+    assertNotEquals(expander.getKey(), other.getKey());
+  }
+
+  @Test
+  void testRelativeVanityPathsAreServedFromTheRoot() {
+    when(resolver.getResource(PAGE + "/jcr:content")).thenReturn(content);
+    when(content.getValueMap()).thenReturn(properties);
+    when(properties.get(UrlVariantExpander.PN_VANITY_PATH, String[].class))
+        .thenReturn(new String[] {"promo", " ", "/offers"});
+
+    assertEquals(
+        Arrays.asList("/promo", "/offers"),
+        UrlVariantExpander.getVanityPaths(resolver, PAGE));
+  }
+}
@@ -4,19 +4,30 @@ import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.baglio.autocdninvalidator.core.jobs.EditorialAssetInvalidationJobConsumer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
 import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.event.jobs.JobManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -30,13 +41,14 @@ class DynamicResourceChangeListenerTest {
   @Mock private DynamicResourceChangeListener.Config config;
 
   @Mock private JobManager jobManager;
+  @Mock private BundleContext context;
   @InjectMocks private DynamicResourceChangeListener dynamicResourceChangeListener;
 
   @BeforeEach
   public void setUp() {
     config = mock(DynamicResourceChangeListener.Config.class);
     when(config.resource_paths()).thenReturn(new String[] {CONTENT_MY_SITE});
-    dynamicResourceChangeListener.activate(config);
+    dynamicResourceChangeListener.activate(context, config);
   }
 
   @Test
@@ -58,8 +70,68 @@ class DynamicResourceChangeListenerTest {
 
     // test execution
     when(config.isEnabled()).thenReturn(true);
-    dynamicResourceChangeListener.activate(config);
+    dynamicResourceChangeListener.activate(context, config);
     dynamicResourceChangeListener.onChange(changes);
     verify(jobManager, times(1)).addJob(any(), any());
   }
+
+  @Test
+  void testChangeTypesAndExternalChangesAreSkipped() {
+    when(config.resource_change_types()).thenReturn(new String[] {"ADDED", " CHANGED ", "UNKNOWN"});
+    dynamicResourceChangeListener.activate(context, config);
+
+    List<ResourceChange> changes = new ArrayList<>();
+    changes.add(new ResourceChange(ResourceChange.ChangeType.CHANGED, CONTENT_MY_SITE_EN_HOME, false));
+    changes.add(new ResourceChange(ResourceChange.ChangeType.ADDED, CONTENT_MY_SITE, false));
+    changes.add(new ResourceChange(ResourceChange.ChangeType.REMOVED, CONTENT_MY_SITE + "/removed", false));
+    changes.add(new ResourceChange(ResourceChange.ChangeType.CHANGED, CONTENT_MY_SITE + "/external", true));
+
+    Set<String> changesPaths = dynamicResourceChangeListener.getChangesPaths(changes);
+    assertEquals(2, changesPaths.size());
+    assertTrue(changesPaths.contains(CONTENT_MY_SITE));
+    assertTrue(changesPaths.contains(CONTENT_MY_SITE_EN_HOME));
+
+    when(config.include_external_changes()).thenReturn(true);
+    dynamicResourceChangeListener.activate(context, config);
+    changesPaths = dynamicResourceChangeListener.getChangesPaths(changes);
+    assertEquals(3, changesPaths.size());
+    assertTrue(changesPaths.contains(CONTENT_MY_SITE + "/external"));
+  }
+
+  @Test
+  void testExternalChangesAreOnlyDeliveredWhenIncluded() {
+    when(config.isEnabled()).thenReturn(true);
+    dynamicResourceChangeListener.activate(context, config);
+    verify(context, never()).registerService(any(String[].class), any(), any());
+
+    // batches filtered out entirely do not reach job creation
+    dynamicResourceChangeListener.onChange(
+        Collections.singletonList(new ResourceChange(ResourceChange.ChangeType.CHANGED, CONTENT_MY_SITE, true)));
+    verify(jobManager, never()).addJob(any(), any());
+
+    ServiceRegistration<?> registration = mock(ServiceRegistration.class);
+    doReturn(registration).when(context).registerService(any(String[].class), any(), any());
+    when(config.include_external_changes()).thenReturn(true);
+    dynamicResourceChangeListener.activate(context, config);
+    ArgumentCaptor<String[]> services = ArgumentCaptor.forClass(String[].class);
+    ArgumentCaptor<Object> listener = ArgumentCaptor.forClass(Object.class);
+    verify(context).registerService(services.capture(), listener.capture(), any());
+    assertTrue(Arrays.asList(services.getValue()).contains(ExternalResourceChangeListener.class.getName()));
+
+    // the external listener ignores the local changes, delivered to the component itself
+    ((ResourceChangeListener) listener.getValue())
+        .onChange(
+            Arrays.asList(
+                new ResourceChange(ResourceChange.ChangeType.CHANGED, CONTENT_MY_SITE_EN_HOME, false),
+                new ResourceChange(ResourceChange.ChangeType.CHANGED, CONTENT_MY_SITE + "/external", true)));
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Map<String, Object>> properties = ArgumentCaptor.forClass(Map.class);
+    verify(jobManager).addJob(any(), properties.capture());
+    assertEquals(
+        Collections.singleton(CONTENT_MY_SITE + "/external"),
+        properties.getValue().get(EditorialAssetInvalidationJobConsumer.JOB_PROPERTY_PATHS));
+
+    dynamicResourceChangeListener.deactivate();
+    verify(registration).unregister();
+  }
 }
@@ -0,0 +1,42 @@
+package com.baglio.autocdninvalidator.core.listeners;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.baglio.autocdninvalidator.core.helpers.MetricsHelper;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class IntakeRateCapTest {
+
+  private long now;
+
+  private IntakeRateCap createController() {
+    return new IntakeRateCap(100, 20, 10, new MetricsHelper(null, "test"), () -> now);
+  }
+
+  @Test
+  void testSwitchesModeWithHysteresis() {
+    IntakeRateCap controller = createController();
+    assertEquals(IntakeRateCap.Mode.NORMAL, controller.admit(60));
+    assertEquals(IntakeRateCap.Mode.DEGRADED, controller.admit(40));
+    assertEquals(100, controller.getLevel());
+
+    // below the high watermark but above the low one: still degraded
+    now += TimeUnit.SECONDS.toNanos(5);
+    assertEquals(50, controller.getLevel());
+    assertEquals(IntakeRateCap.Mode.DEGRADED, controller.getMode());
+
+    now += TimeUnit.SECONDS.toNanos(3);
+    assertEquals(IntakeRateCap.Mode.NORMAL, controller.getMode());
+    assertEquals(IntakeRateCap.Mode.NORMAL, controller.admit(10));
+  }
+
+  @Test
+  void testLevelDoesNotGoBelowZero() {
+    IntakeRateCap controller = createController();
+    controller.admit(5);
+    now += TimeUnit.MINUTES.toNanos(1);
+    assertEquals(0, controller.getLevel());
+    assertEquals(IntakeRateCap.Mode.NORMAL, controller.admit(99));
+  }
+}
@@ -0,0 +1,84 @@
+package com.baglio.autocdninvalidator.core.listeners;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.baglio.autocdninvalidator.core.service.PublicUrlCacheService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith({MockitoExtension.class})
+class MappingChangeListenerTest {
+
+  @Mock private PublicUrlCacheService publicUrlCacheService;
+  @InjectMocks private MappingChangeListener mappingChangeListener;
+
+  @BeforeEach
+  void setUp() {
+    MappingChangeListener.Config config = mock(MappingChangeListener.Config.class);
+    when(config.mapping_paths()).thenReturn(new String[] {"/etc/map"});
+    when(config.resource_property_names_hint()).thenReturn(new String[] {"sling:vanityPath", "sling:alias"});
+    mappingChangeListener.activate(config);
+  }
+
+  @Test
+  void testMappingChanges() {
+    ResourceChange mapping = new ResourceChange(ResourceChange.ChangeType.ADDED, "/etc/map/https/site", false);
+    assertTrue(mappingChangeListener.isMappingChange(mapping));
+
+    ResourceChange vanity = mock(ResourceChange.class);
+    when(vanity.getPath()).thenReturn("/content/site/en/jcr:content");
+    when(vanity.getChangedPropertyNames()).thenReturn(Collections.singleton("sling:vanityPath"));
+    assertTrue(mappingChangeListener.isMappingChange(vanity));
+
+    ResourceChange content = mock(ResourceChange.class);
+    when(content.getPath()).thenReturn("/content/site/en/jcr:content");
+    when(content.getChangedPropertyNames()).thenReturn(Collections.singleton("jcr:title"));
+    assertFalse(mappingChangeListener.isMappingChange(content));
+  }
+
+  @Test
+  void testCacheIsClearedOncePerBatch() {
+    // once on activation
+    verify(publicUrlCacheService, times(1)).invalidate();
+
+    ResourceChange content = mock(ResourceChange.class);
+    when(content.getPath()).thenReturn("/content/site/en/jcr:content");
+    when(content.getChangedPropertyNames()).thenReturn(Collections.singleton("jcr:title"));
+    mappingChangeListener.onChange(Collections.singletonList(content));
+    verify(publicUrlCacheService, times(1)).invalidate();
+
+    ResourceChange mapping = new ResourceChange(ResourceChange.ChangeType.CHANGED, "/etc/map/https/site", false);
+    mappingChangeListener.onChange(Arrays.asList(content, mapping, mapping));
+    verify(publicUrlCacheService, times(2)).invalidate();
+    verify(publicUrlCacheService, never()).invalidate(anyCollection());
+  }
+
+  @Test
+  void testChangeWithoutPropertyNamesEvictsItsPage() {
+    ResourceChange page =
+        new ResourceChange(ResourceChange.ChangeType.CHANGED, "/content/site/en/jcr:content/root", false);
+    ResourceChange child = new ResourceChange(ResourceChange.ChangeType.REMOVED, "/content/site/en/jcr:content", false);
+    ResourceChange other = new ResourceChange(ResourceChange.ChangeType.ADDED, "/content/site/fr", false);
+    mappingChangeListener.onChange(Arrays.asList(page, child, other));
+
+    verify(publicUrlCacheService)
+        .invalidate(new LinkedHashSet<>(Arrays.asList("/content/site/en", "/content/site/fr")));
+    // only on activation
+    verify(publicUrlCacheService, times(1)).invalidate();
+  }
+}
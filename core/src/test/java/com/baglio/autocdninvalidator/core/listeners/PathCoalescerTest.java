@@ -0,0 +1,119 @@
+package com.baglio.autocdninvalidator.core.listeners;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class PathCoalescerTest {
+
+  private static final String TOPIC_A = "topic/a";
+  private static final String TOPIC_B = "topic/b";
+
+  private final Map<String, List<Set<String>>> flushed = new ConcurrentHashMap<>();
+
+  private boolean flush(final String topic, final Set<String> paths) {
+    flushed.computeIfAbsent(topic, key -> new CopyOnWriteArrayList<>()).add(paths);
+    return true;
+  }
+
+  @Test
+  void testFlushOnMaxPaths() {
+    try (PathCoalescer coalescer = new PathCoalescer(60_000, 3, 0, this::flush)) {
+      coalescer.add(TOPIC_A, new HashSet<>(Arrays.asList("/content/a", "/content/b")));
+      coalescer.add(TOPIC_B, new HashSet<>(Arrays.asList("/content/c")));
+      assertTrue(flushed.isEmpty());
+      assertEquals(3, coalescer.getPendingPaths());
+
+      // duplicates are merged and do not count
+      coalescer.add(TOPIC_A, new HashSet<>(Arrays.asList("/content/a", "/content/d")));
+      assertEquals(1, flushed.get(TOPIC_A).size());
+      assertEquals(new HashSet<>(Arrays.asList("/content/a", "/content/b", "/content/d")), flushed.get(TOPIC_A).get(0));
+      assertEquals(1, coalescer.getPendingPaths());
+    }
+    // pending paths are flushed on close
+    assertEquals(1, flushed.get(TOPIC_B).size());
+  }
+
+  @Test
+  void testFlushOnMaxBytes() {
+    try (PathCoalescer coalescer = new PathCoalescer(60_000, 0, 20, this::flush)) {
+      coalescer.add(TOPIC_A, new HashSet<>(Arrays.asList("/content/site/a")));
+      assertTrue(flushed.isEmpty());
+      coalescer.add(TOPIC_A, new HashSet<>(Arrays.asList("/content/site/b")));
+      assertEquals(1, flushed.get(TOPIC_A).size());
+      assertEquals(2, flushed.get(TOPIC_A).get(0).size());
+    }
+  }
+
+  @Test
+  void testFlushOnMaxAge() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(1);
+    try (PathCoalescer coalescer =
+        new PathCoalescer(
+            50,
+            1000,
+            0,
+            (topic, paths) -> {
+              latch.countDown();
+              return flush(topic, paths);
+            })) {
+      coalescer.add(TOPIC_A, new HashSet<>(Arrays.asList("/content/a", "/content/b")));
+      assertTrue(latch.await(5, TimeUnit.SECONDS));
+      assertEquals(1, flushed.get(TOPIC_A).size());
+      assertEquals(0, coalescer.getPendingPaths());
+    }
+    // nothing left to flush on close
+    assertEquals(1, flushed.get(TOPIC_A).size());
+  }
+
+  @Test
+  void testLargeAdditionIsSplitOnMaxPaths() {
+    Set<String> paths = new HashSet<>();
+    for (int i = 0; i < 7; i++) {
+      paths.add("/content/page-" + i);
+    }
+    try (PathCoalescer coalescer = new PathCoalescer(60_000, 3, 0, this::flush)) {
+      coalescer.add(TOPIC_A, paths);
+      assertEquals(2, flushed.get(TOPIC_A).size());
+      assertEquals(3, flushed.get(TOPIC_A).get(0).size());
+      assertEquals(3, flushed.get(TOPIC_A).get(1).size());
+      assertEquals(1, coalescer.getPendingPaths());
+    }
+    assertEquals(3, flushed.get(TOPIC_A).size());
+  }
+
+  @Test
+  void testFailedFlushIsRetried() throws InterruptedException {
+    AtomicInteger attempts = new AtomicInteger();
+    CountDownLatch latch = new CountDownLatch(1);
+    try (PathCoalescer coalescer =
+        new PathCoalescer(
+            50,
+            1000,
+            0,
+            (topic, paths) -> {
+              if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("job manager not available");
+              }
+              latch.countDown();
+              return flush(topic, paths);
+            })) {
+      coalescer.add(TOPIC_A, new HashSet<>(Arrays.asList("/content/a", "/content/b")));
+      assertTrue(latch.await(5, TimeUnit.SECONDS));
+      assertEquals(2, attempts.get());
+      assertEquals(new HashSet<>(Arrays.asList("/content/a", "/content/b")), flushed.get(TOPIC_A).get(0));
+      assertEquals(0, coalescer.getPendingPaths());
+    }
+  }
+}
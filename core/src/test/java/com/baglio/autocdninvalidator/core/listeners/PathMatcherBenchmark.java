@@ -0,0 +1,101 @@
+package com.baglio.autocdninvalidator.core.listeners;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.lang.StringUtils;
+import org.apache.jackrabbit.vault.util.JcrConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the compiled {@link PathMatcher} with the former per-event filtering: parallel {@code contains} over root
+ * paths, regex based {@code jcr:content} truncation and {@code Pattern.matches} for every path.
+ *
+ * <p>Run with {@code mvn -Pbenchmark test -Djmh.includes=PathMatcherBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathMatcherBenchmark {
+  private static final String FILTER_REGEX = "^/content/site-[0-9]+/(?!.*products)(?!.*adventures).*$";
+
+  @Param({"2", "20", "200"})
+  public int rootPathCount;
+
+  @Param({"1", "100", "5000"})
+  public int eventPathCount;
+
+  private String[] rootPaths;
+  private Set<String> eventPaths;
+  private PathMatcher matcher;
+
+  @Setup
+  public void setUp() {
+    rootPaths = new String[rootPathCount];
+    for (int i = 0; i < rootPathCount; i++) {
+      rootPaths[i] = "/content/site-" + i;
+    }
+    List<String> paths = new ArrayList<>();
+    for (int i = 0; i < eventPathCount; i++) {
+      String page = rootPaths[i % rootPathCount] + "/en/section-" + (i % 37) + "/page-" + i;
+      paths.add(i % 2 == 0 ? page + "/" + JcrConstants.JCR_CONTENT + "/root/text" : page);
+    }
+    eventPaths = new HashSet<>(paths);
+    matcher = new PathMatcher(rootPaths, FILTER_REGEX);
+  }
+
+  @Benchmark
+  public void legacy(final Blackhole blackhole) {
+    for (String path : eventPaths) {
+      boolean underRoot = Arrays.stream(rootPaths).parallel().anyMatch(root -> StringUtils.contains(path, root));
+      blackhole.consume(underRoot);
+    }
+    blackhole.consume(
+        eventPaths.stream()
+            .map(
+                path -> {
+                  if (StringUtils.contains(path, JcrConstants.JCR_CONTENT)) {
+                    return path.split("/" + JcrConstants.JCR_CONTENT, 2)[0];
+                  }
+                  return path;
+                })
+            .filter(path -> Pattern.matches(FILTER_REGEX, path))
+            .collect(Collectors.toSet()));
+  }
+
+  @Benchmark
+  public void compiled(final Blackhole blackhole) {
+    for (String path : eventPaths) {
+      blackhole.consume(matcher.isUnderRootPath(path));
+    }
+    blackhole.consume(matcher.filter(eventPaths));
+  }
+
+  @Benchmark
+  public void compiledIncludingBuild(final Blackhole blackhole) {
+    PathMatcher fresh = new PathMatcher(rootPaths, FILTER_REGEX);
+    for (String path : eventPaths) {
+      blackhole.consume(fresh.isUnderRootPath(path));
+    }
+    blackhole.consume(fresh.filter(eventPaths));
+  }
+}
@@ -0,0 +1,60 @@
+package com.baglio.autocdninvalidator.core.listeners;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.jupiter.api.Test;
+
+class PathMatcherTest {
+
+  private static final String[] ROOT_PATHS = {"/content/we-retail", "/content/wknd", "/content/wknd/us"};
+
+  @Test
+  void testRootPaths() {
+    PathMatcher matcher = new PathMatcher(ROOT_PATHS, null);
+    assertTrue(matcher.isUnderRootPath("/content/wknd/en/home"));
+    assertFalse(matcher.isUnderRootPath("/content/other/en/home"));
+    assertFalse(matcher.isUnderRootPath(null));
+    assertEquals("/content/wknd/us", matcher.getRootPath("/content/wknd/us/en"));
+    assertEquals("/content/wknd", matcher.getRootPath("/content/wknd/ca/en"));
+    assertNull(matcher.getRootPath("/content/other"));
+
+    // root paths match whole segments only
+    assertTrue(matcher.isUnderRootPath("/content/wknd"));
+    assertFalse(matcher.isUnderRootPath("/content/wknd-b/en"));
+    assertEquals("/content/wknd", matcher.getRootPath("/content/wknd/usa"));
+
+    assertFalse(new PathMatcher(null, null).isUnderRootPath("/content/wknd"));
+  }
+
+  @Test
+  void testTruncateToContentOwner() {
+    String path = "/content/wknd/en/home";
+    assertSame(path, PathMatcher.truncateToContentOwner(path));
+    assertEquals(path, PathMatcher.truncateToContentOwner(path + "/jcr:content/root/text"));
+    assertEquals(path, PathMatcher.truncateToContentOwner(path + "/jcr:content"));
+  }
+
+  @Test
+  void testFilter() {
+    PathMatcher matcher = new PathMatcher(ROOT_PATHS, "^/content/(we-retail|wknd)(?!.*adventures).*$");
+    assertTrue(matcher.hasFilterRegex("^/content/(we-retail|wknd)(?!.*adventures).*$"));
+    assertFalse(matcher.hasFilterRegex(".*"));
+    assertEquals(
+        new HashSet<>(Collections.singletonList("/content/wknd/en/home")),
+        matcher.filter(
+            Arrays.asList(
+                "/content/wknd/en/home/jcr:content/root",
+                "/content/wknd/en/home",
+                "/content/wknd/en/adventures/jcr:content")));
+
+    // blank regex matches everything
+    assertEquals(2, new PathMatcher(ROOT_PATHS, " ").filter(Arrays.asList("/a", "/b/jcr:content")).size());
+  }
+}
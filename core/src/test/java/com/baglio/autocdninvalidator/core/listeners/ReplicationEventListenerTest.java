@@ -1,21 +1,34 @@
 package com.baglio.autocdninvalidator.core.listeners;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.baglio.autocdninvalidator.core.jobs.EditorialAssetInvalidationJobConsumer;
+import com.baglio.autocdninvalidator.core.service.InvalidationDeduplicationService;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
 import org.apache.jackrabbit.vault.util.JcrConstants;
 import org.apache.sling.event.jobs.Job;
 import org.apache.sling.event.jobs.JobManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 @ExtendWith({MockitoExtension.class})
@@ -25,11 +38,14 @@ class ReplicationEventListenerTest {
   private static final String CONTENT_MY_SITE_EN_HOME = CONTENT_MY_SITE + "/en/home/" + JcrConstants.JCR_CONTENT;
 
   @Mock private JobManager jobManager;
+  @Spy private PassThroughDeduplicationService deduplicationService = new PassThroughDeduplicationService();
   @InjectMocks private ReplicationEventListener replicationEventListener;
 
+  private ReplicationEventListener.Config config;
+
   @BeforeEach
   public void setUp() {
-    ReplicationEventListener.Config config = mock(ReplicationEventListener.Config.class);
+    config = mock(ReplicationEventListener.Config.class);
     when(config.resource_paths()).thenReturn(new String[] {CONTENT_MY_SITE});
     when(config.isEnabled()).thenReturn(true);
     when(config.job_topic()).thenReturn("jobTopic");
@@ -55,4 +71,115 @@ class ReplicationEventListenerTest {
     boolean result = replicationEventListener.processPath(CONTENT_MY_SITE_EN_HOME.replace("my", "other"));
     assertFalse(result);
   }
+
+  @Test
+  void testCoalescingCreatesSingleJobOnDeactivate() {
+    when(config.coalescing_enabled()).thenReturn(true);
+    when(config.coalescing_max_age()).thenReturn(60_000L);
+    when(config.coalescing_max_paths()).thenReturn(100);
+    replicationEventListener.activate(config);
+
+    assertTrue(replicationEventListener.processPath(CONTENT_MY_SITE_EN_HOME));
+    assertTrue(replicationEventListener.processPath(CONTENT_MY_SITE + "/en/about"));
+    verify(jobManager, never()).addJob(anyString(), anyMap());
+
+    replicationEventListener.deactivate();
+    verify(jobManager, times(1)).addJob(anyString(), anyMap());
+  }
+
+  @Test
+  void testTreeActivationIsSplitIntoSizeCappedJobs() {
+    when(config.job_max_paths()).thenReturn(2);
+    replicationEventListener.activate(config);
+    lenient().when(jobManager.addJob(anyString(), anyMap())).thenReturn(mock(Job.class));
+
+    boolean result =
+        replicationEventListener.processPaths(
+            CONTENT_MY_SITE + "/en/home",
+            CONTENT_MY_SITE + "/en/about",
+            CONTENT_MY_SITE + "/en/contacts",
+            "/content/other-site/en/home");
+    assertTrue(result);
+    verify(jobManager, times(2)).addJob(anyString(), anyMap());
+
+    assertFalse(replicationEventListener.processPaths("/content/other-site/en/home"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testDegradedModeSubmitsRootPathToDegradedTopic() {
+    when(config.intake_enabled()).thenReturn(true);
+    when(config.intake_high_watermark()).thenReturn(3L);
+    when(config.intake_low_watermark()).thenReturn(1L);
+    when(config.degraded_job_topic()).thenReturn("degradedTopic");
+    replicationEventListener.activate(config);
+    lenient().when(jobManager.addJob(anyString(), anyMap())).thenReturn(mock(Job.class));
+
+    assertTrue(replicationEventListener.processPaths(CONTENT_MY_SITE + "/en/home", CONTENT_MY_SITE + "/en/about"));
+    verify(jobManager, times(1)).addJob(eq("jobTopic"), anyMap());
+
+    assertTrue(replicationEventListener.processPaths(CONTENT_MY_SITE + "/en/contacts", CONTENT_MY_SITE + "/fr/home"));
+    ArgumentCaptor<Map<String, Object>> captor = ArgumentCaptor.forClass(Map.class);
+    verify(jobManager).addJob(eq("degradedTopic"), captor.capture());
+    assertEquals(
+        Collections.singleton(CONTENT_MY_SITE),
+        captor.getValue().get(EditorialAssetInvalidationJobConsumer.JOB_PROPERTY_PATHS));
+  }
+
+  @Test
+  void testAdmissionControlRequiresDegradedTopic() {
+    when(config.intake_enabled()).thenReturn(true);
+    when(config.intake_high_watermark()).thenReturn(1L);
+    when(config.degraded_job_topic()).thenReturn(" ");
+    replicationEventListener.activate(config);
+    when(jobManager.addJob(anyString(), anyMap())).thenReturn(mock(Job.class));
+
+    assertTrue(replicationEventListener.processPaths(CONTENT_MY_SITE + "/en/home", CONTENT_MY_SITE + "/en/about"));
+    assertTrue(replicationEventListener.processPaths(CONTENT_MY_SITE + "/en/contacts"));
+    verify(jobManager, times(2)).addJob(eq("jobTopic"), anyMap());
+  }
+
+  @Test
+  void testLargePathSetIsShardedByKey() {
+    when(config.job_max_paths()).thenReturn(2);
+    when(config.job_shard_key_depth()).thenReturn(3);
+    replicationEventListener.activate(config);
+    lenient().when(jobManager.addJob(anyString(), anyMap())).thenReturn(mock(Job.class));
+
+    assertTrue(
+        replicationEventListener.processPaths(
+            CONTENT_MY_SITE + "/en/home", CONTENT_MY_SITE + "/en/about", CONTENT_MY_SITE + "/fr/home"));
+    // /en and /fr are different shards, each fitting a single job
+    verify(jobManager, times(2)).addJob(anyString(), anyMap());
+
+    assertEquals(CONTENT_MY_SITE + "/en", replicationEventListener.getShardKey(CONTENT_MY_SITE + "/en/home/page"));
+    assertEquals("/content", AbstractListener.getAncestor("/content/my-site", 1));
+    assertEquals("/content/my-site", AbstractListener.getAncestor("/content/my-site", 5));
+  }
+
+  @Test
+  void testPathsAreRegisteredForDeduplicationOnlyOnceTheJobIsCreated() {
+    Set<String> paths = Collections.singleton(CONTENT_MY_SITE + "/en/home");
+    when(jobManager.addJob(anyString(), anyMap())).thenReturn(null);
+    assertFalse(replicationEventListener.processPaths(CONTENT_MY_SITE + "/en/home"));
+    verify(deduplicationService).dropQueued("jobTopic", paths);
+    verify(deduplicationService, never()).register(anyString(), any(), any());
+
+    Job job = mock(Job.class);
+    when(job.getId()).thenReturn("job-1");
+    when(jobManager.addJob(anyString(), anyMap())).thenReturn(job);
+    assertTrue(replicationEventListener.processPaths(CONTENT_MY_SITE + "/en/home"));
+    verify(deduplicationService).register("jobTopic", paths, "job-1");
+  }
+
+  /** Deduplication letting every path through. */
+  static class PassThroughDeduplicationService implements InvalidationDeduplicationService {
+    @Override
+    public Set<String> dropQueued(final String jobTopic, final Set<String> paths) {
+      return paths;
+    }
+
+    @Override
+    public void register(final String jobTopic, final Set<String> paths, final String jobId) {}
+  }
 }
@@ -0,0 +1,56 @@
+package com.baglio.autocdninvalidator.core.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.jupiter.api.Test;
+
+class PurgeResultTest {
+
+  @Test
+  void testCombine() {
+    PurgeResult accepted = new PurgeResult(true, 201, Collections.singletonList("id-1"), 5, Collections.emptySet());
+    PurgeResult failed = PurgeResult.failed(503, new HashSet<>(Arrays.asList("a", "b")));
+    PurgeResult later = new PurgeResult(true, 201, Collections.singletonList("id-2"), 8, Collections.emptySet());
+
+    PurgeResult result = PurgeResult.combine(Arrays.asList(accepted, failed, later));
+    assertFalse(result.isSuccess());
+    assertEquals(503, result.getHttpStatus());
+    assertEquals(Arrays.asList("id-1", "id-2"), result.getPurgeIds());
+    assertEquals(8, result.getEstimatedSeconds());
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")), result.getFailedObjects());
+
+    PurgeResult succeeded = PurgeResult.combine(Arrays.asList(accepted, later));
+    assertTrue(succeeded.isSuccess());
+    assertEquals(201, succeeded.getHttpStatus());
+    assertSame(accepted, PurgeResult.combine(Collections.singletonList(accepted)));
+    assertFalse(succeeded.isRetryable());
+  }
+
+  @Test
+  void testRetryable() {
+    assertTrue(PurgeResult.failed(0, null).isRetryable());
+    assertTrue(PurgeResult.failed(429, null).isRetryable());
+    assertTrue(PurgeResult.failed(503, null).isRetryable());
+    assertFalse(PurgeResult.failed(403, null).isRetryable());
+    assertFalse(PurgeResult.rejected(0, null).isRetryable());
+
+    PurgeResult transientFailure = PurgeResult.failed(503, Collections.singleton("a"));
+    PurgeResult permanentFailure = PurgeResult.failed(413, Collections.singleton("b"));
+    assertTrue(PurgeResult.combine(Arrays.asList(PurgeResult.SUCCESS, transientFailure)).isRetryable());
+    assertFalse(PurgeResult.combine(Arrays.asList(transientFailure, permanentFailure)).isRetryable());
+  }
+
+  @Test
+  void testBlockingResults() {
+    assertSame(PurgeResult.SUCCESS, PurgeResult.of(true, Collections.singleton("a")));
+    assertEquals(Collections.singleton("a"), PurgeResult.of(false, Collections.singleton("a")).getFailedObjects());
+    assertFalse(PurgeResult.of(false, Collections.singleton("a")).isRetryable());
+    assertTrue(PurgeResult.failed(0, null).getFailedObjects().isEmpty());
+  }
+}
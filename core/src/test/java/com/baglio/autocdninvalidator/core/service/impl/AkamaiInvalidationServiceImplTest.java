@@ -4,17 +4,26 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 import com.baglio.autocdninvalidator.core.service.HttpClientService;
+import com.baglio.autocdninvalidator.core.service.PurgeResult;
 import com.baglio.autocdninvalidator.core.service.UtilityService;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.lang.reflect.Field;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -149,4 +158,213 @@ class AkamaiInvalidationServiceImplTest {
     result = invalidationService.purgeByURLs(tags);
     assertFalse(result);
   }
+
+  @Test
+  void testChunksAreSentConcurrently() throws IOException {
+    when(config.isEnabled()).thenReturn(true);
+    when(config.max_request_objects()).thenReturn(1);
+    when(config.request_parallelism()).thenReturn(2);
+    invalidationService.activate(config);
+
+    HttpClientService httpClientService = mock(HttpClientService.class);
+    when(utilityService.getService(HttpClientService.class, HTTP_CLIENT_CONFIGURATION_ID))
+        .thenReturn(httpClientService);
+    CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
+    when(httpClientService.getConfiguredHttpClient()).thenReturn(httpClient);
+    CloseableHttpResponse success = mock(CloseableHttpResponse.class);
+    StatusLine ok = mock(StatusLine.class);
+    when(success.getEntity()).thenReturn(mock(HttpEntity.class));
+    when(success.getStatusLine()).thenReturn(ok);
+    when(ok.getStatusCode()).thenReturn(HttpServletResponse.SC_CREATED);
+    CloseableHttpResponse failure = mock(CloseableHttpResponse.class);
+    StatusLine tooLarge = mock(StatusLine.class);
+    when(failure.getEntity()).thenReturn(mock(HttpEntity.class));
+    when(failure.getStatusLine()).thenReturn(tooLarge);
+    when(tooLarge.getStatusCode()).thenReturn(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+
+    // each request waits for the other one to be in flight: sequential sends would time out
+    CountDownLatch inFlight = new CountDownLatch(2);
+    when(httpClient.execute(any(HttpPost.class)))
+        .thenAnswer(
+            invocation -> {
+              inFlight.countDown();
+              return inFlight.await(5, TimeUnit.SECONDS) ? success : failure;
+            });
+    assertTrue(invalidationService.purgeByTag(tags));
+    verify(httpClient, times(2)).execute(any(HttpPost.class));
+
+    // a single rejected chunk fails the purge
+    when(httpClient.execute(any(HttpPost.class))).thenReturn(success, failure);
+    assertFalse(invalidationService.purgeByTag(tags));
+    invalidationService.deactivate();
+  }
+
+  @Test
+  void testTooManyRequestsIsRetried() throws IOException {
+    when(config.isEnabled()).thenReturn(true);
+    when(config.retry_max_retries()).thenReturn(1);
+    invalidationService.activate(config);
+
+    HttpClientService httpClientService = mock(HttpClientService.class);
+    when(utilityService.getService(HttpClientService.class, HTTP_CLIENT_CONFIGURATION_ID))
+        .thenReturn(httpClientService);
+    CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
+    when(httpClientService.getConfiguredHttpClient()).thenReturn(httpClient);
+    CloseableHttpResponse throttled = mock(CloseableHttpResponse.class);
+    StatusLine tooManyRequests = mock(StatusLine.class);
+    when(throttled.getEntity()).thenReturn(mock(HttpEntity.class));
+    when(throttled.getStatusLine()).thenReturn(tooManyRequests);
+    when(throttled.getFirstHeader(HttpHeaders.RETRY_AFTER)).thenReturn(new BasicHeader(HttpHeaders.RETRY_AFTER, "0"));
+    when(tooManyRequests.getStatusCode()).thenReturn(429);
+    CloseableHttpResponse success = mock(CloseableHttpResponse.class);
+    StatusLine created = mock(StatusLine.class);
+    when(success.getEntity()).thenReturn(mock(HttpEntity.class));
+    when(success.getStatusLine()).thenReturn(created);
+    when(created.getStatusCode()).thenReturn(HttpServletResponse.SC_CREATED);
+
+    when(httpClient.execute(any(HttpPost.class))).thenReturn(throttled, success);
+    assertTrue(invalidationService.purgeByTag(tags));
+    verify(httpClient, times(2)).execute(any(HttpPost.class));
+
+    // retries exhausted
+    when(httpClient.execute(any(HttpPost.class))).thenReturn(throttled);
+    assertFalse(invalidationService.purgeByTag(tags));
+  }
+
+  @Test
+  void testGetRetryAfterNanos() {
+    long now = 1_700_000_000_000L;
+    assertEquals(TimeUnit.SECONDS.toNanos(3), AkamaiInvalidationServiceImpl.getRetryAfterNanos("3", now));
+    assertEquals(
+        TimeUnit.SECONDS.toNanos(20),
+        AkamaiInvalidationServiceImpl.getRetryAfterNanos("Tue, 14 Nov 2023 22:13:40 GMT", now));
+    assertEquals(0, AkamaiInvalidationServiceImpl.getRetryAfterNanos("Tue, 14 Nov 2023 22:00:00 GMT", now));
+    assertEquals(-1, AkamaiInvalidationServiceImpl.getRetryAfterNanos("soon", now));
+    assertEquals(-1, AkamaiInvalidationServiceImpl.getRetryAfterNanos(null, now));
+  }
+
+  @Test
+  void testGetBackoffNanos() {
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(250), AkamaiInvalidationServiceImpl.getBackoffNanos(0, 500, 10000, 0));
+    assertEquals(
+        TimeUnit.MILLISECONDS.toNanos(1500), AkamaiInvalidationServiceImpl.getBackoffNanos(2, 500, 10000, 0.5));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(5000), AkamaiInvalidationServiceImpl.getBackoffNanos(40, 500, 10000, 0));
+    assertEquals(0, AkamaiInvalidationServiceImpl.getBackoffNanos(3, 0, 10000, 0.9));
+  }
+
+  @Test
+  void testTransientFailuresAreRetried() throws IOException {
+    when(config.isEnabled()).thenReturn(true);
+    when(config.retry_max_retries()).thenReturn(2);
+    invalidationService.activate(config);
+
+    HttpClientService httpClientService = mock(HttpClientService.class);
+    when(utilityService.getService(HttpClientService.class, HTTP_CLIENT_CONFIGURATION_ID))
+        .thenReturn(httpClientService);
+    CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
+    when(httpClientService.getConfiguredHttpClient()).thenReturn(httpClient);
+    CloseableHttpResponse unavailable = mock(CloseableHttpResponse.class);
+    StatusLine serviceUnavailable = mock(StatusLine.class);
+    when(unavailable.getEntity()).thenReturn(mock(HttpEntity.class));
+    when(unavailable.getStatusLine()).thenReturn(serviceUnavailable);
+    when(serviceUnavailable.getStatusCode()).thenReturn(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    CloseableHttpResponse success = mock(CloseableHttpResponse.class);
+    StatusLine created = mock(StatusLine.class);
+    HttpEntity accepted = mock(HttpEntity.class);
+    when(accepted.getContent())
+        .thenAnswer(
+            invocation ->
+                new ByteArrayInputStream(
+                    "{\"httpStatus\":201,\"purgeId\":\"e535071c\",\"estimatedSeconds\":5}"
+                        .getBytes(StandardCharsets.UTF_8)));
+    when(success.getEntity()).thenReturn(accepted);
+    when(success.getStatusLine()).thenReturn(created);
+    when(created.getStatusCode()).thenReturn(HttpServletResponse.SC_CREATED);
+
+    when(httpClient.execute(any(HttpPost.class)))
+        .thenThrow(new IOException("connection reset"))
+        .thenReturn(unavailable, success);
+    PurgeResult result = invalidationService.purgeByURLsAsync(tags).join();
+    assertTrue(result.isSuccess());
+    assertEquals(HttpServletResponse.SC_CREATED, result.getHttpStatus());
+    assertEquals(Collections.singletonList("e535071c"), result.getPurgeIds());
+    assertEquals(5, result.getEstimatedSeconds());
+    verify(httpClient, times(3)).execute(any(HttpPost.class));
+
+    // retries exhausted: all the objects of the request failed
+    when(httpClient.execute(any(HttpPost.class))).thenReturn(unavailable);
+    result = invalidationService.purgeByURLsAsync(tags).join();
+    assertFalse(result.isSuccess());
+    assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, result.getHttpStatus());
+    assertEquals(tags, result.getFailedObjects());
+    invalidationService.deactivate();
+  }
+
+  @Test
+  void testRetryWaitDoesNotHoldRequestThreads() throws Exception {
+    when(config.isEnabled()).thenReturn(true);
+    when(config.request_parallelism()).thenReturn(1);
+    when(config.retry_max_retries()).thenReturn(1);
+    when(config.retry_initial_backoff()).thenReturn(60_000L);
+    when(config.retry_max_backoff()).thenReturn(60_000L);
+    invalidationService.activate(config);
+
+    HttpClientService httpClientService = mock(HttpClientService.class);
+    when(utilityService.getService(HttpClientService.class, HTTP_CLIENT_CONFIGURATION_ID))
+        .thenReturn(httpClientService);
+    CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
+    when(httpClientService.getConfiguredHttpClient()).thenReturn(httpClient);
+    CloseableHttpResponse unavailable = mock(CloseableHttpResponse.class);
+    StatusLine serviceUnavailable = mock(StatusLine.class);
+    when(unavailable.getEntity()).thenReturn(mock(HttpEntity.class));
+    when(unavailable.getStatusLine()).thenReturn(serviceUnavailable);
+    when(serviceUnavailable.getStatusCode()).thenReturn(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    CloseableHttpResponse success = mock(CloseableHttpResponse.class);
+    StatusLine created = mock(StatusLine.class);
+    when(success.getEntity()).thenReturn(mock(HttpEntity.class));
+    when(success.getStatusLine()).thenReturn(created);
+    when(created.getStatusCode()).thenReturn(HttpServletResponse.SC_CREATED);
+    when(httpClient.execute(any(HttpPost.class))).thenReturn(unavailable, success);
+
+    // the only request thread is free to send other requests while the first one waits for its retry
+    CompletableFuture<PurgeResult> retried = invalidationService.purgeByURLsAsync(Collections.singleton("/a.html"));
+    CompletableFuture<PurgeResult> other = invalidationService.purgeByTagAsync(tags);
+    assertTrue(other.get(5, TimeUnit.SECONDS).isSuccess());
+    assertFalse(retried.isDone());
+    verify(httpClient, times(2)).execute(any(HttpPost.class));
+    invalidationService.deactivate();
+  }
+
+  @Test
+  void testAsyncPurgeDoesNotBlockTheCaller() throws Exception {
+    when(config.isEnabled()).thenReturn(true);
+    invalidationService.activate(config);
+
+    HttpClientService httpClientService = mock(HttpClientService.class);
+    when(utilityService.getService(HttpClientService.class, HTTP_CLIENT_CONFIGURATION_ID))
+        .thenReturn(httpClientService);
+    CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
+    when(httpClientService.getConfiguredHttpClient()).thenReturn(httpClient);
+    CloseableHttpResponse success = mock(CloseableHttpResponse.class);
+    StatusLine created = mock(StatusLine.class);
+    when(success.getEntity()).thenReturn(mock(HttpEntity.class));
+    when(success.getStatusLine()).thenReturn(created);
+    when(created.getStatusCode()).thenReturn(HttpServletResponse.SC_CREATED);
+    CountDownLatch answered = new CountDownLatch(1);
+    when(httpClient.execute(any(HttpPost.class)))
+        .thenAnswer(
+            invocation -> {
+              answered.await();
+              return success;
+            });
+
+    CompletableFuture<PurgeResult> result = invalidationService.purgeByURLsAsync(tags);
+    assertFalse(result.isDone());
+    answered.countDown();
+    assertTrue(result.get(5, TimeUnit.SECONDS).isSuccess());
+
+    // validation failures complete immediately
+    assertFalse(invalidationService.purgeByTagAsync(new HashSet<>()).join().isSuccess());
+    invalidationService.deactivate();
+  }
 }
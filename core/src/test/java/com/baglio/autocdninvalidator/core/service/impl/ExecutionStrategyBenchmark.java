@@ -0,0 +1,88 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import com.baglio.autocdninvalidator.core.service.ExecutionStrategyService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the execution modes on a workload similar to tag/code computation: every path is matched against a few
+ * rules and the replaced values are collected into a set. The threshold is set to 0 so that every mode applies to every
+ * size; the crossing point between {@code SEQUENTIAL} and the parallel modes is the value to configure as parallelism
+ * threshold.
+ *
+ * <p>Run with {@code mvn -Pbenchmark test -Djmh.includes=ExecutionStrategyBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutionStrategyBenchmark {
+  private static final Pattern[] RULES = {
+    Pattern.compile("/content/site-([0-9]+)/en/section-([0-9]+)/.*"),
+    Pattern.compile("/content/site-([0-9]+)/.*/page-([0-9]+)"),
+    Pattern.compile("/content/dam/site-([0-9]+)/(.*)")
+  };
+
+  @Param({"SEQUENTIAL", "DEDICATED", "COMMON"})
+  public String mode;
+
+  @Param({"10", "100", "1000", "10000"})
+  public int pathCount;
+
+  private List<String> paths;
+  private ExecutionStrategyServiceImpl service;
+
+  @Setup
+  public void setUp() {
+    paths = new ArrayList<>(pathCount);
+    for (int i = 0; i < pathCount; i++) {
+      paths.add("/content/site-" + (i % 20) + "/en/section-" + (i % 37) + "/page-" + i);
+    }
+    service = new ExecutionStrategyServiceImpl();
+    service.configure(ExecutionStrategyService.Mode.valueOf(mode), 0, 0);
+  }
+
+  @TearDown
+  public void tearDown() {
+    service.deactivate();
+  }
+
+  @Benchmark
+  public Set<String> invalidationValues() {
+    return service.execute(
+        paths,
+        stream ->
+            stream
+                .flatMap(
+                    path -> {
+                      List<String> values = new ArrayList<>(RULES.length);
+                      for (Pattern rule : RULES) {
+                        Matcher matcher = rule.matcher(path);
+                        if (matcher.matches()) {
+                          values.add(matcher.replaceAll("tag-$1-$2"));
+                        }
+                      }
+                      return values.stream();
+                    })
+                .collect(Collectors.toSet()));
+  }
+}
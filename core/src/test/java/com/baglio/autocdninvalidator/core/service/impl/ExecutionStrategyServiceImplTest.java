@@ -0,0 +1,100 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.baglio.autocdninvalidator.core.service.ExecutionStrategyService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ExecutionStrategyServiceImplTest {
+
+  private final ExecutionStrategyServiceImpl service = new ExecutionStrategyServiceImpl();
+
+  private final List<Integer> items = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+
+  @AfterEach
+  void tearDown() {
+    service.deactivate();
+  }
+
+  private Set<String> runAndCollectThreadNames() {
+    return service.execute(
+        items, stream -> stream.map(item -> Thread.currentThread().getName()).collect(Collectors.toSet()));
+  }
+
+  @Test
+  void testDedicatedPoolRunsAboveThreshold() {
+    service.configure(ExecutionStrategyService.Mode.DEDICATED, 2, 10);
+    assertEquals(Integer.valueOf(4950), service.execute(items, stream -> stream.reduce(0, Integer::sum)));
+    assertTrue(
+        runAndCollectThreadNames().stream().allMatch(name -> name.startsWith("autocdninvalidator-execution-")));
+  }
+
+  @Test
+  void testSequentialBelowThreshold() {
+    service.configure(ExecutionStrategyService.Mode.DEDICATED, 2, 1000);
+    assertEquals(Collections.singleton(Thread.currentThread().getName()), runAndCollectThreadNames());
+
+    service.configure(ExecutionStrategyService.Mode.SEQUENTIAL, 0, 0);
+    assertEquals(Collections.singleton(Thread.currentThread().getName()), runAndCollectThreadNames());
+  }
+
+  @Test
+  void testActivateWithUnknownModeFallsBackToSequential() {
+    ExecutionStrategyServiceImpl.Config config = mock(ExecutionStrategyServiceImpl.Config.class);
+    when(config.mode()).thenReturn("unknown");
+    service.activate(config);
+    assertEquals(Collections.singleton(Thread.currentThread().getName()), runAndCollectThreadNames());
+  }
+
+  @Test
+  void testExceptionsArePropagated() {
+    service.configure(ExecutionStrategyService.Mode.DEDICATED, 2, 0);
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            service.execute(
+                items,
+                stream ->
+                    stream
+                        .map(
+                            item -> {
+                              throw new IllegalArgumentException("test exception");
+                            })
+                        .collect(Collectors.toList())));
+  }
+
+  @Test
+  void testPartition() {
+    List<List<Integer>> chunks = ExecutionStrategyServiceImpl.partition(items, 3);
+    assertEquals(3, chunks.size());
+    assertEquals(Arrays.asList(33, 33, 34), chunks.stream().map(List::size).collect(Collectors.toList()));
+    assertEquals(items, chunks.stream().flatMap(List::stream).collect(Collectors.toList()));
+    assertEquals(2, ExecutionStrategyServiceImpl.partition(Arrays.asList(1, 2), 8).size());
+    assertTrue(ExecutionStrategyServiceImpl.partition(Collections.emptyList(), 8).isEmpty());
+  }
+
+  @Test
+  void testPartitionedExecutionGivesOneChunkPerWorker() {
+    service.configure(ExecutionStrategyService.Mode.DEDICATED, 2, 10);
+    List<String> threadNames = service.executePartitioned(items, chunk -> Thread.currentThread().getName());
+    assertEquals(2, threadNames.size());
+    assertTrue(threadNames.stream().allMatch(name -> name.startsWith("autocdninvalidator-execution-")));
+
+    service.configure(ExecutionStrategyService.Mode.DEDICATED, 2, 1000);
+    assertEquals(Collections.singletonList(items.size()), service.executePartitioned(items, List::size));
+    assertEquals(
+        Collections.singletonList(items.size()),
+        ExecutionStrategyService.SEQUENTIAL.executePartitioned(items, List::size));
+  }
+}
@@ -0,0 +1,73 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class InvalidationDeduplicationServiceImplTest {
+
+  private static final String TOPIC_A = "topic/a";
+  private static final String TOPIC_B = "topic/b";
+
+  private final InvalidationDeduplicationServiceImpl service = new InvalidationDeduplicationServiceImpl();
+  private final Set<String> queuedJobs = new HashSet<>();
+  private long now;
+
+  @BeforeEach
+  void setUp() {
+    service.configure(true, 1000, 3, () -> now, queuedJobs::contains);
+  }
+
+  private static Set<String> paths(final String... paths) {
+    return new HashSet<>(Arrays.asList(paths));
+  }
+
+  @Test
+  void testDropsPathsQueuedForSameTopic() {
+    assertEquals(paths("/content/a", "/content/b"), service.dropQueued(TOPIC_A, paths("/content/a", "/content/b")));
+    service.register(TOPIC_A, paths("/content/a", "/content/b"), "job-1");
+    queuedJobs.add("job-1");
+
+    assertEquals(paths("/content/c"), service.dropQueued(TOPIC_A, paths("/content/a", "/content/c")));
+    // other topics are tracked separately
+    assertEquals(paths("/content/a"), service.dropQueued(TOPIC_B, paths("/content/a")));
+    // registry full: paths are not tracked
+    service.register(TOPIC_B, paths("/content/a", "/content/d"), "job-2");
+    queuedJobs.add("job-2");
+    assertEquals(3, service.size());
+
+    // max age elapsed: paths are enqueued again even if the job is still queued
+    now += TimeUnit.SECONDS.toNanos(2);
+    assertEquals(paths("/content/a"), service.dropQueued(TOPIC_A, paths("/content/a")));
+    assertEquals(2, service.size());
+  }
+
+  @Test
+  void testPathsOfStartedJobsAreEnqueuedAgain() {
+    service.register(TOPIC_A, paths("/content/a"), "job-1");
+    queuedJobs.add("job-1");
+    assertTrue(service.dropQueued(TOPIC_A, paths("/content/a")).isEmpty());
+
+    // the job started and may have already purged the path
+    queuedJobs.remove("job-1");
+    assertEquals(paths("/content/a"), service.dropQueued(TOPIC_A, paths("/content/a")));
+    assertEquals(0, service.size());
+  }
+
+  @Test
+  void testDisabled() {
+    service.configure(false, 1000, 3, () -> now, queuedJobs::contains);
+    service.register(TOPIC_A, paths("/content/a"), "job-1");
+    queuedJobs.add("job-1");
+    assertEquals(paths("/content/a"), service.dropQueued(TOPIC_A, paths("/content/a")));
+    assertEquals(0, service.size());
+    assertTrue(service.dropQueued(TOPIC_A, Collections.emptySet()).isEmpty());
+  }
+}
@@ -0,0 +1,72 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.baglio.autocdninvalidator.core.service.InvalidationStage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Constants;
+
+class InvalidationPipelineServiceImplTest {
+
+  private static final String TOPIC = "com/baglio/autocdninvalidator/job/website";
+
+  private final InvalidationPipelineServiceImpl service = new InvalidationPipelineServiceImpl();
+  private final List<String> calls = new ArrayList<>();
+
+  private static Map<String, Object> properties(final String phase, final int ranking, final long serviceId) {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put(InvalidationStage.PROPERTY_PHASE, phase);
+    properties.put(Constants.SERVICE_RANKING, ranking);
+    properties.put(Constants.SERVICE_ID, serviceId);
+    return properties;
+  }
+
+  @Test
+  void testStagesRunInRankingOrderOnTheSameBatch() {
+    InvalidationStage low =
+        batch -> {
+          calls.add("low");
+          batch.getItems().removeIf(url -> url.endsWith(".json"));
+        };
+    InvalidationStage high =
+        batch -> {
+          calls.add("high");
+          batch.getItems().add("https://publish/home.model.json");
+        };
+    service.bindStage(low, properties(InvalidationStage.PHASE_URLS, 0, 1));
+    service.bindStage(high, properties(InvalidationStage.PHASE_URLS, 100, 2));
+
+    Set<String> urls = new HashSet<>(Collections.singletonList("https://publish/home.html"));
+    assertEquals(urls, service.process(InvalidationStage.PHASE_URLS, TOPIC, urls));
+    assertEquals(Arrays.asList("high", "low"), calls);
+    assertEquals(1, urls.size());
+
+    service.unbindStage(high);
+    calls.clear();
+    service.process(InvalidationStage.PHASE_URLS, TOPIC, urls);
+    assertEquals(Collections.singletonList("low"), calls);
+  }
+
+  @Test
+  void testStagesAreFilteredByPhaseAndTopic() {
+    Map<String, Object> properties = properties(InvalidationStage.PHASE_PATHS, 0, 1);
+    properties.put(InvalidationStage.PROPERTY_JOB_TOPICS, new String[] {TOPIC});
+    service.bindStage(batch -> calls.add(batch.getJobTopic()), properties);
+    service.bindStage(batch -> calls.add("invalid"), properties("unknown", 0, 2));
+
+    Set<String> paths = Collections.singleton("/content/we-retail/ca/en");
+    assertSame(paths, service.process(InvalidationStage.PHASE_VALUES, TOPIC, paths));
+    assertSame(paths, service.process(InvalidationStage.PHASE_PATHS, "other/topic", paths));
+    assertEquals(paths, service.process(InvalidationStage.PHASE_PATHS, TOPIC, paths));
+    assertEquals(Collections.singletonList(TOPIC), calls);
+  }
+}
@@ -0,0 +1,73 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+class PublicUrlCacheServiceImplTest {
+
+  private final PublicUrlCacheServiceImpl service = new PublicUrlCacheServiceImpl();
+  private final AtomicInteger externalized = new AtomicInteger();
+  private final Function<String, List<String>> externalizer =
+      path -> {
+        externalized.incrementAndGet();
+        return Collections.singletonList("https://www.example.com" + path + ".html");
+      };
+
+  private void activate(final boolean enabled) {
+    PublicUrlCacheServiceImpl.Config config = mock(PublicUrlCacheServiceImpl.Config.class);
+    when(config.isEnabled()).thenReturn(enabled);
+    when(config.max_size()).thenReturn(100);
+    service.activate(config);
+  }
+
+  @Test
+  void testUrlsAreCachedByKey() {
+    activate(true);
+    assertEquals(
+        Collections.singletonList("https://www.example.com/content/a.html"),
+        service.getPublicUrls("publish-https", "/content/a", externalizer));
+    service.getPublicUrls("publish-https", "/content/a", externalizer);
+    assertEquals(1, externalized.get());
+
+    service.getPublicUrls("publish-http", "/content/a", externalizer);
+    service.getPublicUrls("publish-https", "/content/b", externalizer);
+    assertEquals(3, externalized.get());
+
+    service.invalidate();
+    service.getPublicUrls("publish-https", "/content/a", externalizer);
+    assertEquals(4, externalized.get());
+  }
+
+  @Test
+  void testPathsAreEvictedWithTheirDescendants() {
+    activate(true);
+    service.getPublicUrls("publish-https", "/content/a", externalizer);
+    service.getPublicUrls("publish-http", "/content/a/b", externalizer);
+    service.getPublicUrls("publish-https", "/content/ab", externalizer);
+    assertEquals(3, externalized.get());
+
+    service.invalidate(Collections.singleton("/content/a"));
+    service.getPublicUrls("publish-https", "/content/ab", externalizer);
+    assertEquals(3, externalized.get());
+    service.getPublicUrls("publish-https", "/content/a", externalizer);
+    service.getPublicUrls("publish-http", "/content/a/b", externalizer);
+    assertEquals(5, externalized.get());
+  }
+
+  @Test
+  void testDisabled() {
+    activate(false);
+    service.getPublicUrls("publish-https", "/content/a", externalizer);
+    service.getPublicUrls("publish-https", "/content/a", externalizer);
+    service.invalidate();
+    service.invalidate(Collections.singleton("/content/a"));
+    assertEquals(2, externalized.get());
+  }
+}
@@ -0,0 +1,76 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class PurgeRateLimiterTest {
+
+  private final AtomicLong clock = new AtomicLong();
+
+  private static long millis(final long value) {
+    return TimeUnit.MILLISECONDS.toNanos(value);
+  }
+
+  @Test
+  void testRequestsAreSpreadAtTheSustainedRate() {
+    PurgeRateLimiter limiter = new PurgeRateLimiter(2, 0, 0, 10000, clock::get);
+    assertEquals(0, limiter.reserve(1));
+    assertEquals(0, limiter.reserve(1));
+    assertEquals(millis(500), limiter.reserve(1));
+    assertEquals(millis(1000), limiter.reserve(1));
+
+    clock.set(millis(2000));
+    assertEquals(0, limiter.reserve(1));
+  }
+
+  @Test
+  void testObjectsBurstDebtAndMaxWait() {
+    PurgeRateLimiter limiter = new PurgeRateLimiter(0, 100, 100, 1000, clock::get);
+    // a purge larger than the burst is sent when the bucket is full, then repaid
+    assertEquals(0, limiter.reserve(150));
+    assertEquals(millis(600), limiter.reserve(10));
+    assertEquals(-1, limiter.reserve(100));
+
+    clock.set(millis(600));
+    assertEquals(millis(900), limiter.reserve(90));
+  }
+
+  @Test
+  void testPauseAndRemainingQuota() {
+    PurgeRateLimiter limiter = new PurgeRateLimiter(0, 100, 100, 5000, clock::get);
+    limiter.pause(millis(2000));
+    assertEquals(millis(2000), limiter.reserve(1));
+
+    clock.set(millis(4000));
+    limiter.limitObjects(0);
+    assertEquals(millis(100), limiter.reserve(10));
+  }
+
+  @Test
+  void testConfigureKeepsTokensAndPause() {
+    PurgeRateLimiter limiter = new PurgeRateLimiter(0, 100, 100, 5000, clock::get);
+    assertEquals(0, limiter.reserve(100));
+    // an empty bucket is not refilled by a configuration change, the new rate applies to the debt
+    limiter.configure(0, 200, 100, 5000);
+    assertEquals(millis(100), limiter.reserve(20));
+
+    limiter.pause(millis(2000));
+    limiter.configure(0, 200, 100, 5000);
+    assertEquals(millis(2000), limiter.reserve(1));
+  }
+
+  @Test
+  void testUnlimitedBucketDoesNotBuildDebt() {
+    PurgeRateLimiter limiter = new PurgeRateLimiter(0, 0, 100, 1000, clock::get);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(0, limiter.reserve(100));
+    }
+    // once limited, the bucket starts full instead of repaying the requests sent while unlimited
+    limiter.configure(0, 100, 100, 1000);
+    assertEquals(0, limiter.reserve(100));
+    assertEquals(millis(500), limiter.reserve(50));
+  }
+}
@@ -0,0 +1,63 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import com.google.gson.Gson;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of building the bodies of a purge. {@code gson} serializes the objects twice, once for the entity
+ * and once for the signature, as purges used to; {@code singlePass} encodes them once into bodies of the default max
+ * request size, the bytes being both signed and sent.
+ *
+ * <p>Run with {@code mvn -Pbenchmark test -Djmh.includes=PurgeRequestBodyBenchmark}; add {@code -prof gc} to compare
+ * the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PurgeRequestBodyBenchmark {
+  private static final int MAX_REQUEST_BYTES = 50000;
+
+  @Param({"10", "1000", "10000"})
+  public int objectCount;
+
+  private final Gson gson = new Gson();
+  private Set<String> urls;
+
+  @Setup
+  public void setUp() {
+    urls = new LinkedHashSet<>(objectCount);
+    for (int i = 0; i < objectCount; i++) {
+      urls.add("https://www.example.com/content/site-" + (i % 20) + "/en/section-" + (i % 37) + "/page-" + i + ".html");
+    }
+  }
+
+  @Benchmark
+  public void gson(final Blackhole blackhole) {
+    blackhole.consume(("{\"objects\":" + gson.toJson(urls) + "}").getBytes(StandardCharsets.UTF_8));
+    blackhole.consume(("{\"objects\":" + gson.toJson(urls) + "}").getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public List<PurgeRequestBody> singlePass() {
+    return PurgeRequestBody.encode(urls, MAX_REQUEST_BYTES, 0);
+  }
+}
@@ -0,0 +1,70 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class PurgeRequestBodyTest {
+  private final Gson gson = new Gson();
+
+  private List<String> parse(final PurgeRequestBody body) {
+    List<String> objects = new ArrayList<>();
+    gson.fromJson(new String(body.getBytes(), StandardCharsets.UTF_8), JsonObject.class)
+        .getAsJsonArray("objects")
+        .forEach(object -> objects.add(object.getAsString()));
+    return objects;
+  }
+
+  @Test
+  void testEncodeBySizeAndCount() {
+    Set<String> objects = new LinkedHashSet<>();
+    for (int i = 0; i < 100; i++) {
+      objects.add("https://www.example.com/content/page-" + i + ".html?q=\u00e8");
+    }
+
+    List<PurgeRequestBody> bodies = PurgeRequestBody.encode(objects, 1000, 0);
+    assertTrue(bodies.size() > 1);
+    List<String> actual = new ArrayList<>();
+    int objectCount = 0;
+    for (PurgeRequestBody body : bodies) {
+      assertTrue(body.getBytes().length <= 1000);
+      objectCount += body.getObjectCount();
+      actual.addAll(parse(body));
+    }
+    assertEquals(new ArrayList<>(objects), actual);
+    assertEquals(100, objectCount);
+
+    assertEquals(10, PurgeRequestBody.encode(objects, 0, 10).size());
+    assertEquals(1, PurgeRequestBody.encode(objects, 0, 0).size());
+    // an object larger than the max size is sent alone
+    assertEquals(100, PurgeRequestBody.encode(objects, 10, 0).size());
+  }
+
+  @Test
+  void testEncodeEscapesAsJson() {
+    Collection<String> objects =
+        Arrays.asList(
+            "/content/\"quoted\"/back\\slash",
+            "tab\tnew\nline\r\b\f\u0001",
+            "caf\u00e9 \u20ac \u4e2d \ud83d\ude00",
+            "sep\u2028ar\u2029ators <&>");
+
+    List<PurgeRequestBody> bodies = PurgeRequestBody.encode(objects, 0, 0);
+    assertEquals(1, bodies.size());
+    assertEquals(objects, parse(bodies.get(0)));
+    assertArrayEquals(
+        "{\"objects\":[\"caf\u00e9 \u20ac \u4e2d \ud83d\ude00\"]}".getBytes(StandardCharsets.UTF_8),
+        PurgeRequestBody.encode(Arrays.asList("caf\u00e9 \u20ac \u4e2d \ud83d\ude00"), 0, 0).get(0).getBytes());
+  }
+}
@@ -0,0 +1,80 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class ReferenceIndexTest {
+
+  private static final String HERO = "/content/dam/site/hero.jpg";
+  private static final String FRAGMENT = "/content/dam/site/fragments/offer";
+  private static final String HOME = "/content/site/en";
+  private static final String OFFERS = "/content/site/en/offers";
+
+  private static Set<String> set(final String... values) {
+    return new HashSet<>(Arrays.asList(values));
+  }
+
+  @Test
+  void testIncrementalUpdates() {
+    ReferenceIndex index = new ReferenceIndex();
+    index.put(HOME, set(HERO));
+    index.put(OFFERS, set(HERO, FRAGMENT));
+    assertEquals(set(HOME, OFFERS), index.getReferencingPages(Collections.singleton(HERO)));
+    // a change to a rendition is a change to the asset
+    assertEquals(
+        set(HOME, OFFERS), index.getReferencingPages(Collections.singleton(HERO + "/jcr:content/renditions/web")));
+
+    index.put(OFFERS, set(FRAGMENT));
+    assertEquals(set(HOME), index.getReferencingPages(Collections.singleton(HERO)));
+
+    assertEquals(set(HOME, OFFERS), index.getPages());
+
+    index.removeTree(HOME);
+    assertTrue(index.getReferencingPages(Arrays.asList(HERO, FRAGMENT)).isEmpty());
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  void testRemoveTreeKeepsSiblings() {
+    ReferenceIndex index = new ReferenceIndex();
+    index.put(HOME, set(HERO));
+    index.put(HOME + "-us", set(HERO));
+    index.removeTree(HOME);
+    assertEquals(set(HOME + "-us"), index.getReferencingPages(Collections.singleton(HERO)));
+  }
+
+  @Test
+  void testEncoding() {
+    ReferenceIndex index = new ReferenceIndex();
+    index.put(HOME, set(HERO));
+    index.put(OFFERS, set(HERO, FRAGMENT));
+    ReferenceIndex decoded = ReferenceIndex.decode(index.encode());
+    assertEquals(2, decoded.size());
+    assertEquals(set(HOME, OFFERS), decoded.getReferencingPages(Collections.singleton(HERO)));
+    assertEquals(set(OFFERS), decoded.getReferencingPages(Collections.singleton(FRAGMENT)));
+    assertThrows(IllegalArgumentException.class, () -> ReferenceIndex.decode(new byte[] {1, 2, 3}));
+  }
+
+  @Test
+  void testExtractReferences() {
+    String[] prefixes = {"/content/dam/"};
+    Set<String> references = new HashSet<>();
+    ReferenceIndexServiceImpl.extractReferences("/content/dam/site/my hero.jpg", prefixes, references);
+    ReferenceIndexServiceImpl.extractReferences(
+        "<p><a href=\"/content/dam/site/doc.pdf?download\">doc</a>"
+            + "<img src=\"/content/dam/site/logo.png/_jcr_content/renditions/web.png\"/></p>",
+        prefixes,
+        references);
+    ReferenceIndexServiceImpl.extractReferences("/content/dam/", prefixes, references);
+    ReferenceIndexServiceImpl.extractReferences("/content/site/en", prefixes, references);
+    assertEquals(
+        set("/content/dam/site/my hero.jpg", "/content/dam/site/doc.pdf", "/content/dam/site/logo.png"), references);
+  }
+}
@@ -0,0 +1,88 @@
+package com.baglio.autocdninvalidator.core.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.baglio.autocdninvalidator.core.helpers.MetricsHelper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.Test;
+
+class ResourceResolverPoolTest {
+
+  private final List<ResourceResolver> created = new ArrayList<>();
+  private long now;
+
+  private final ResourceResolverPool pool =
+      new ResourceResolverPool(this::newResolver, 2, 10, 1000, () -> now, new MetricsHelper(null, "test"));
+
+  private ResourceResolver newResolver() {
+    ResourceResolver resolver = mock(ResourceResolver.class);
+    lenient().when(resolver.isLive()).thenReturn(true);
+    created.add(resolver);
+    return resolver;
+  }
+
+  @Test
+  void testLeasedResolverIsReusedAfterClose() {
+    try (ResourceResolver leased = pool.lease()) {
+      assertNotNull(leased);
+      leased.map("/content");
+    }
+    try (ResourceResolver leased = pool.lease()) {
+      leased.map("/content");
+    }
+    assertEquals(1, created.size());
+    ResourceResolver resolver = created.get(0);
+    verify(resolver, times(2)).map("/content");
+    verify(resolver, times(1)).refresh();
+    verify(resolver, never()).close();
+    assertEquals(1, pool.getIdleCount());
+    assertEquals(2, pool.getAvailableCount());
+  }
+
+  @Test
+  void testPoolIsBounded() {
+    ResourceResolver first = pool.lease();
+    ResourceResolver second = pool.lease();
+    assertNull(pool.lease());
+    assertEquals(0, pool.getAvailableCount());
+
+    // double close gives the resolver back only once, and it cannot be used anymore
+    first.close();
+    first.close();
+    assertFalse(first.isLive());
+    assertThrows(IllegalStateException.class, () -> first.map("/content"));
+    assertEquals(1, pool.getAvailableCount());
+    second.close();
+    assertEquals(2, created.size());
+  }
+
+  @Test
+  void testExpiredAndDeadResolversAreEvicted() {
+    pool.lease().close();
+    now += TimeUnit.SECONDS.toNanos(2);
+    pool.lease().close();
+    assertEquals(2, created.size());
+    verify(created.get(0)).close();
+
+    when(created.get(1).isLive()).thenReturn(false);
+    pool.lease().close();
+    assertEquals(3, created.size());
+
+    pool.close();
+    assertEquals(0, pool.getIdleCount());
+    verify(created.get(2)).close();
+  }
+}
@@ -0,0 +1,82 @@
+package com.baglio.autocdninvalidator.core.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.junit.jupiter.api.Test;
+
+class BoundedCacheTest {
+
+  private final AtomicLong clock = new AtomicLong();
+  private final AtomicInteger loads = new AtomicInteger();
+  private final Function<String, String> loader =
+      key -> {
+        loads.incrementAndGet();
+        return key.toUpperCase();
+      };
+
+  @Test
+  void testLeastRecentlyUsedEntryIsEvicted() {
+    BoundedCache<String, String> cache = newCache(2, 0);
+    assertEquals("A", cache.get("a", loader));
+    assertEquals("B", cache.get("b", loader));
+    assertEquals("A", cache.get("a", loader));
+    assertEquals("C", cache.get("c", loader));
+    assertEquals(2, cache.size());
+    assertEquals(3, loads.get());
+
+    // "b" was the least recently used entry
+    cache.get("a", loader);
+    cache.get("b", loader);
+    assertEquals(4, loads.get());
+    assertEquals(2, cache.getHitCount());
+    assertEquals(4, cache.getMissCount());
+  }
+
+  @Test
+  void testExpiredEntryIsRecomputed() {
+    BoundedCache<String, String> cache = newCache(10, 1000);
+    cache.get("a", loader);
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+    cache.get("a", loader);
+    assertEquals(1, loads.get());
+
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    cache.get("a", loader);
+    assertEquals(2, loads.get());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void testValueLoadedDuringRemovalIsNotCached() {
+    BoundedCache<String, String> cache = newCache(10, 0);
+    assertEquals(
+        "A",
+        cache.get(
+            "a",
+            key -> {
+              cache.removeIf("a"::equals);
+              return loader.apply(key);
+            }));
+    assertEquals(0, cache.size());
+
+    cache.get("a", loader);
+    cache.get("a", loader);
+    assertEquals(2, loads.get());
+  }
+
+  private BoundedCache<String, String> newCache(final int maxSize, final long ttlMillis) {
+    Counter hits = MetricsService.NOOP.counter("hit");
+    Counter misses = MetricsService.NOOP.counter("miss");
+    return new BoundedCache<>(maxSize, ttlMillis, clock::get, hits, misses);
+  }
+}
@@ -0,0 +1,78 @@
+package com.baglio.autocdninvalidator.core.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import org.junit.jupiter.api.Test;
+
+class PathSetCodecTest {
+
+  @Test
+  void testRoundTrip() {
+    Set<String> paths =
+        new HashSet<>(
+            Arrays.asList(
+                "/content/we-retail/ca/en",
+                "/content/we-retail/ca/en/men",
+                "/content/we-retail/ca/english",
+                "/content/dam/we-retail/caf\u00e9.jpg",
+                "/content/dam/we-retail/\ud83d\ude00.png",
+                "/content/dam/we-retail/\ud83d\ude01.png",
+                ""));
+    assertEquals(paths, PathSetCodec.decode(PathSetCodec.encode(paths)));
+    assertTrue(PathSetCodec.decode(PathSetCodec.encode(Collections.emptySet())).isEmpty());
+  }
+
+  @Test
+  void testEncodingIsSmallerThanSerializedSet() throws IOException {
+    Set<String> paths = new HashSet<>();
+    for (int i = 0; i < 1000; i++) {
+      paths.add("/content/we-retail/ca/en/section-" + (i % 10) + "/page-" + i);
+    }
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+      out.writeObject(paths);
+    }
+    byte[] encoded = PathSetCodec.encode(paths);
+    assertTrue(encoded.length * 5 < serialized.size());
+    assertEquals(paths, PathSetCodec.decode(encoded));
+  }
+
+  @Test
+  void testInvalidPayload() {
+    assertThrows(IllegalArgumentException.class, () -> PathSetCodec.decode(new byte[0]));
+    assertThrows(IllegalArgumentException.class, () -> PathSetCodec.decode(new byte[] {9, 1, 2}));
+    byte[] encoded = PathSetCodec.encode(Collections.singleton("/content/we-retail"));
+    assertThrows(IllegalArgumentException.class, () -> PathSetCodec.decode(Arrays.copyOf(encoded, 4)));
+  }
+
+  @Test
+  void testLengthsAreBoundedByPayload() {
+    // a path count and a suffix length of Integer.MAX_VALUE, with no data following them
+    byte[] hugeCount = deflate(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+    assertThrows(IllegalArgumentException.class, () -> PathSetCodec.decode(hugeCount));
+    byte[] hugeSuffix = deflate(new byte[] {1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+    assertThrows(IllegalArgumentException.class, () -> PathSetCodec.decode(hugeSuffix));
+  }
+
+  private static byte[] deflate(final byte[] content) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(1);
+    try (DeflaterOutputStream out = new DeflaterOutputStream(bytes)) {
+      out.write(content);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,73 @@
+package com.baglio.autocdninvalidator.core.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PrefixTrieTest {
+
+  @Test
+  void testLookups() {
+    PrefixTrie<String> trie = new PrefixTrie<>();
+    assertTrue(trie.isEmpty());
+    assertFalse(trie.matchesPrefixOf("/content"));
+
+    trie.put("/content/site", "site");
+    trie.put("/content/site/en", "en");
+    trie.put("/content/dam", "dam");
+    trie.put("/content/dam", "dam-replaced");
+    assertEquals(3, trie.size());
+
+    assertTrue(trie.matchesPrefixOf("/content/site/fr/home"));
+    assertTrue(trie.matchesPrefixOf("/content/site"));
+    assertFalse(trie.matchesPrefixOf("/content/sit"));
+    assertFalse(trie.matchesPrefixOf("/conf/site"));
+
+    assertEquals("en", trie.getLongestPrefixValue("/content/site/en/home"));
+    assertEquals("site", trie.getLongestPrefixValue("/content/site/fr/home"));
+    assertEquals("dam-replaced", trie.getLongestPrefixValue("/content/dam/image.png"));
+    assertNull(trie.getLongestPrefixValue("/var"));
+
+    List<String> values = new ArrayList<>();
+    trie.forEachPrefixValue("/content/site/en/home", values::add);
+    assertEquals(Arrays.asList("site", "en"), values);
+  }
+
+  @Test
+  void testPathPrefixesMatchWholeSegments() {
+    PrefixTrie<String> trie = new PrefixTrie<>();
+    trie.put("/content/site", "site");
+    trie.put("/content/site/en", "en");
+    trie.put("/var/", "var");
+
+    assertTrue(trie.matchesPrefixOf("/content/site-b"));
+    assertFalse(trie.matchesPathPrefixOf("/content/site-b"));
+    assertTrue(trie.matchesPathPrefixOf("/content/site"));
+    assertTrue(trie.matchesPathPrefixOf("/content/site/fr"));
+    assertTrue(trie.matchesPathPrefixOf("/var/audit"));
+
+    assertEquals("site", trie.getLongestPathPrefixValue("/content/site/english"));
+    assertEquals("en", trie.getLongestPathPrefixValue("/content/site/en/home"));
+    assertNull(trie.getLongestPathPrefixValue("/content/site-b/en"));
+  }
+
+  @Test
+  void testEmptyPrefixMatchesEverything() {
+    PrefixTrie<Integer> trie = new PrefixTrie<>();
+    trie.put("", 0);
+    trie.put("/a", 1);
+    assertTrue(trie.matchesPrefixOf("/b"));
+    assertEquals(Integer.valueOf(0), trie.getLongestPrefixValue("/b"));
+    assertEquals(Integer.valueOf(1), trie.getLongestPrefixValue("/a/b"));
+
+    List<Integer> values = new ArrayList<>();
+    trie.forEachPrefixValue("/a/b", values::add);
+    assertEquals(Arrays.asList(0, 1), values);
+  }
+}